@@ -0,0 +1,35 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.data;
+
+import java.util.Base64;
+
+/**
+ * Converts between the base64 keys of the API and the bytes which are stored.
+ * The hsqldb migration to binary keys calls {@link #decode(String)} as a SQL
+ * function. If the JVM restricts hsqldb routines with the system property
+ * <code>hsqldb.method_class_names</code>, it has to include
+ * <code>org.dpppt.backend.sdk.data.Base64Keys.*</code>.
+ */
+public final class Base64Keys {
+
+	private Base64Keys() {
+	}
+
+	/**
+	 * Accepts what the upload of an exposee has always accepted.
+	 *
+	 * @throws IllegalArgumentException if the key is not valid base64
+	 */
+	public static byte[] decode(String base64) {
+		return Base64.getDecoder().decode(base64);
+	}
+
+	public static String encode(byte[] key) {
+		return Base64.getEncoder().encodeToString(key);
+	}
+}
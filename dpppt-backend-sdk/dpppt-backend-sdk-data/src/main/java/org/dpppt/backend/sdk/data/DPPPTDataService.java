@@ -8,6 +8,7 @@ package org.dpppt.backend.sdk.data;
 
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Map;
 
 import org.dpppt.backend.sdk.model.Exposee;
 
@@ -25,6 +26,15 @@ public interface DPPPTDataService {
 	 */
 	void upsertExposee(Exposee exposee, String appSource);
 
+	/**
+	 * Upserts an exposee whose key is already decoded
+	 *
+	 * @param key       the key
+	 * @param keyDate   the key date in ms since the epoch
+	 * @param appSource the app name
+	 */
+	void upsertExposee(byte[] key, long keyDate, String appSource);
+
 	/**
 	 * Returns all exposees for the given day [day: 00:00, day+1: 00:00] ordered by id
 	 * 
@@ -33,6 +43,27 @@ public interface DPPPTDataService {
 	 */
 	List<Exposee> getSortedExposedForDay(OffsetDateTime day);
 
+	/**
+	 * Returns the exposees for the given day whose key date lies in the given
+	 * window, ordered by id, as columns.
+	 *
+	 * @param day         the day for which exposees are requested
+	 * @param keyDateFrom the earliest key date, inclusive, or null
+	 * @param keyDateTo   the end of the key dates, exclusive, or null
+	 * @return exposee columns
+	 */
+	ExposeeColumns getSortedExposedColumnsForDay(OffsetDateTime day, Long keyDateFrom, Long keyDateTo);
+
+	/**
+	 * Passes all exposees for the given day to the callback, in the same order as
+	 * {@link #getSortedExposedForDay(OffsetDateTime)}, while the rows are read
+	 * from the database.
+	 *
+	 * @param day      the day for which exposees are requested
+	 * @param callback called for every row
+	 */
+	void streamSortedExposedForDay(OffsetDateTime day, ExposeeRowCallback callback);
+
 	/**
 	 * Returns the maximum id of the stored exposed entries for the given day date
 	 *
@@ -69,6 +100,104 @@ public interface DPPPTDataService {
 	 */
 	List<Exposee> getSortedExposedForBatchReleaseTime(Long batchReleaseTime, long batchLength);
 
+	/**
+	 * Returns the exposees for the given batch whose key date lies in the given
+	 * window, in the same order as
+	 * {@link #getSortedExposedForBatchReleaseTime(Long, long)}, as columns.
+	 *
+	 * @param batchReleaseTime
+	 * @param batchLength
+	 * @param keyDateFrom      the earliest key date, inclusive, or null
+	 * @param keyDateTo        the end of the key dates, exclusive, or null
+	 * @return exposee columns
+	 */
+	ExposeeColumns getSortedExposedColumnsForBatchReleaseTime(Long batchReleaseTime, long batchLength,
+			Long keyDateFrom, Long keyDateTo);
+
+	/**
+	 * Passes all exposees for the given batch to the callback, in the same order
+	 * as {@link #getSortedExposedForBatchReleaseTime(Long, long)}, while the rows
+	 * are read from the database.
+	 *
+	 * @param batchReleaseTime
+	 * @param batchLength
+	 * @param callback         called for every row
+	 */
+	void streamSortedExposedForBatchReleaseTime(Long batchReleaseTime, long batchLength,
+			ExposeeRowCallback callback);
+
+	/**
+	 * Returns one page of the exposees for the given batch, in the same order as
+	 * {@link #getSortedExposedForBatchReleaseTime(Long, long)}, as columns. This
+	 * is a keyset query on the primary key.
+	 *
+	 * @param batchReleaseTime
+	 * @param batchLength
+	 * @param beforeId         the smallest id of the previous page, or
+	 *                         {@link Integer#MAX_VALUE} for the first page
+	 * @param limit            the maximum number of exposees to return
+	 * @return exposee columns
+	 */
+	ExposeeColumns getSortedExposedColumnsForBatchReleaseTime(Long batchReleaseTime, long batchLength,
+			int beforeId, int limit);
+
+	/**
+	 * Returns the maximum id of the stored exposed entries per batch, for all
+	 * batches containing entries received at or after the given time.
+	 *
+	 * @param since       the earliest received_at to consider
+	 * @param batchLength
+	 * @return the max id by batch release time, batches without entries are
+	 *         missing
+	 */
+	Map<Long, Integer> getMaxExposedIdPerBatch(long since, long batchLength);
+
+	/**
+	 * Returns the exposees with an id greater than the given one, received before
+	 * the given time, ordered by id, as columns. This is a keyset query on the
+	 * primary key.
+	 *
+	 * @param afterId        the largest id already seen
+	 * @param receivedBefore only exposees received before this time are returned
+	 * @param limit          the maximum number of exposees to return
+	 * @return exposee columns
+	 */
+	ExposeeColumns getExposedColumnsAfterId(int afterId, long receivedBefore, int limit);
+
+	/**
+	 * Returns the exposees with an id up to the given one, which were received in
+	 * the given time range, ordered by id, as columns. These are the exposees
+	 * which committed after an exposee with a larger id.
+	 *
+	 * @param maxId          the largest id already seen
+	 * @param receivedFrom   the start of the range, inclusive
+	 * @param receivedBefore the end of the range, exclusive
+	 * @return exposee columns
+	 */
+	ExposeeColumns getExposedColumnsUpToIdReceivedBetween(int maxId, long receivedFrom, long receivedBefore);
+
+	/**
+	 * Same as {@link #getExposedColumnsUpToIdReceivedBetween(int, long, long)},
+	 * one page at a time.
+	 *
+	 * @param afterId        the largest id of the range already returned
+	 * @param maxId          the largest id already seen
+	 * @param receivedFrom   the start of the range, inclusive
+	 * @param receivedBefore the end of the range, exclusive
+	 * @param limit          the maximum number of exposees to return
+	 * @return exposee columns
+	 */
+	ExposeeColumns getExposedColumnsUpToIdReceivedBetween(int afterId, int maxId, long receivedFrom,
+			long receivedBefore, int limit);
+
+	/**
+	 * Registers a listener which is called for every exposee inserted through
+	 * {@link #upsertExposee(byte[], long, String)}
+	 *
+	 * @param listener
+	 */
+	void addInsertListener(ExposeeInsertListener listener);
+
 	/**
 	 * deletes entries older than retentionDays
 	 * @param retentionDays
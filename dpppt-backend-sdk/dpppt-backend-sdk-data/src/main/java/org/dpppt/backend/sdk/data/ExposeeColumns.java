@@ -0,0 +1,188 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.data;
+
+import java.util.Arrays;
+
+/**
+ * A list of exposees stored column by column in primitive arrays: the ids, the
+ * keys one after the other in a single array and the key dates. Holds
+ * a handful of objects however many exposees it contains, where a list of
+ * {@link org.dpppt.backend.sdk.model.Exposee} holds several per exposee.
+ */
+public final class ExposeeColumns {
+
+	private static final ExposeeColumns EMPTY = new Builder().build();
+
+	private final int size;
+	private final int[] ids;
+	private final byte[] keys;
+	// the key of row i lies between keyOffsets[i] and keyOffsets[i + 1]
+	private final int[] keyOffsets;
+	private final long[] keyDates;
+	private final int maxId;
+
+	private ExposeeColumns(int size, int[] ids, byte[] keys, int[] keyOffsets, long[] keyDates, int maxId) {
+		this.size = size;
+		this.ids = ids;
+		this.keys = keys;
+		this.keyOffsets = keyOffsets;
+		this.keyDates = keyDates;
+		this.maxId = maxId;
+	}
+
+	public static ExposeeColumns empty() {
+		return EMPTY;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getId(int row) {
+		checkRow(row);
+		return ids[row];
+	}
+
+	/**
+	 * @return the array holding all keys, the key of a row starts at
+	 *         {@link #getKeyOffset(int)}
+	 */
+	public byte[] getKeys() {
+		return keys;
+	}
+
+	public int getKeyOffset(int row) {
+		checkRow(row);
+		return keyOffsets[row];
+	}
+
+	public int getKeyLength(int row) {
+		checkRow(row);
+		return keyOffsets[row + 1] - keyOffsets[row];
+	}
+
+	/**
+	 * @return a copy of the key of the row
+	 */
+	public byte[] getKey(int row) {
+		return Arrays.copyOfRange(keys, getKeyOffset(row), keyOffsets[row + 1]);
+	}
+
+	public long getKeyDate(int row) {
+		checkRow(row);
+		return keyDates[row];
+	}
+
+	/**
+	 * @return the largest id, 0 if empty
+	 */
+	public int getMaxId() {
+		return maxId;
+	}
+
+	/**
+	 * @return these rows followed by the rows of the other columns
+	 */
+	public ExposeeColumns append(ExposeeColumns other) {
+		if (other.isEmpty()) {
+			return this;
+		}
+		if (isEmpty()) {
+			return other;
+		}
+		Builder builder = new Builder(size + other.size, keyOffsets[size] + other.keyOffsets[other.size]);
+		builder.addAll(this);
+		builder.addAll(other);
+		return builder.build();
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+	}
+
+	/**
+	 * Collects exposees row by row, the arrays grow as needed. Can be passed to
+	 * the streaming queries of {@link DPPPTDataService}.
+	 */
+	public static class Builder implements ExposeeRowCallback {
+		private static final int KEY_LENGTH = 32;
+
+		private int size;
+		private int[] ids;
+		private byte[] keys;
+		private int[] keyOffsets;
+		private long[] keyDates;
+		private int maxId;
+
+		public Builder() {
+			this(16, 16 * KEY_LENGTH);
+		}
+
+		public Builder(int expectedRows, int expectedKeyBytes) {
+			ids = new int[Math.max(expectedRows, 1)];
+			keyDates = new long[ids.length];
+			keyOffsets = new int[ids.length + 1];
+			keys = new byte[Math.max(expectedKeyBytes, 1)];
+		}
+
+		@Override
+		public void processRow(int id, byte[] key, long keyDate) {
+			add(id, key, 0, key.length, keyDate);
+		}
+
+		public Builder add(int id, byte[] key, int keyOffset, int keyLength, long keyDate) {
+			int offset = startRow(keyLength);
+			System.arraycopy(key, keyOffset, keys, offset, keyLength);
+			endRow(id, keyLength, keyDate);
+			return this;
+		}
+
+		public Builder addAll(ExposeeColumns columns) {
+			for (int row = 0; row < columns.size; row++) {
+				add(columns.ids[row], columns.keys, columns.keyOffsets[row], columns.getKeyLength(row),
+						columns.keyDates[row]);
+			}
+			return this;
+		}
+
+		/**
+		 * The builder must not be used afterwards, the columns share its arrays.
+		 */
+		public ExposeeColumns build() {
+			return new ExposeeColumns(size, ids, keys, keyOffsets, keyDates, maxId);
+		}
+
+		private int startRow(int keyLength) {
+			if (size == ids.length) {
+				int capacity = ids.length * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				keyDates = Arrays.copyOf(keyDates, capacity);
+				keyOffsets = Arrays.copyOf(keyOffsets, capacity + 1);
+			}
+			int offset = keyOffsets[size];
+			if (offset + keyLength > keys.length) {
+				keys = Arrays.copyOf(keys, Math.max(keys.length * 2, offset + keyLength));
+			}
+			return offset;
+		}
+
+		private void endRow(int id, int keyLength, long keyDate) {
+			ids[size] = id;
+			keyDates[size] = keyDate;
+			keyOffsets[size + 1] = keyOffsets[size] + keyLength;
+			maxId = Math.max(maxId, id);
+			size++;
+		}
+	}
+}
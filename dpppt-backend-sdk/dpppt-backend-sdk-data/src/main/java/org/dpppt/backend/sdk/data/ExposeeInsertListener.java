@@ -0,0 +1,19 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.data;
+
+public interface ExposeeInsertListener {
+
+	/**
+	 * Called after a new exposee has been stored
+	 *
+	 * @param id         the id of the new entry or 0 if the database did not
+	 *                   return it
+	 * @param receivedAt the time the entry was received in ms since the epoch
+	 */
+	void exposeeInserted(int id, long receivedAt);
+}
@@ -0,0 +1,143 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the inserts of other instances sharing the same Postgres database,
+ * which {@link JDBCDPPPTDataServiceImpl} publishes with <code>NOTIFY</code>.
+ * The listener holds one connection of the pool for as long as it runs and
+ * waits for notifications on a daemon thread.
+ * <p>
+ * Notifications sent while the connection is down are lost, so whenever the
+ * listener (re)connects the given resync callback is run to reload whatever
+ * state is derived from the inserts.
+ */
+public class ExposeeNotificationListener implements AutoCloseable {
+
+	public static final String CHANNEL = "t_exposed_inserted";
+
+	private static final Logger logger = LoggerFactory.getLogger(ExposeeNotificationListener.class);
+
+	private static final int POLL_TIMEOUT_MILLIS = 10_000;
+	private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+	private final DataSource dataSource;
+	private final String origin;
+	private final ExposeeInsertListener listener;
+	private final Runnable resync;
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * @param origin   notifications with this origin were sent by this instance
+	 *                 and are skipped
+	 * @param listener called for every insert of another instance
+	 * @param resync   called after every connect, once the listener receives
+	 *                 notifications
+	 */
+	public ExposeeNotificationListener(DataSource dataSource, String origin, ExposeeInsertListener listener,
+			Runnable resync) {
+		this.dataSource = dataSource;
+		this.origin = origin;
+		this.listener = listener;
+		this.resync = resync;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this::listen, "exposee-notifications");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public synchronized void close() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(POLL_TIMEOUT_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	private void listen() {
+		long backoff = 1000;
+		while (running) {
+			try (Connection connection = dataSource.getConnection()) {
+				connection.setAutoCommit(true);
+				try (Statement statement = connection.createStatement()) {
+					statement.execute("LISTEN " + CHANNEL);
+				}
+				PGConnection pgConnection = connection.unwrap(PGConnection.class);
+				logger.info("Listening for inserts of other instances");
+				resync.run();
+				backoff = 1000;
+				while (running) {
+					PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+					if (notifications != null) {
+						for (PGNotification notification : notifications) {
+							handle(notification.getParameter());
+						}
+					}
+				}
+			} catch (SQLException | RuntimeException e) {
+				if (!running) {
+					break;
+				}
+				logger.error("Lost the notification connection, retrying in " + backoff + "ms", e);
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException interrupted) {
+					break;
+				}
+				backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+			}
+		}
+	}
+
+	void handle(String payload) {
+		// origin,id,receivedAt
+		String[] parts = payload.split(",");
+		if (parts.length != 3) {
+			logger.warn("Ignoring malformed notification " + payload);
+			return;
+		}
+		if (parts[0].equals(origin)) {
+			return;
+		}
+		try {
+			listener.exposeeInserted(Integer.parseInt(parts[1]), Long.parseLong(parts[2]));
+		} catch (NumberFormatException e) {
+			logger.warn("Ignoring malformed notification " + payload);
+		}
+	}
+
+	/**
+	 * @return the payload announcing an insert
+	 */
+	static String payload(String origin, int id, long receivedAt) {
+		return origin + "," + id + "," + receivedAt;
+	}
+}
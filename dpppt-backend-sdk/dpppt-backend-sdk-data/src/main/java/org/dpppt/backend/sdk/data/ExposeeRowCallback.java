@@ -0,0 +1,21 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.data;
+
+/**
+ * Receives exposees row by row, straight from the result set, without an
+ * {@link org.dpppt.backend.sdk.model.Exposee} being created for each row.
+ */
+public interface ExposeeRowCallback {
+
+	/**
+	 * @param id      the id of the entry
+	 * @param key     the key, only valid during the call
+	 * @param keyDate the key date in ms since the epoch
+	 */
+	void processRow(int id, byte[] key, long keyDate);
+}
@@ -16,7 +16,7 @@ public class ExposeeRowMapper implements RowMapper<Exposee> {
 	@Override
 	public Exposee mapRow(ResultSet rs, int rowNum) throws SQLException {
 		Exposee exposee = new Exposee();
-		exposee.setKey(rs.getString("key"));
+		exposee.setKey(Base64Keys.encode(rs.getBytes("key")));
 		exposee.setId(rs.getInt("pk_exposed_id"));
 		exposee.setKeyDate(rs.getTimestamp("key_date").getTime());
 		return exposee;
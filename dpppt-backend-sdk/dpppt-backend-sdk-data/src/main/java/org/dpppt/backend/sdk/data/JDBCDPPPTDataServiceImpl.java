@@ -11,29 +11,47 @@ import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.sql.DataSource;
 
 import org.dpppt.backend.sdk.model.Exposee;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.transaction.annotation.Transactional;
 
 public class JDBCDPPPTDataServiceImpl implements DPPPTDataService {
 
 	private static final Logger logger = LoggerFactory.getLogger(JDBCDPPPTDataServiceImpl.class);
 	private static final String PGSQL = "pgsql";
+	private static final int STREAMING_FETCH_SIZE = 1000;
 	private final String dbType;
 	private final NamedParameterJdbcTemplate jt;
+	// fetches large result sets in chunks instead of all at once
+	private final NamedParameterJdbcTemplate streamingJt;
 	private final SimpleJdbcInsert reedemUUIDInsert;
+	private final DataSource dataSource;
+	private final List<ExposeeInsertListener> insertListeners = new CopyOnWriteArrayList<>();
+	// identifies the notifications of this instance
+	private final String notificationOrigin = UUID.randomUUID().toString();
 
 	public JDBCDPPPTDataServiceImpl(String dbType, DataSource dataSource) {
 		this.dbType = dbType;
+		this.dataSource = dataSource;
 		this.jt = new NamedParameterJdbcTemplate(dataSource);
+		JdbcTemplate streamingTemplate = new JdbcTemplate(dataSource);
+		streamingTemplate.setFetchSize(STREAMING_FETCH_SIZE);
+		this.streamingJt = new NamedParameterJdbcTemplate(streamingTemplate);
 		this.reedemUUIDInsert = new SimpleJdbcInsert(dataSource).withTableName("t_redeem_uuid")
 				.usingGeneratedKeyColumns("pk_redeem_uuid_id");
 	}
@@ -41,31 +59,134 @@ public class JDBCDPPPTDataServiceImpl implements DPPPTDataService {
 	@Override
 	@Transactional(readOnly = false)
 	public void upsertExposee(Exposee exposee, String appSource) {
+		upsertExposee(Base64Keys.decode(exposee.getKey()), exposee.getKeyDate(), appSource);
+	}
+
+	@Override
+	@Transactional(readOnly = false)
+	public void upsertExposee(byte[] key, long keyDate, String appSource) {
 		String sql = null;
+		String[] keyColumns = null;
 		if (dbType.equals(PGSQL)) {
 			sql = "insert into t_exposed (key, key_date, app_source) values (:key, :key_date, :app_source)"
 					+ " on conflict on constraint key do nothing";
+			keyColumns = new String[] { "pk_exposed_id", "received_at" };
 		} else {
-			sql = "merge into t_exposed using (values(cast(:key as varchar(10000)), cast(:key_date as date), cast(:app_source as varchar(50))))"
+			sql = "merge into t_exposed using (values(cast(:key as varbinary(10000)), cast(:key_date as date), cast(:app_source as varchar(50))))"
 					+ " as vals(key, key_date, app_source) on t_exposed.key = vals.key"
 					+ " when not matched then insert (key, key_date, app_source) values (vals.key, vals.key_date, vals.app_source)";
+			keyColumns = new String[] { "PK_EXPOSED_ID", "RECEIVED_AT" };
 		}
 		MapSqlParameterSource params = new MapSqlParameterSource();
-		params.addValue("key", exposee.getKey());
+		params.addValue("key", key);
 		params.addValue("app_source", appSource);
-		params.addValue("key_date", new Date(exposee.getKeyDate()));
-		jt.update(sql, params);
+		params.addValue("key_date", new Date(keyDate));
+		KeyHolder keyHolder = new GeneratedKeyHolder();
+		int inserted = jt.update(sql, params, keyHolder, keyColumns);
+		if (inserted > 0) {
+			notifyInserted(keyHolder);
+		}
+	}
+
+	/**
+	 * Calls the local listeners and, on Postgres, announces the insert to the
+	 * other instances. The notification is delivered when the transaction
+	 * commits.
+	 */
+	private void notifyInserted(KeyHolder keyHolder) {
+		int id = 0;
+		long receivedAt = System.currentTimeMillis();
+		Map<String, Object> keys = keyHolder.getKeys();
+		if (keys != null && keys.get("pk_exposed_id") instanceof Number) {
+			id = ((Number) keys.get("pk_exposed_id")).intValue();
+			Object receivedAtValue = keys.get("received_at");
+			if (receivedAtValue instanceof Date) {
+				receivedAt = ((Date) receivedAtValue).getTime();
+			} else if (receivedAtValue instanceof OffsetDateTime) {
+				receivedAt = ((OffsetDateTime) receivedAtValue).toInstant().toEpochMilli();
+			}
+		}
+		if (dbType.equals(PGSQL)) {
+			MapSqlParameterSource params = new MapSqlParameterSource("channel", ExposeeNotificationListener.CHANNEL);
+			params.addValue("payload", ExposeeNotificationListener.payload(notificationOrigin, id, receivedAt));
+			jt.queryForList("select pg_notify(:channel, :payload)", params);
+		}
+		fireInserted(id, receivedAt);
+	}
+
+	/**
+	 * Calls the local insert listeners, also for inserts the notification
+	 * listener missed while it was not connected.
+	 */
+	public void fireInserted(int id, long receivedAt) {
+		for (ExposeeInsertListener listener : insertListeners) {
+			listener.exposeeInserted(id, receivedAt);
+		}
+	}
+
+	@Override
+	public void addInsertListener(ExposeeInsertListener listener) {
+		insertListeners.add(listener);
+	}
+
+	/**
+	 * Creates a listener which passes the inserts of other instances on to the
+	 * insert listeners of this one. Only supported on Postgres.
+	 *
+	 * @param resync called when notifications may have been missed
+	 */
+	public ExposeeNotificationListener createNotificationListener(Runnable resync) {
+		if (!dbType.equals(PGSQL)) {
+			throw new UnsupportedOperationException("Notifications are only supported on " + PGSQL);
+		}
+		return new ExposeeNotificationListener(dataSource, notificationOrigin, this::fireInserted, resync);
 	}
 
 	@Override
 	@Transactional(readOnly = true)
 	public List<Exposee> getSortedExposedForDay(OffsetDateTime day) {
-		OffsetDateTime dayMidnight = day.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC);
-		String sql = "select pk_exposed_id, key, key_date from t_exposed where received_at >= :dayMidnight and received_at < :nextDayMidnight order by pk_exposed_id desc";
 		MapSqlParameterSource params = new MapSqlParameterSource();
+		return jt.query(dayQuery(day, null, null, params), params, new ExposeeRowMapper());
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public ExposeeColumns getSortedExposedColumnsForDay(OffsetDateTime day, Long keyDateFrom, Long keyDateTo) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		return queryColumns(dayQuery(day, keyDateFrom, keyDateTo, params), params);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public void streamSortedExposedForDay(OffsetDateTime day, ExposeeRowCallback callback) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		stream(dayQuery(day, null, null, params), params, callback);
+	}
+
+	private static String dayQuery(OffsetDateTime day, Long keyDateFrom, Long keyDateTo,
+			MapSqlParameterSource params) {
+		OffsetDateTime dayMidnight = day.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC);
 		params.addValue("dayMidnight", dayMidnight);
 		params.addValue("nextDayMidnight", dayMidnight.plusDays(1));
-		return jt.query(sql, params, new ExposeeRowMapper());
+		return "select pk_exposed_id, key, key_date from t_exposed where received_at >= :dayMidnight and received_at < :nextDayMidnight"
+				+ keyDateCondition(keyDateFrom, keyDateTo, params) + " order by pk_exposed_id desc";
+	}
+
+	/**
+	 * Restricts a query on received_at to the given key dates, which uses the
+	 * index on (received_at, key_date).
+	 */
+	private static String keyDateCondition(Long keyDateFrom, Long keyDateTo, MapSqlParameterSource params) {
+		String condition = "";
+		if (keyDateFrom != null) {
+			condition += " and key_date >= :keyDateFrom";
+			params.addValue("keyDateFrom", Date.from(Instant.ofEpochMilli(keyDateFrom)));
+		}
+		if (keyDateTo != null) {
+			condition += " and key_date < :keyDateTo";
+			params.addValue("keyDateTo", Date.from(Instant.ofEpochMilli(keyDateTo)));
+		}
+		return condition;
 	}
 
 	@Override
@@ -114,11 +235,125 @@ public class JDBCDPPPTDataServiceImpl implements DPPPTDataService {
 
 	@Override
 	public List<Exposee> getSortedExposedForBatchReleaseTime(Long batchReleaseTime, long batchLength) {
-		String sql = "select pk_exposed_id, key, key_date from t_exposed where received_at >= :startBatch and received_at < :batchReleaseTime order by pk_exposed_id desc";
 		MapSqlParameterSource params = new MapSqlParameterSource();
+		return jt.query(batchQuery(batchReleaseTime, batchLength, null, null, params), params,
+				new ExposeeRowMapper());
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public ExposeeColumns getSortedExposedColumnsForBatchReleaseTime(Long batchReleaseTime, long batchLength,
+			Long keyDateFrom, Long keyDateTo) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		return queryColumns(batchQuery(batchReleaseTime, batchLength, keyDateFrom, keyDateTo, params), params);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public void streamSortedExposedForBatchReleaseTime(Long batchReleaseTime, long batchLength,
+			ExposeeRowCallback callback) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		stream(batchQuery(batchReleaseTime, batchLength, null, null, params), params, callback);
+	}
+
+	private static String batchQuery(Long batchReleaseTime, long batchLength, Long keyDateFrom, Long keyDateTo,
+			MapSqlParameterSource params) {
 		params.addValue("batchReleaseTime", Date.from(Instant.ofEpochMilli(batchReleaseTime)));
 		params.addValue("startBatch", Date.from(Instant.ofEpochMilli(batchReleaseTime - batchLength)));
-		return jt.query(sql, params, new ExposeeRowMapper());
+		return "select pk_exposed_id, key, key_date from t_exposed where received_at >= :startBatch and received_at < :batchReleaseTime"
+				+ keyDateCondition(keyDateFrom, keyDateTo, params) + " order by pk_exposed_id desc";
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public ExposeeColumns getSortedExposedColumnsForBatchReleaseTime(Long batchReleaseTime, long batchLength,
+			int beforeId, int limit) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		return queryColumns(batchPageQuery(batchReleaseTime, batchLength, beforeId, limit, params), params);
+	}
+
+	private static String batchPageQuery(Long batchReleaseTime, long batchLength, int beforeId, int limit,
+			MapSqlParameterSource params) {
+		params.addValue("batchReleaseTime", Date.from(Instant.ofEpochMilli(batchReleaseTime)));
+		params.addValue("startBatch", Date.from(Instant.ofEpochMilli(batchReleaseTime - batchLength)));
+		params.addValue("beforeId", beforeId);
+		params.addValue("limit", limit);
+		return "select pk_exposed_id, key, key_date from t_exposed where received_at >= :startBatch"
+				+ " and received_at < :batchReleaseTime and pk_exposed_id < :beforeId order by pk_exposed_id desc limit :limit";
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public Map<Long, Integer> getMaxExposedIdPerBatch(long since, long batchLength) {
+		// the number of the batch an entry was received in, counted from the epoch
+		String batch = dbType.equals(PGSQL) ? "floor(extract(epoch from received_at) * 1000 / :batchLength)"
+				: "floor(unix_millis(received_at) / :batchLength)";
+		String sql = "select batch, max(pk_exposed_id) as max_id from (select pk_exposed_id, " + batch
+				+ " as batch from t_exposed where received_at >= :since) as batches group by batch";
+		MapSqlParameterSource params = new MapSqlParameterSource("since", Date.from(Instant.ofEpochMilli(since)));
+		params.addValue("batchLength", batchLength);
+		Map<Long, Integer> maxIds = new HashMap<>();
+		jt.query(sql, params, rs -> {
+			maxIds.put((rs.getLong("batch") + 1) * batchLength, rs.getInt("max_id"));
+		});
+		return maxIds;
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public ExposeeColumns getExposedColumnsAfterId(int afterId, long receivedBefore, int limit) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		return queryColumns(afterIdQuery(afterId, receivedBefore, limit, params), params);
+	}
+
+	private static String afterIdQuery(int afterId, long receivedBefore, int limit, MapSqlParameterSource params) {
+		params.addValue("afterId", afterId);
+		params.addValue("receivedBefore", Date.from(Instant.ofEpochMilli(receivedBefore)));
+		params.addValue("limit", limit);
+		return "select pk_exposed_id, key, key_date from t_exposed where pk_exposed_id > :afterId"
+				+ " and received_at < :receivedBefore order by pk_exposed_id limit :limit";
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public ExposeeColumns getExposedColumnsUpToIdReceivedBetween(int maxId, long receivedFrom,
+			long receivedBefore) {
+		return getExposedColumnsUpToIdReceivedBetween(0, maxId, receivedFrom, receivedBefore, Integer.MAX_VALUE);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public ExposeeColumns getExposedColumnsUpToIdReceivedBetween(int afterId, int maxId, long receivedFrom,
+			long receivedBefore, int limit) {
+		MapSqlParameterSource params = new MapSqlParameterSource();
+		return queryColumns(upToIdQuery(afterId, maxId, receivedFrom, receivedBefore, limit, params), params);
+	}
+
+	private static String upToIdQuery(int afterId, int maxId, long receivedFrom, long receivedBefore, int limit,
+			MapSqlParameterSource params) {
+		params.addValue("afterId", afterId);
+		params.addValue("maxId", maxId);
+		params.addValue("receivedFrom", Date.from(Instant.ofEpochMilli(receivedFrom)));
+		params.addValue("receivedBefore", Date.from(Instant.ofEpochMilli(receivedBefore)));
+		params.addValue("limit", limit);
+		return "select pk_exposed_id, key, key_date from t_exposed where received_at >= :receivedFrom"
+				+ " and received_at < :receivedBefore and pk_exposed_id > :afterId and pk_exposed_id <= :maxId"
+				+ " order by pk_exposed_id limit :limit";
+	}
+
+	/**
+	 * Reads the rows straight into columns, without an exposee per row.
+	 */
+	private ExposeeColumns queryColumns(String sql, MapSqlParameterSource params) {
+		ExposeeColumns.Builder builder = new ExposeeColumns.Builder();
+		stream(sql, params, builder);
+		return builder.build();
+	}
+
+	private void stream(String sql, MapSqlParameterSource params, ExposeeRowCallback callback) {
+		streamingJt.query(sql, params, rs -> {
+			callback.processRow(rs.getInt(1), rs.getBytes(2), rs.getTimestamp(3).getTime());
+		});
 	}
 
 	@Override
@@ -0,0 +1,25 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+-- if the system property hsqldb.method_class_names is set, it has to allow
+-- org.dpppt.backend.sdk.data.Base64Keys.decode for this function
+create function decode_key(base64 varchar(10000)) returns varbinary(10000)
+ language java deterministic no sql
+ external name 'CLASSPATH:org.dpppt.backend.sdk.data.Base64Keys.decode';
+
+alter table t_exposed add column key_bytes varbinary(10000);
+update t_exposed set key_bytes = decode_key(key);
+
+-- a key uploaded with and without padding was stored twice, the first upload is kept
+delete from t_exposed a where exists (select 1 from t_exposed b where b.key_bytes = a.key_bytes and b.pk_exposed_id < a.pk_exposed_id);
+
+alter table t_exposed drop constraint key;
+alter table t_exposed drop column key;
+alter table t_exposed alter column key_bytes rename to key;
+alter table t_exposed alter column key set not null;
+alter table t_exposed add constraint key unique (key);
+
+drop function decode_key;
@@ -0,0 +1,7 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+create index t_exposed_received_at_key_date on t_exposed(received_at, key_date);
@@ -0,0 +1,15 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+alter table t_exposed drop constraint key;
+
+-- the keys were only checked with a decoder which does not require padding
+alter table t_exposed alter key type bytea using decode(key || repeat('=', (4 - length(key) % 4) % 4), 'base64');
+
+-- a key uploaded with and without padding was stored twice, the first upload is kept
+delete from t_exposed a using t_exposed b where a.key = b.key and a.pk_exposed_id > b.pk_exposed_id;
+
+alter table t_exposed add constraint key unique (key);
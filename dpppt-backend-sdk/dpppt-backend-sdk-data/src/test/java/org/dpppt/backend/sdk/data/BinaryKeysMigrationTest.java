@@ -0,0 +1,70 @@
+package org.dpppt.backend.sdk.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.flywaydb.core.Flyway;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+public class BinaryKeysMigrationTest {
+
+	private EmbeddedDatabase dataSource;
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() {
+		dataSource = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.HSQL).generateUniqueName(true).build();
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		migrate("0.5");
+	}
+
+	@After
+	public void tearDown() {
+		dataSource.shutdown();
+	}
+
+	@Test
+	public void keysSpelledTwiceAreStoredOnce() {
+		Random random = new Random(1);
+		byte[] key = new byte[32];
+		random.nextBytes(key);
+		byte[] otherKey = new byte[32];
+		random.nextBytes(otherKey);
+		String padded = Base64.getEncoder().encodeToString(key);
+		String unpadded = Base64.getEncoder().withoutPadding().encodeToString(key);
+
+		insert(unpadded);
+		insert(padded);
+		insert(Base64.getEncoder().encodeToString(otherKey));
+		int firstId = jdbcTemplate.queryForObject(
+				"select min(pk_exposed_id) from t_exposed where key = ?", Integer.class, unpadded);
+		migrate("latest");
+
+		List<Map<String, Object>> rows = jdbcTemplate
+				.queryForList("select pk_exposed_id, key from t_exposed order by pk_exposed_id");
+		assertEquals(2, rows.size());
+		assertEquals(firstId, ((Number) rows.get(0).get("pk_exposed_id")).intValue());
+		assertArrayEquals(key, (byte[]) rows.get(0).get("key"));
+		assertArrayEquals(otherKey, (byte[]) rows.get(1).get("key"));
+	}
+
+	private void insert(String key) {
+		jdbcTemplate.update("insert into t_exposed (key, key_date, app_source) values (?, now(), 'test-app')", key);
+	}
+
+	private void migrate(String target) {
+		Flyway.configure().dataSource(dataSource).locations("classpath:/db/migration/hsqldb")
+				.target(target).load().migrate();
+	}
+}
@@ -1,13 +1,19 @@
 package org.dpppt.backend.sdk.data;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 import org.dpppt.backend.sdk.data.config.DPPPTDataServiceConfig;
 import org.dpppt.backend.sdk.data.config.FlyWayConfig;
@@ -33,7 +39,7 @@ public class DPPPTDataServiceTest {
 	@Test
 	public void testUpsertupsertExposee() {
 		Exposee expected = new Exposee();
-		expected.setKey("key");
+		expected.setKey(key("key"));
 		OffsetDateTime now = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC);
 		expected.setKeyDate(now.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC).toInstant().toEpochMilli());
 
@@ -47,6 +53,145 @@ public class DPPPTDataServiceTest {
 		assertNotNull(actual.getId());
 	}
 
+	@Test
+	public void testUpsertBinaryKey() {
+		List<Integer> insertedIds = new ArrayList<>();
+		dppptDataService.addInsertListener((id, receivedAt) -> insertedIds.add(id));
+		OffsetDateTime now = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC);
+		long keyDate = now.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC).toInstant().toEpochMilli();
+		byte[] key = "binarykey".getBytes(StandardCharsets.UTF_8);
+
+		dppptDataService.upsertExposee(key, keyDate, "AppSource");
+		Exposee exposee = new Exposee();
+		exposee.setKey(key("binarykey"));
+		exposee.setKeyDate(keyDate);
+		dppptDataService.upsertExposee(exposee, "AppSource");
+
+		assertEquals(1, insertedIds.size());
+		assertTrue(dppptDataService.getSortedExposedForDay(now).stream()
+				.anyMatch(actual -> actual.getKey().equals(key("binarykey"))));
+	}
+
+	@Test
+	public void testInsertListener() {
+		List<Integer> insertedIds = new ArrayList<>();
+		dppptDataService.addInsertListener((id, receivedAt) -> insertedIds.add(id));
+		Exposee exposee = new Exposee();
+		exposee.setKey(key("listenerkey"));
+		OffsetDateTime now = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC);
+		exposee.setKeyDate(now.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC).toInstant().toEpochMilli());
+
+		dppptDataService.upsertExposee(exposee, "AppSource");
+		dppptDataService.upsertExposee(exposee, "AppSource");
+
+		assertEquals(1, insertedIds.size());
+		long batchLength = 2 * 60 * 60 * 1000L;
+		long nowMillis = now.toInstant().toEpochMilli();
+		Map<Long, Integer> maxIds = dppptDataService.getMaxExposedIdPerBatch(nowMillis - batchLength, batchLength);
+		assertEquals(insertedIds.get(0), maxIds.get(nowMillis - nowMillis % batchLength + batchLength));
+	}
+
+	@Test
+	public void testExposedAfterId() {
+		OffsetDateTime now = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC);
+		for (String key : new String[] { "afterkey1", "afterkey2", "afterkey3" }) {
+			Exposee exposee = new Exposee();
+			exposee.setKey(key(key));
+			exposee.setKeyDate(now.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC).toInstant().toEpochMilli());
+			dppptDataService.upsertExposee(exposee, "AppSource");
+		}
+		long receivedBefore = System.currentTimeMillis() + 1000;
+
+		ExposeeColumns all = dppptDataService.getExposedColumnsAfterId(0, receivedBefore, 100);
+		assertTrue(all.size() >= 3);
+		ExposeeColumns page = dppptDataService.getExposedColumnsAfterId(all.getId(0), receivedBefore, 2);
+		assertEquals(2, page.size());
+		assertEquals(all.getId(1), page.getId(0));
+		assertEquals(all.getId(2), page.getId(1));
+		assertEquals(0,
+				dppptDataService.getExposedColumnsAfterId(0, now.toInstant().toEpochMilli() - 60000, 100).size());
+
+		ExposeeColumns upTo = dppptDataService.getExposedColumnsUpToIdReceivedBetween(all.getId(1),
+				now.toInstant().toEpochMilli() - 60000, receivedBefore);
+		assertEquals(all.getId(1), upTo.getId(upTo.size() - 1));
+	}
+
+	@Test
+	public void testExposedPageForBatch() {
+		OffsetDateTime now = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC);
+		for (String key : new String[] { "pagekey1", "pagekey2", "pagekey3" }) {
+			Exposee exposee = new Exposee();
+			exposee.setKey(key(key));
+			exposee.setKeyDate(now.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC).toInstant().toEpochMilli());
+			dppptDataService.upsertExposee(exposee, "AppSource");
+		}
+		long batchLength = 2 * 60 * 60 * 1000L;
+		long batchReleaseTime = System.currentTimeMillis() / batchLength * batchLength + batchLength;
+
+		List<Exposee> all = dppptDataService.getSortedExposedForBatchReleaseTime(batchReleaseTime, batchLength);
+		ExposeeColumns first = dppptDataService.getSortedExposedColumnsForBatchReleaseTime(batchReleaseTime,
+				batchLength, Integer.MAX_VALUE, 2);
+		assertEquals(2, first.size());
+		assertEquals(all.get(0).getId().intValue(), first.getId(0));
+		ExposeeColumns second = dppptDataService.getSortedExposedColumnsForBatchReleaseTime(batchReleaseTime,
+				batchLength, first.getId(1), 2);
+		assertEquals(all.get(2).getId().intValue(), second.getId(0));
+	}
+
+	@Test
+	public void testExposedForKeyDates() {
+		OffsetDateTime today = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).toLocalDate().atStartOfDay()
+				.atOffset(ZoneOffset.UTC);
+		for (int daysAgo = 0; daysAgo < 3; daysAgo++) {
+			Exposee exposee = new Exposee();
+			exposee.setKey(key("keydatekey" + daysAgo));
+			exposee.setKeyDate(today.minusDays(daysAgo).toInstant().toEpochMilli());
+			dppptDataService.upsertExposee(exposee, "AppSource");
+		}
+		long yesterday = today.minusDays(1).toInstant().toEpochMilli();
+		ExposeeColumns fromYesterday = dppptDataService.getSortedExposedColumnsForDay(today, yesterday, null);
+		boolean found = false;
+		for (int row = 0; row < fromYesterday.size(); row++) {
+			assertTrue(fromYesterday.getKeyDate(row) >= yesterday);
+			found |= Arrays.equals(Base64.getDecoder().decode(key("keydatekey1")), fromYesterday.getKey(row));
+		}
+		assertTrue(found);
+		ExposeeColumns onlyYesterday = dppptDataService.getSortedExposedColumnsForDay(today, yesterday,
+				today.toInstant().toEpochMilli());
+		assertTrue(onlyYesterday.size() > 0);
+		for (int row = 0; row < onlyYesterday.size(); row++) {
+			assertEquals(yesterday, onlyYesterday.getKeyDate(row));
+		}
+	}
+
+	@Test
+	public void testExposedColumnsForKeyDates() {
+		OffsetDateTime keyDay = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).toLocalDate()
+				.atStartOfDay().atOffset(ZoneOffset.UTC).minusDays(10);
+		long keyDate = keyDay.toInstant().toEpochMilli();
+		List<String> keys = Arrays.asList("Y29sdW1uczE=", "Y29sdW1uczI=");
+		for (String key : keys) {
+			Exposee exposee = new Exposee();
+			exposee.setKey(key);
+			exposee.setKeyDate(keyDate);
+			dppptDataService.upsertExposee(exposee, "AppSource");
+		}
+		long batchLength = 2 * 60 * 60 * 1000L;
+		long batchReleaseTime = System.currentTimeMillis() / batchLength * batchLength + batchLength;
+		long nextDay = keyDay.plusDays(1).toInstant().toEpochMilli();
+
+		ExposeeColumns columns = dppptDataService.getSortedExposedColumnsForBatchReleaseTime(batchReleaseTime,
+				batchLength, keyDate, nextDay);
+		assertEquals(2, columns.size());
+		// ordered by id, descending
+		for (int row = 0; row < columns.size(); row++) {
+			assertArrayEquals(Base64.getDecoder().decode(keys.get(keys.size() - 1 - row)), columns.getKey(row));
+			assertEquals(keyDate, columns.getKeyDate(row));
+		}
+		assertTrue(columns.getId(0) > columns.getId(1));
+		assertEquals(columns.getId(0), columns.getMaxId());
+	}
+
 	@Test
 	public void testRedeemUUID() {
 		boolean actual = dppptDataService.checkAndInsertPublishUUID("bc77d983-2359-48e8-835a-de673fe53ccb");
@@ -60,7 +205,7 @@ public class DPPPTDataServiceTest {
 	@Test
 	public void cleanUp() {
 		Exposee expected = new Exposee();
-		expected.setKey("key");
+		expected.setKey(key("key"));
 		OffsetDateTime now = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC);
 		expected.setKeyDate(now.toLocalDate().atStartOfDay().atOffset(ZoneOffset.UTC).toInstant().toEpochMilli());
 
@@ -75,4 +220,8 @@ public class DPPPTDataServiceTest {
 		assertTrue(sortedExposedForDay.isEmpty());
 
 	}
-}
\ No newline at end of file
+
+	private static String key(String name) {
+		return Base64.getEncoder().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,55 @@
+package org.dpppt.backend.sdk.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ExposeeColumnsTest {
+
+    @Test
+    void readsKeysIntoColumns() {
+        Random random = new Random(1);
+        byte[][] keys = new byte[100][];
+        ExposeeColumns.Builder builder = new ExposeeColumns.Builder(1, 1);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new byte[32 + i % 3];
+            random.nextBytes(keys[i]);
+            builder.processRow(i + 1, keys[i], i * 1000L);
+        }
+        ExposeeColumns columns = builder.build();
+
+        assertEquals(keys.length, columns.size());
+        assertEquals(keys.length, columns.getMaxId());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i + 1, columns.getId(i));
+            assertArrayEquals(keys[i], columns.getKey(i));
+            assertEquals(i * 1000L, columns.getKeyDate(i));
+        }
+    }
+
+    @Test
+    void appendKeepsOrder() {
+        ExposeeColumns first = new ExposeeColumns.Builder().add(7, new byte[] { 1, 2 }, 0, 2, 1).build();
+        ExposeeColumns second = new ExposeeColumns.Builder().add(3, new byte[] { 0, 3, 4 }, 1, 2, 2).build();
+        ExposeeColumns both = first.append(second);
+
+        assertEquals(2, both.size());
+        assertEquals(7, both.getMaxId());
+        assertEquals(3, both.getId(1));
+        assertArrayEquals(new byte[] { 3, 4 }, both.getKey(1));
+        assertTrue(ExposeeColumns.empty().append(ExposeeColumns.empty()).isEmpty());
+    }
+
+    @Test
+    void rejectsInvalidKeys() {
+        assertThrows(IllegalArgumentException.class, () -> Base64Keys.decode("AA-A"));
+        assertThrows(IllegalArgumentException.class, () -> Base64Keys.decode("A"));
+        byte[] key = { 1, 2, 3, 4 };
+        assertArrayEquals(key, Base64Keys.decode(Base64Keys.encode(key)));
+    }
+}
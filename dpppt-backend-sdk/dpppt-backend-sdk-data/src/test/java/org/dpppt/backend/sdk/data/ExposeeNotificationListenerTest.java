@@ -0,0 +1,33 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ExposeeNotificationListenerTest {
+
+	@Test
+	void skipsOwnAndMalformedNotifications() {
+		List<String> received = new ArrayList<>();
+		ExposeeNotificationListener listener = new ExposeeNotificationListener(null, "self",
+				(id, receivedAt) -> received.add(id + "@" + receivedAt), () -> {});
+
+		listener.handle(ExposeeNotificationListener.payload("other", 42, 1000L));
+		listener.handle(ExposeeNotificationListener.payload("self", 43, 2000L));
+		listener.handle("other,garbage");
+		listener.handle("other,x,3000");
+		listener.handle(ExposeeNotificationListener.payload("other", 0, 4000L));
+
+		assertEquals(Arrays.asList("42@1000", "0@4000"), received);
+	}
+}
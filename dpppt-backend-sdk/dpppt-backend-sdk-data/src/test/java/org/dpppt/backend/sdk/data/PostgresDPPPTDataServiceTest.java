@@ -18,6 +18,7 @@ import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import javax.sql.DataSource;
 import java.sql.*;
 import java.time.*;
+import java.util.Base64;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -59,12 +60,12 @@ public class PostgresDPPPTDataServiceTest {
 
         try (
             final Connection connection = dataSource.getConnection();
-            final PreparedStatement preparedStatement = connection.prepareStatement("select * from t_exposed t where t.key = 'key1'");
+            final PreparedStatement preparedStatement = connection.prepareStatement("select * from t_exposed t where t.key = decode('key1', 'base64')");
             final ResultSet resultSet = preparedStatement.executeQuery()) {
             resultSet.next();
 
             Assertions.assertThat(resultSet.getInt("pk_exposed_id")).isPositive();
-            Assertions.assertThat(resultSet.getString("key")).isEqualTo("key1");
+            Assertions.assertThat(resultSet.getBytes("key")).isEqualTo(Base64.getDecoder().decode("key1"));
             Assertions.assertThat(resultSet.getString("received_at")).isNotNull();
             Assertions.assertThat(resultSet.getString("app_source")).isEqualTo(APP_SOURCE);
             Assertions.assertThat(resultSet.getDate("key_date")).isEqualTo(Date.valueOf(LocalDate.of(2014, 1, 28)));
@@ -111,13 +112,13 @@ public class PostgresDPPPTDataServiceTest {
 
         // GIVEN
         {
-            Exposee exposee = createExposee("key100", "2014-01-28");
+            Exposee exposee = createExposee("k100", "2014-01-28");
 
             dppptDataService.upsertExposee(exposee, APP_SOURCE);
         }
 
         {
-            String key = "key200";
+            String key = "k200";
             String keyDate = "2014-01-29";
             Exposee exposee = createExposee(key, keyDate);
 
@@ -130,7 +131,7 @@ public class PostgresDPPPTDataServiceTest {
         // THEN
         try (
             final Connection connection = dataSource.getConnection();
-            final PreparedStatement preparedStatement = connection.prepareStatement("select * from t_exposed t where t.key = 'key200'");
+            final PreparedStatement preparedStatement = connection.prepareStatement("select * from t_exposed t where t.key = decode('k200', 'base64')");
             final ResultSet resultSet = preparedStatement.executeQuery()) {
             resultSet.next();
 
@@ -163,7 +164,7 @@ public class PostgresDPPPTDataServiceTest {
         OffsetDateTime now = OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC);
         OffsetDateTime receivedAt = now.minusDays(21);
         Connection connection = dataSource.getConnection();
-        String key = "someKey";
+        String key = "someKey=";
         insertExposeeWithReceivedAt(receivedAt.toInstant(), key);
 
         Integer maxExposedIdForOld = dppptDataService.getMaxExposedIdForDay(receivedAt);
@@ -179,7 +180,7 @@ public class PostgresDPPPTDataServiceTest {
     @Test
     public void testBatchReleaseTime() throws SQLException {
         Instant receivedAt = LocalDateTime.parse("2014-01-28T00:00:00").toInstant(ZoneOffset.UTC);
-        String key = "key555";
+        String key = "k555";
         insertExposeeWithReceivedAt(receivedAt, key);
 
         long batchTime = LocalDateTime.parse("2014-01-28T02:00:00").toInstant(ZoneOffset.UTC).toEpochMilli();
@@ -198,7 +199,7 @@ public class PostgresDPPPTDataServiceTest {
         Connection connection = dataSource.getConnection();
         String sql = "into t_exposed (pk_exposed_id, key, received_at, key_date, app_source) values (1, ?, ?, now(), 'appsource')";
         PreparedStatement preparedStatement = connection.prepareStatement("insert " + sql);
-        preparedStatement.setString(1, key);
+        preparedStatement.setBytes(1, Base64.getDecoder().decode(key));
         preparedStatement.setTimestamp(2, new Timestamp(receivedAt.toEpochMilli()));
         preparedStatement.execute();
     }
@@ -0,0 +1,21 @@
+package org.dpppt.backend.sdk.model;
+
+import java.util.List;
+
+public class BatchManifest {
+    Long latestBatchReleaseTime;
+    List<BatchMetadata> batches;
+
+    public Long getLatestBatchReleaseTime() {
+        return latestBatchReleaseTime;
+    }
+    public void setLatestBatchReleaseTime(Long latestBatchReleaseTime) {
+        this.latestBatchReleaseTime = latestBatchReleaseTime;
+    }
+    public List<BatchMetadata> getBatches() {
+        return batches;
+    }
+    public void setBatches(List<BatchMetadata> batches) {
+        this.batches = batches;
+    }
+}
@@ -0,0 +1,49 @@
+package org.dpppt.backend.sdk.model;
+
+public class BatchMetadata {
+    Long batchReleaseTime;
+    String etag;
+    Integer keyCount;
+    Integer byteSize;
+    String url;
+
+    public BatchMetadata() {
+    }
+
+    public BatchMetadata(Long batchReleaseTime, String etag, Integer keyCount) {
+        this.batchReleaseTime = batchReleaseTime;
+        this.etag = etag;
+        this.keyCount = keyCount;
+    }
+
+    public Long getBatchReleaseTime() {
+        return batchReleaseTime;
+    }
+    public void setBatchReleaseTime(Long batchReleaseTime) {
+        this.batchReleaseTime = batchReleaseTime;
+    }
+    public String getEtag() {
+        return etag;
+    }
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+    public Integer getKeyCount() {
+        return keyCount;
+    }
+    public void setKeyCount(Integer keyCount) {
+        this.keyCount = keyCount;
+    }
+    public Integer getByteSize() {
+        return byteSize;
+    }
+    public void setByteSize(Integer byteSize) {
+        this.byteSize = byteSize;
+    }
+    public String getUrl() {
+        return url;
+    }
+    public void setUrl(String url) {
+        this.url = url;
+    }
+}
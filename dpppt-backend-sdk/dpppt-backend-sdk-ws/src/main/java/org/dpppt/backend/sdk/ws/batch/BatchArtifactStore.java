@@ -0,0 +1,217 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.LongPredicate;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists signed batch responses as files and serves them from memory mapped
+ * buffers. The mapped bodies live in the page cache instead of the heap, and a
+ * restarted node picks up the stored batches without querying and signing
+ * them again.
+ * <p>
+ * Every response is stored in its own file <code>{batchReleaseTime}-{variant}.batch</code>:
+ * a small header with the metadata and the signature headers, followed by the
+ * body. Files are written to a temporary file first and then moved into place.
+ */
+public class BatchArtifactStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchArtifactStore.class);
+
+	private static final int MAGIC = 0x44503354;
+	private static final int VERSION = 2;
+	private static final String SUFFIX = ".batch";
+
+	private final Path directory;
+	private final long retentionPeriod;
+
+	public BatchArtifactStore(Path directory, int retentionDays) {
+		this.directory = directory;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+	}
+
+	/**
+	 * Writes the response to disk.
+	 *
+	 * @return the same response with its body mapped from the stored file
+	 */
+	public SignedBatchResponse store(SignedBatchResponse response) throws IOException {
+		Files.createDirectories(directory);
+		Path target = directory.resolve(response.getBatchReleaseTime() + "-" + response.getVariant() + SUFFIX);
+		Path temp = Files.createTempFile(directory, "batch", ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.wrap(header(response));
+				ByteBuffer body = response.getBody();
+				while (header.hasRemaining() || body.hasRemaining()) {
+					channel.write(new ByteBuffer[] { header, body });
+				}
+				channel.force(false);
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return read(target);
+	}
+
+	/**
+	 * Maps all stored responses which are still within the retention period.
+	 * Expired, unreadable and left over temporary files are deleted.
+	 */
+	public List<SignedBatchResponse> load() {
+		List<SignedBatchResponse> responses = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return responses;
+		}
+		long expiredBefore = System.currentTimeMillis() - retentionPeriod;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(".tmp")) {
+					delete(file);
+				} else if (name.endsWith(SUFFIX)) {
+					try {
+						SignedBatchResponse response = read(file);
+						if (response.getBatchReleaseTime() < expiredBefore) {
+							delete(file);
+						} else {
+							responses.add(response);
+						}
+					} catch (IOException | RuntimeException e) {
+						logger.warn("Discarding unreadable batch file " + file, e);
+						delete(file);
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Could not load stored batches from " + directory, e);
+		}
+		return responses;
+	}
+
+	/**
+	 * Deletes the files of the batch.
+	 */
+	public void evict(long batchReleaseTime) {
+		evictIf(released -> released == batchReleaseTime);
+	}
+
+	/**
+	 * Deletes the files of all batches released before the given time.
+	 */
+	public void evictBefore(long batchReleaseTime) {
+		evictIf(released -> released < batchReleaseTime);
+	}
+
+	private void evictIf(LongPredicate batchReleaseTimes) {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					if (batchReleaseTimes.test(Long.parseLong(name.substring(0, name.indexOf('-'))))) {
+						delete(file);
+					}
+				} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+					logger.warn("Unexpected file in batch directory: " + file);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Could not evict stored batches from " + directory, e);
+		}
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.warn("Could not delete " + file, e);
+		}
+	}
+
+	private static byte[] header(SignedBatchResponse response) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(response.getBatchReleaseTime());
+		writeString(out, response.getFormat().name());
+		writeString(out, response.getEncoding().name());
+		out.writeInt(response.getMaxId());
+		out.writeInt(response.getKeyCount());
+		writeString(out, response.getEtag());
+		out.writeInt(response.getHeaders().size());
+		for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+			writeString(out, header.getKey());
+			writeString(out, header.getValue());
+		}
+		out.writeInt(response.getBodyLength());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static SignedBatchResponse read(Path file) throws IOException {
+		ByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+			throw new IOException("Not a batch file of version " + VERSION);
+		}
+		long batchReleaseTime = mapped.getLong();
+		BatchFormat format = BatchFormat.valueOf(readString(mapped));
+		ContentEncoding encoding = ContentEncoding.valueOf(readString(mapped));
+		int maxId = mapped.getInt();
+		int keyCount = mapped.getInt();
+		String etag = readString(mapped);
+		int headerCount = mapped.getInt();
+		Map<String, String> headers = new LinkedHashMap<>();
+		for (int i = 0; i < headerCount; i++) {
+			headers.put(readString(mapped), readString(mapped));
+		}
+		int bodyLength = mapped.getInt();
+		if (bodyLength != mapped.remaining()) {
+			throw new IOException("Truncated batch file");
+		}
+		return new SignedBatchResponse(batchReleaseTime, format, encoding, mapped.slice(), maxId, keyCount, etag,
+				headers);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Bundles consecutive protobuf batches into a single signed
+ * <code>ProtoExposedBatches</code> response. The body of every batch already
+ * is a serialized <code>ProtoExposedList</code>, so the bundle is written by
+ * prefixing each cached body with its field tag and length, without decoding
+ * or copying the keys one by one.
+ * <p>
+ * A bundle stops before the batch which would make it larger than the maximum
+ * size, but always contains the first batch, so a client never gets stuck on a
+ * large batch. As it carries the release time of its last batch, the client
+ * continues from there with the next request. The signed bundles of the most
+ * recently requested ranges are kept and reused as long as their ETag did not
+ * change, concurrent requests for the same range assemble it only once.
+ */
+public class BatchBundler {
+
+	// field number of ProtoExposedBatches.batches
+	private static final int BATCHES_FIELD = 1;
+
+	private final BatchResponseCache batchCache;
+	private final BatchEtagIndex etagIndex;
+	private final ResponseSigner signer;
+	private final long batchLength;
+	private final long maxBundleSize;
+	private final Map<String, SignedBatchResponse> bundles;
+	private final SingleFlight<String, SignedBatchResponse> renders;
+
+	public BatchBundler(BatchResponseCache batchCache, BatchEtagIndex etagIndex, ResponseSigner signer,
+			long batchLength, long maxBundleSize, int maxCachedBundles, MeterRegistry meterRegistry) {
+		this.batchCache = batchCache;
+		this.etagIndex = etagIndex;
+		this.signer = signer;
+		this.batchLength = batchLength;
+		this.maxBundleSize = Math.min(maxBundleSize, Integer.MAX_VALUE);
+		this.bundles = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SignedBatchResponse> eldest) {
+				return size() > maxCachedBundles;
+			}
+		});
+		this.renders = new SingleFlight<>(requestCounter(meterRegistry, "leader"),
+				requestCounter(meterRegistry, "wait"));
+	}
+
+	private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("dp3t.bundle.requests").description("Bundle renders by single flight role")
+				.tag("result", result).register(meterRegistry);
+	}
+
+	/**
+	 * Returns the ETag of the bundle a request for the range receives, which
+	 * covers fewer batches if the range exceeds the maximum size. A cached bundle
+	 * is checked against the etag index, so a repeated conditional request does
+	 * not need to assemble the bundle again.
+	 *
+	 * @param firstBatch the release time of the first batch in the bundle
+	 * @param lastBatch  the release time of the last batch in the bundle
+	 */
+	public String getEtag(long firstBatch, long lastBatch) {
+		return bundle(firstBatch, lastBatch).getEtag();
+	}
+
+	private String currentEtag(long firstBatch, long lastBatch) {
+		List<String> etags = new ArrayList<>();
+		for (long batchReleaseTime = firstBatch; batchReleaseTime <= lastBatch; batchReleaseTime += batchLength) {
+			String etag = etagIndex.getEtag(batchReleaseTime, BatchFormat.PROTO);
+			if (etag == null) {
+				etag = batchCache.getOrRender(batchReleaseTime, BatchFormat.PROTO).getEtag();
+			}
+			etags.add(etag);
+		}
+		return etag(firstBatch, etags);
+	}
+
+	/**
+	 * Bundles the batches from the first to the last release time, or up to the
+	 * batch before the one exceeding the maximum size. A first batch exceeding
+	 * the maximum size is bundled alone. The bundle carries the release time of
+	 * its last batch, which is where a client continues from.
+	 */
+	public SignedBatchResponse bundle(long firstBatch, long lastBatch) {
+		String key = firstBatch + "-" + lastBatch;
+		SignedBatchResponse cached = bundles.get(key);
+		if (isCurrent(cached, firstBatch)) {
+			return cached;
+		}
+		return render(key, firstBatch, lastBatch);
+	}
+
+	private boolean isCurrent(SignedBatchResponse bundle, long firstBatch) {
+		return bundle != null && bundle.getEtag().equals(currentEtag(firstBatch, bundle.getBatchReleaseTime()));
+	}
+
+	private SignedBatchResponse render(String key, long firstBatch, long lastBatch) {
+		return renders.execute(key, () -> {
+			SignedBatchResponse cached = bundles.get(key);
+			if (isCurrent(cached, firstBatch)) {
+				return cached;
+			}
+			SignedBatchResponse bundle = assemble(firstBatch, lastBatch);
+			bundles.put(key, bundle);
+			return bundle;
+		});
+	}
+
+	private SignedBatchResponse assemble(long firstBatch, long lastBatch) {
+		List<SignedBatchResponse> batches = new ArrayList<>();
+		List<String> etags = new ArrayList<>();
+		long size = 0;
+		int maxId = 0;
+		int keyCount = 0;
+		long bundledBatch = lastBatch;
+		for (long batchReleaseTime = firstBatch; batchReleaseTime <= lastBatch; batchReleaseTime += batchLength) {
+			SignedBatchResponse batch = batchCache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+			long batchSize = CodedOutputStream.computeTagSize(BATCHES_FIELD)
+					+ CodedOutputStream.computeUInt32SizeNoTag(batch.getBodyLength()) + (long) batch.getBodyLength();
+			if (size + batchSize > maxBundleSize && !batches.isEmpty()) {
+				bundledBatch = batchReleaseTime - batchLength;
+				break;
+			}
+			batches.add(batch);
+			etags.add(batch.getEtag());
+			size += batchSize;
+			maxId = Math.max(maxId, batch.getMaxId());
+			keyCount += batch.getKeyCount();
+		}
+
+		byte[] body = new byte[(int) size];
+		CodedOutputStream out = CodedOutputStream.newInstance(body);
+		try {
+			for (SignedBatchResponse batch : batches) {
+				out.writeTag(BATCHES_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+				out.writeUInt32NoTag(batch.getBodyLength());
+				out.writeRawBytes(batch.getBody());
+			}
+			out.checkNoSpaceLeft();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put(BatchRenderer.HEADER_BATCH_RELEASE_TIME, Long.toString(bundledBatch));
+		headers.putAll(signer.sign(body, headers));
+		return new SignedBatchResponse(bundledBatch, BatchFormat.PROTO, ByteBuffer.wrap(body), maxId, keyCount,
+				etag(firstBatch, etags), headers);
+	}
+
+	private static String etag(long firstBatch, List<String> etags) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Long.toString(firstBatch).getBytes(StandardCharsets.UTF_8));
+			for (String etag : etags) {
+				digest.update((byte) ',');
+				digest.update(etag.getBytes(StandardCharsets.UTF_8));
+			}
+			return "bundle" + Base64.getEncoder().encodeToString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
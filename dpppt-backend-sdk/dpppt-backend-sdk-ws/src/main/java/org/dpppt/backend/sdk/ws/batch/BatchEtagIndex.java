@@ -0,0 +1,203 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGeneratorInterface;
+import org.dpppt.backend.sdk.data.ExposeeInsertListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Knows the max id and hence the ETags of every batch in the retention period,
+ * so conditional requests can be answered without touching the database. The
+ * index is seeded once at startup and then follows the inserts of this instance
+ * (and on Postgres of all instances) and the batches rendered from the
+ * database.
+ * <p>
+ * Only sealed batches are answered from the index. Without notifications,
+ * inserts of other instances can only land in open batches (or sealed batches
+ * within the seal grace), and the first render of a sealed batch replaces the
+ * locally tracked max id with the one from the database.
+ * <p>
+ * Next to the ETags the index keeps the {@link BatchHead} of every variant
+ * rendered since the max id of the batch last changed, so HEAD requests do not
+ * need the body.
+ */
+public class BatchEtagIndex implements ExposeeInsertListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchEtagIndex.class);
+
+	private final ConcurrentSkipListMap<Long, BatchEtags> batches = new ConcurrentSkipListMap<>();
+	private final EtagGeneratorInterface etagGenerator;
+	private final long batchLength;
+	private final long sealGrace;
+	private final long retentionPeriod;
+	private final BatchEtags emptyBatch;
+	// batches released after this time are complete in the index
+	private volatile long coveredFrom = Long.MAX_VALUE;
+
+	public BatchEtagIndex(EtagGeneratorInterface etagGenerator, long batchLength, long sealGrace, int retentionDays) {
+		this.etagGenerator = etagGenerator;
+		this.batchLength = batchLength;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.emptyBatch = etags(0);
+	}
+
+	/**
+	 * Loads the max id of all batches in the retention period. Until this has
+	 * been called the index does not answer any lookups. Seeding again picks up
+	 * the inserts the index did not hear about, e.g. while the notifications of
+	 * other instances were not received.
+	 *
+	 * @return the batches with a new max id, by release time, which is always
+	 *         empty for the first seed
+	 */
+	public Map<Long, Integer> seed(DPPPTDataService dataService) {
+		long now = System.currentTimeMillis();
+		long since = now - now % batchLength - retentionPeriod;
+		Map<Long, Integer> changed = new HashMap<>();
+		try {
+			Map<Long, Integer> maxIds = dataService.getMaxExposedIdPerBatch(since, batchLength);
+			boolean reseed = coveredFrom != Long.MAX_VALUE;
+			maxIds.forEach((batchReleaseTime, maxId) -> {
+				Integer known = getMaxId(batchReleaseTime);
+				if (reseed && (known == null || known < maxId)) {
+					changed.put(batchReleaseTime, maxId);
+				}
+				batches.merge(batchReleaseTime, etags(maxId),
+						(current, seeded) -> current != BatchEtags.UNKNOWN && current.maxId >= seeded.maxId ? current
+								: seeded);
+			});
+			coveredFrom = since + batchLength;
+			logger.info("Seeded etag index with " + maxIds.size() + " batches, " + changed.size() + " changed");
+		} catch (Exception e) {
+			logger.error("Could not seed etag index, conditional requests are answered from the database", e);
+		}
+		return changed;
+	}
+
+	@Override
+	public void exposeeInserted(int id, long receivedAt) {
+		long batchReleaseTime = receivedAt - receivedAt % batchLength + batchLength;
+		if (id <= 0) {
+			// we do not know the new max id, stop answering for this batch
+			batches.put(batchReleaseTime, BatchEtags.UNKNOWN);
+			return;
+		}
+		// even without a new max id the batch changed, which drops its heads
+		batches.compute(batchReleaseTime,
+				(brt, current) -> etags(current == null || current == BatchEtags.UNKNOWN ? id
+						: Math.max(current.maxId, id)));
+	}
+
+	/**
+	 * Records the max id of a sealed batch as read from the database. The heads
+	 * recorded for the batch are kept if the max id did not change.
+	 */
+	public void update(long batchReleaseTime, int maxId) {
+		batches.compute(batchReleaseTime,
+				(brt, current) -> current != null && current != BatchEtags.UNKNOWN && current.maxId == maxId ? current
+						: etags(maxId));
+	}
+
+	/**
+	 * Records the head of a rendered response, unless the batch changed since.
+	 */
+	public void putHead(SignedBatchResponse response) {
+		long batchReleaseTime = response.getBatchReleaseTime();
+		Integer maxId = getMaxId(batchReleaseTime);
+		if (maxId == null || maxId != response.getMaxId()) {
+			return;
+		}
+		BatchEtags etags = batches.computeIfAbsent(batchReleaseTime, brt -> etags(maxId));
+		// an insert may have replaced the entry in the meantime, its heads start empty
+		if (etags.maxId == response.getMaxId()) {
+			etags.heads.put(response.getVariant(), new BatchHead(response));
+		}
+	}
+
+	/**
+	 * Returns the head of the batch or null if the index cannot tell or the
+	 * variant was not rendered since the batch last changed.
+	 */
+	public BatchHead getHead(long batchReleaseTime, BatchFormat format, ContentEncoding encoding) {
+		if (getEtag(batchReleaseTime, format) == null) {
+			return null;
+		}
+		BatchEtags etags = batches.get(batchReleaseTime);
+		return etags != null ? etags.heads.get(SignedBatchResponse.variant(format, encoding)) : null;
+	}
+
+	/**
+	 * Returns the ETag of the batch or null if the index cannot tell.
+	 */
+	public String getEtag(long batchReleaseTime, BatchFormat format) {
+		long now = System.currentTimeMillis();
+		if (batchReleaseTime + sealGrace > now || batchReleaseTime < now - retentionPeriod) {
+			return null;
+		}
+		BatchEtags etags = batches.get(batchReleaseTime);
+		if (etags == null) {
+			etags = batchReleaseTime >= coveredFrom ? emptyBatch : null;
+		}
+		return etags != null ? etags.get(format) : null;
+	}
+
+	/**
+	 * Returns the max id of the batch or null if the index cannot tell.
+	 */
+	public Integer getMaxId(long batchReleaseTime) {
+		BatchEtags etags = batches.get(batchReleaseTime);
+		if (etags == null) {
+			return batchReleaseTime >= coveredFrom ? 0 : null;
+		}
+		return etags == BatchEtags.UNKNOWN ? null : etags.maxId;
+	}
+
+	/**
+	 * Removes all batches released before the given time.
+	 */
+	public void evictBefore(long batchReleaseTime) {
+		batches.headMap(batchReleaseTime).clear();
+	}
+
+	public void evictExpired() {
+		evictBefore(System.currentTimeMillis() - retentionPeriod);
+	}
+
+	private BatchEtags etags(int maxId) {
+		String[] etags = new String[BatchFormat.values().length];
+		for (BatchFormat format : BatchFormat.values()) {
+			etags[format.ordinal()] = etagGenerator.getEtag(maxId, format.getEtagPrefix());
+		}
+		return new BatchEtags(maxId, etags);
+	}
+
+	private static class BatchEtags {
+		private static final BatchEtags UNKNOWN = new BatchEtags(Integer.MAX_VALUE, null);
+		private final int maxId;
+		private final String[] etags;
+		private final Map<String, BatchHead> heads = new ConcurrentHashMap<>();
+
+		BatchEtags(int maxId, String[] etags) {
+			this.maxId = maxId;
+			this.etags = etags;
+		}
+
+		String get(BatchFormat format) {
+			return etags == null ? null : etags[format.ordinal()];
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.dpppt.backend.sdk.model.BatchMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Pushes every sealed batch as a server-sent event to all subscribers. A
+ * subscriber only costs an emitter and a small queue: the events are
+ * serialized once and written by a small pool of threads. A subscriber whose
+ * queue is full does not read fast enough and is disconnected, it can
+ * reconnect with <code>Last-Event-ID</code>. The writes block, so a write which
+ * takes longer than the write timeout is interrupted and its subscriber is
+ * disconnected as well, before a few stalled sockets occupy all senders.
+ */
+public class BatchEventFeed implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchEventFeed.class);
+
+	private static final String EVENT_NAME = "batch";
+
+	private final ObjectMapper objectMapper;
+	private final BatchReleaseNotifier releaseNotifier;
+	private final long subscriptionTimeout;
+	private final int bufferSize;
+	private final long writeTimeout;
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	private final ExecutorService senders;
+	private final ScheduledExecutorService heartbeat = Executors
+			.newSingleThreadScheduledExecutor(daemonThreads("batch-feed-heartbeat"));
+
+	/**
+	 * @param subscriptionTimeout after how many milliseconds a subscription ends
+	 * @param bufferSize          how many events may be queued for a subscriber
+	 * @param senderThreads       the number of threads writing to subscribers
+	 * @param heartbeatInterval   how often an empty comment is sent in
+	 *                            milliseconds, which detects closed connections
+	 *                            and keeps proxies from timing out
+	 * @param writeTimeout        after how many milliseconds a write to a
+	 *                            subscriber is given up
+	 */
+	public BatchEventFeed(ObjectMapper objectMapper, BatchReleaseNotifier releaseNotifier, long subscriptionTimeout,
+			int bufferSize, int senderThreads, long heartbeatInterval, long writeTimeout) {
+		this.objectMapper = objectMapper;
+		this.releaseNotifier = releaseNotifier;
+		this.subscriptionTimeout = subscriptionTimeout;
+		this.bufferSize = bufferSize;
+		this.writeTimeout = writeTimeout;
+		this.senders = Executors.newFixedThreadPool(senderThreads, daemonThreads("batch-feed"));
+		releaseNotifier.addListener(this::publish);
+		heartbeat.scheduleAtFixedRate(() -> broadcast(Event.HEARTBEAT), heartbeatInterval, heartbeatInterval,
+				TimeUnit.MILLISECONDS);
+		long checkInterval = Math.max(writeTimeout / 2, 1);
+		heartbeat.scheduleAtFixedRate(this::interruptStalledWrites, checkInterval, checkInterval,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param lastEventId the release time of the last batch the subscriber has
+	 *                    seen, the latest batch is sent right away if it is newer
+	 */
+	public SseEmitter subscribe(Long lastEventId) {
+		SseEmitter emitter = createEmitter(subscriptionTimeout);
+		Subscriber subscriber = new Subscriber(emitter);
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(e -> subscribers.remove(subscriber));
+		subscribers.add(subscriber);
+		BatchMetadata latest = releaseNotifier.getLatest();
+		if (lastEventId != null && latest != null && latest.getBatchReleaseTime() > lastEventId) {
+			Event event = event(latest);
+			if (event != null) {
+				subscriber.enqueue(event);
+			}
+		}
+		return emitter;
+	}
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	SseEmitter createEmitter(long timeout) {
+		return new SseEmitter(timeout);
+	}
+
+	private void publish(BatchMetadata metadata) {
+		Event event = event(metadata);
+		if (event != null) {
+			broadcast(event);
+		}
+	}
+
+	private void broadcast(Event event) {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.enqueue(event);
+		}
+	}
+
+	private void interruptStalledWrites() {
+		long now = System.currentTimeMillis();
+		for (Subscriber subscriber : subscribers) {
+			subscriber.interruptIfStalled(now);
+		}
+	}
+
+	private Event event(BatchMetadata metadata) {
+		try {
+			return new Event(metadata.getBatchReleaseTime().toString(), objectMapper.writeValueAsString(metadata));
+		} catch (JsonProcessingException e) {
+			logger.error("Could not serialize batch event", e);
+			return null;
+		}
+	}
+
+	@Override
+	public void close() {
+		heartbeat.shutdownNow();
+		senders.shutdownNow();
+		for (Subscriber subscriber : subscribers) {
+			subscriber.emitter.complete();
+		}
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static class Event {
+		static final Event HEARTBEAT = new Event(null, null);
+
+		final String id;
+		final String data;
+
+		Event(String id, String data) {
+			this.id = id;
+			this.data = data;
+		}
+
+		SseEmitter.SseEventBuilder toSse() {
+			if (this == HEARTBEAT) {
+				return SseEmitter.event().comment("");
+			}
+			return SseEmitter.event().id(id).name(EVENT_NAME).data(data, MediaType.APPLICATION_JSON);
+		}
+	}
+
+	private class Subscriber {
+		private final SseEmitter emitter;
+		private final ArrayBlockingQueue<Event> queue = new ArrayBlockingQueue<>(bufferSize);
+		// at most one sender drains the queue at a time, so events stay in order
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		// the sender thread and when it started the current write, guarded by this
+		private Thread writer;
+		private long writeStarted;
+
+		Subscriber(SseEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		void enqueue(Event event) {
+			if (!queue.offer(event)) {
+				logger.info("Disconnecting slow batch feed subscriber");
+				disconnect();
+				return;
+			}
+			if (scheduled.compareAndSet(false, true)) {
+				senders.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			try {
+				Event event;
+				while ((event = queue.poll()) != null) {
+					synchronized (this) {
+						writer = Thread.currentThread();
+						writeStarted = System.currentTimeMillis();
+					}
+					try {
+						emitter.send(event.toSse());
+					} finally {
+						synchronized (this) {
+							writer = null;
+						}
+					}
+					if (Thread.interrupted()) {
+						// the write completed after all, but too late
+						disconnect();
+						return;
+					}
+				}
+			} catch (IOException | IllegalStateException e) {
+				// the connection is gone, the emitter completed or the write timed out
+				disconnect();
+			} finally {
+				// do not pass an interrupt of a stalled write on to the next task
+				Thread.interrupted();
+				scheduled.set(false);
+			}
+			if (!queue.isEmpty() && subscribers.contains(this) && scheduled.compareAndSet(false, true)) {
+				senders.execute(this::drain);
+			}
+		}
+
+		synchronized void interruptIfStalled(long now) {
+			if (writer != null && now - writeStarted > writeTimeout) {
+				logger.info("Disconnecting batch feed subscriber after a stalled write");
+				subscribers.remove(this);
+				queue.clear();
+				writer.interrupt();
+			}
+		}
+
+		private void disconnect() {
+			subscribers.remove(this);
+			queue.clear();
+			if (closed.compareAndSet(false, true)) {
+				emitter.complete();
+			}
+		}
+	}
+}
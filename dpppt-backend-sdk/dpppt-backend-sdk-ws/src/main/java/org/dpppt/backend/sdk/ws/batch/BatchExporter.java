@@ -0,0 +1,378 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiPredicate;
+
+import org.dpppt.backend.sdk.data.ExposeeInsertListener;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes sealed batches into a directory tree which a web server can serve
+ * as static files, using the same paths as the API:
+ * <ul>
+ * <li><code>v1/exposed/{batchReleaseTime}</code>,
+ * <code>v1/exposedjson/{batchReleaseTime}</code> and
+ * <code>v2/exposed/{batchReleaseTime}</code> contain the body</li>
+ * <li><code>{body}.gz</code> contains the gzip variant if there is one</li>
+ * <li><code>{body}.headers</code> contains the headers to send along, one
+ * <code>Name: value</code> per line, including the ETag the backend sends</li>
+ * <li><code>headers.caddy</code> contains Caddyfile <code>handle</code>
+ * blocks for every exported batch, which serve the file with its headers and
+ * answer conditional requests with the ETags of the backend</li>
+ * <li><code>exported.maxids</code> contains the max id of every exported
+ * batch, to check the batches against the database after a restart</li>
+ * </ul>
+ * Every file is written to a temporary file and then renamed, a web server
+ * never sees a partially written file. An insert into an exported batch
+ * deletes it, until it is exported again it is served by the backend.
+ */
+public class BatchExporter implements ExposeeInsertListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchExporter.class);
+
+	private static final String HEADERS_SUFFIX = ".headers";
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String CADDY_SNIPPET = "headers.caddy";
+	private static final String MAX_IDS = "exported.maxids";
+	private static final String ETAG = "ETag";
+
+	private final Path directory;
+	private final long batchLength;
+	private final long retentionPeriod;
+	private final String cacheControl;
+	// path of the body relative to the directory -> batch
+	private final ConcurrentSkipListMap<String, ExportedBatch> exported = new ConcurrentSkipListMap<>();
+
+	/**
+	 * @param cacheControlMinutes the max-age to send along with the exported
+	 *                            files, as for the API
+	 */
+	public BatchExporter(Path directory, long batchLength, int retentionDays, int cacheControlMinutes) {
+		this.directory = directory;
+		this.batchLength = batchLength;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.cacheControl = "max-age=" + Duration.ofMinutes(cacheControlMinutes).getSeconds();
+	}
+
+	/**
+	 * Picks up the batches exported before a restart. Expired batches are
+	 * removed, as are batches signed with another key than the current one, e.g.
+	 * after a key rotation, and batches whose max id differs from the one in the
+	 * etag index, which received inserts while no exporter was running. Batches
+	 * exported without their ETag are removed as well.
+	 *
+	 * @param etagIndex the index seeded from the database
+	 */
+	public void init(ResponseSigner signer, BatchEtagIndex etagIndex) {
+		try {
+			Map<String, Integer> maxIds = readMaxIds(directory.resolve(MAX_IDS));
+			for (BatchFormat format : BatchFormat.values()) {
+				Path formatDirectory = directory.resolve(path(0, format)).getParent();
+				Files.createDirectories(formatDirectory);
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(formatDirectory, "*" + HEADERS_SUFFIX)) {
+					for (Path file : files) {
+						String bodyPath = directory.relativize(file).toString();
+						bodyPath = bodyPath.substring(0, bodyPath.length() - HEADERS_SUFFIX.length());
+						exported.put(bodyPath, new ExportedBatch(readHeaders(file), maxIds.getOrDefault(bodyPath, -1)));
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Could not read exported batches from " + directory, e);
+		}
+		long retainedFrom = System.currentTimeMillis() - retentionPeriod;
+		evictIf((batchReleaseTime, batch) -> {
+			Integer maxId = etagIndex.getMaxId(batchReleaseTime);
+			return batchReleaseTime < retainedFrom || maxId == null || maxId != batch.maxId
+					|| !signer.getPublicKeyAsPEM().equals(batch.headers.get(ResponseSigner.HEADER_PUBLIC_KEY))
+					|| !batch.headers.containsKey(ETAG);
+		});
+	}
+
+	public void export(SignedBatchResponse response) {
+		String bodyPath = path(response.getBatchReleaseTime(), response.getFormat());
+		if (response.getEncoding() != ContentEncoding.IDENTITY) {
+			exportEncoded(bodyPath, response);
+			return;
+		}
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("Content-Type", response.getFormat().getMediaType().toString());
+		headers.put("Cache-Control", cacheControl);
+		headers.put(ETAG, quote(response.getEtag()));
+		headers.putAll(response.getHeaders());
+		try {
+			// the headers first, the body is what a web server looks for
+			writeAtomically(directory.resolve(bodyPath + HEADERS_SUFFIX), ByteBuffer.wrap(formatHeaders(headers)));
+			writeAtomically(directory.resolve(bodyPath), response.getBody());
+			exported.put(bodyPath, new ExportedBatch(headers, response.getMaxId()));
+			writeIndexes();
+		} catch (IOException e) {
+			logger.error("Could not export batch " + bodyPath, e);
+		}
+	}
+
+	/**
+	 * Caddy serves precompressed files next to the original, which carries the
+	 * headers. Other encodings are left to the backend.
+	 */
+	private void exportEncoded(String bodyPath, SignedBatchResponse response) {
+		if (response.getEncoding() != ContentEncoding.GZIP) {
+			return;
+		}
+		try {
+			writeAtomically(directory.resolve(bodyPath + GZIP_SUFFIX), response.getBody());
+		} catch (IOException e) {
+			logger.error("Could not export gzip batch " + bodyPath, e);
+		}
+	}
+
+	/**
+	 * Deletes the batch receiving the insert. Ids are not committed in order, so
+	 * even an id below the exported max id may be missing from the files. Inserts
+	 * into the open batch find nothing to delete.
+	 */
+	@Override
+	public void exposeeInserted(int id, long receivedAt) {
+		long batchReleaseTime = receivedAt - receivedAt % batchLength + batchLength;
+		evict(batchReleaseTime);
+	}
+
+	/**
+	 * Deletes the batch, until it is exported again it is served by the backend.
+	 */
+	public void evict(long batchReleaseTime) {
+		evictIf((released, batch) -> released == batchReleaseTime);
+	}
+
+	/**
+	 * Deletes all batches released before the given time.
+	 */
+	public void evictBefore(long batchReleaseTime) {
+		evictIf((released, batch) -> released < batchReleaseTime);
+	}
+
+	private void evictIf(BiPredicate<Long, ExportedBatch> batches) {
+		boolean evicted = false;
+		for (Map.Entry<String, ExportedBatch> entry : exported.entrySet()) {
+			String bodyPath = entry.getKey();
+			if (batches.test(Long.parseLong(bodyPath.substring(bodyPath.lastIndexOf('/') + 1)), entry.getValue())) {
+				try {
+					Files.deleteIfExists(directory.resolve(bodyPath));
+					Files.deleteIfExists(directory.resolve(bodyPath + GZIP_SUFFIX));
+					Files.deleteIfExists(directory.resolve(bodyPath + HEADERS_SUFFIX));
+					exported.remove(bodyPath);
+					evicted = true;
+				} catch (IOException e) {
+					logger.warn("Could not delete exported batch " + bodyPath, e);
+				}
+			}
+		}
+		if (evicted) {
+			try {
+				writeIndexes();
+			} catch (IOException e) {
+				logger.error("Could not update " + CADDY_SNIPPET, e);
+			}
+		}
+	}
+
+	public void evictExpired() {
+		evictBefore(System.currentTimeMillis() - retentionPeriod);
+	}
+
+	private static String path(long batchReleaseTime, BatchFormat format) {
+		return format.getPath() + "/" + batchReleaseTime;
+	}
+
+	/**
+	 * Batches are only served from disk once Caddy has loaded their handle blocks,
+	 * so a batch is never served without its signature. A handle block only
+	 * matches while the file exists, a deleted batch is served by the backend
+	 * even before Caddy reloads. Requests with a query string, e.g. a page or a
+	 * key date window of a batch, ask for another body than the exported one and
+	 * are left to the backend.
+	 * <p>
+	 * The file server compares conditional requests with an ETag of its own, so
+	 * a request with the ETag of the backend is answered by a separate block, and
+	 * the ETag of the file server is replaced once the response is written.
+	 */
+	private synchronized void writeIndexes() throws IOException {
+		StringBuilder snippet = new StringBuilder("# generated by the dp3t backend, do not edit\n");
+		StringBuilder maxIds = new StringBuilder();
+		exported.forEach((bodyPath, batch) -> {
+			maxIds.append(bodyPath).append(" ").append(batch.maxId).append("\n");
+			String matcher = "@" + bodyPath.replace('/', '_');
+			String etag = batch.headers.get(ETAG);
+			String gzipEtag = gzipEtag(etag);
+			appendMatcher(snippet, matcher + "_unchanged", bodyPath, "", "header If-None-Match " + caddyString(etag),
+					"header If-None-Match " + caddyString(gzipEtag));
+			appendMatcher(snippet, matcher + "_gzip", bodyPath, GZIP_SUFFIX, "header Accept-Encoding *gzip*");
+			appendMatcher(snippet, matcher, bodyPath, "");
+
+			// a client holding either variant gets a 304 with the ETag it sent
+			snippet.append("handle ").append(matcher).append("_unchanged {\n");
+			snippet.append("\theader {\n");
+			appendHeader(snippet, "Cache-Control", batch.headers.get("Cache-Control"));
+			snippet.append("\t\t").append(ETAG).append(" {http.request.header.If-None-Match}\n");
+			appendHeader(snippet, "Vary", "Accept-Encoding");
+			snippet.append("\t}\n");
+			snippet.append("\trespond 304\n");
+			snippet.append("}\n");
+			appendFileServer(snippet, matcher + "_gzip", batch.headers, gzipEtag, "\t\tprecompressed gzip\n");
+			appendFileServer(snippet, matcher, batch.headers, etag, "");
+		});
+		writeAtomically(directory.resolve(MAX_IDS), ByteBuffer.wrap(maxIds.toString().getBytes(StandardCharsets.UTF_8)));
+		writeAtomically(directory.resolve(CADDY_SNIPPET),
+				ByteBuffer.wrap(snippet.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @param fileSuffix the suffix of the file which has to exist, e.g. of the
+	 *                   gzip variant
+	 * @param conditions further matchers, all of them have to match
+	 */
+	private static void appendMatcher(StringBuilder snippet, String matcher, String bodyPath, String fileSuffix,
+			String... conditions) {
+		snippet.append(matcher).append(" {\n");
+		snippet.append("\tpath /").append(bodyPath).append("\n");
+		snippet.append("\texpression {query} == \"\"\n");
+		for (String condition : conditions) {
+			snippet.append("\t").append(condition).append("\n");
+		}
+		snippet.append("\tfile {\n");
+		snippet.append("\t\troot {$DP3T_EXPORT_ROOT:/srv/dp3t-export}\n");
+		if (!fileSuffix.isEmpty()) {
+			snippet.append("\t\ttry_files {path}").append(fileSuffix).append("\n");
+		}
+		snippet.append("\t}\n");
+		snippet.append("}\n");
+	}
+
+	/**
+	 * The headers are deferred, so they replace those the file server sets, e.g.
+	 * its ETag.
+	 */
+	private static void appendFileServer(StringBuilder snippet, String matcher, Map<String, String> headers,
+			String etag, String options) {
+		snippet.append("handle ").append(matcher).append(" {\n");
+		snippet.append("\theader {\n");
+		headers.forEach((name, value) -> appendHeader(snippet, name, ETAG.equals(name) ? etag : value));
+		appendHeader(snippet, "Vary", "Accept-Encoding");
+		snippet.append("\t\t-Last-Modified\n");
+		snippet.append("\t\tdefer\n");
+		snippet.append("\t}\n");
+		snippet.append("\troot * {$DP3T_EXPORT_ROOT:/srv/dp3t-export}\n");
+		if (options.isEmpty()) {
+			snippet.append("\tfile_server\n");
+		} else {
+			snippet.append("\tfile_server {\n");
+			snippet.append(options);
+			snippet.append("\t}\n");
+		}
+		snippet.append("}\n");
+	}
+
+	private static void appendHeader(StringBuilder snippet, String name, String value) {
+		snippet.append("\t\t").append(name).append(" ").append(caddyString(value)).append("\n");
+	}
+
+	private static String caddyString(String value) {
+		return "\"" + value.replace("\"", "\\\"") + "\"";
+	}
+
+	private static String quote(String etag) {
+		return "\"" + etag + "\"";
+	}
+
+	/**
+	 * @param etag the quoted ETag of the identity body
+	 */
+	private static String gzipEtag(String etag) {
+		return quote(ContentEncoding.GZIP.etag(etag.substring(1, etag.length() - 1)));
+	}
+
+	private static byte[] formatHeaders(Map<String, String> headers) {
+		StringBuilder lines = new StringBuilder();
+		headers.forEach((name, value) -> lines.append(name).append(": ").append(value).append("\n"));
+		return lines.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, String> readHeaders(Path file) throws IOException {
+		Map<String, String> headers = new LinkedHashMap<>();
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		for (String line : lines) {
+			int separator = line.indexOf(": ");
+			if (separator > 0) {
+				headers.put(line.substring(0, separator), line.substring(separator + 2));
+			}
+		}
+		return headers;
+	}
+
+	private static Map<String, Integer> readMaxIds(Path file) throws IOException {
+		Map<String, Integer> maxIds = new HashMap<>();
+		if (!Files.exists(file)) {
+			return maxIds;
+		}
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			int separator = line.indexOf(' ');
+			if (separator > 0) {
+				try {
+					maxIds.put(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1)));
+				} catch (NumberFormatException e) {
+					logger.warn("Ignoring malformed line in " + MAX_IDS + ": " + line);
+				}
+			}
+		}
+		return maxIds;
+	}
+
+	private static void writeAtomically(Path target, ByteBuffer content) throws IOException {
+		Path temp = Files.createTempFile(target.getParent(), ".export", ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (content.hasRemaining()) {
+					channel.write(content);
+				}
+			}
+			// temp files are created owner readable only
+			temp.toFile().setReadable(true, false);
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static class ExportedBatch {
+		private final Map<String, String> headers;
+		// -1 if unknown
+		private final int maxId;
+
+		ExportedBatch(Map<String, String> headers, int maxId) {
+			this.headers = headers;
+			this.maxId = maxId;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import org.springframework.http.MediaType;
+
+public enum BatchFormat {
+
+	PROTO("proto", MediaType.valueOf("application/x-protobuf"), "v1/exposed"),
+	JSON("json", MediaType.APPLICATION_JSON, "v1/exposedjson"),
+	PROTO_V2("protov2", MediaType.valueOf("application/x-protobuf"), "v2/exposed");
+
+	private final String etagPrefix;
+	private final MediaType mediaType;
+	private final String path;
+
+	BatchFormat(String etagPrefix, MediaType mediaType, String path) {
+		this.etagPrefix = etagPrefix;
+		this.mediaType = mediaType;
+		this.path = path;
+	}
+
+	public String getEtagPrefix() {
+		return etagPrefix;
+	}
+
+	public MediaType getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * @return the path the batches are served at, without the leading slash and
+	 *         the release time
+	 */
+	public String getPath() {
+		return path;
+	}
+}
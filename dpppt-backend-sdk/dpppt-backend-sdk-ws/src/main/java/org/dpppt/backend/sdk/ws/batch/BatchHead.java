@@ -0,0 +1,47 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.util.Map;
+
+/**
+ * Describes a signed batch response without its body: enough to answer a HEAD
+ * request with the same headers a GET would get.
+ */
+public class BatchHead {
+
+	private final BatchFormat format;
+	private final ContentEncoding encoding;
+	private final int bodyLength;
+	private final Map<String, String> headers;
+
+	public BatchHead(SignedBatchResponse response) {
+		this.format = response.getFormat();
+		this.encoding = response.getEncoding();
+		this.bodyLength = response.getBodyLength();
+		this.headers = response.getHeaders();
+	}
+
+	public BatchFormat getFormat() {
+		return format;
+	}
+
+	public ContentEncoding getEncoding() {
+		return encoding;
+	}
+
+	public int getBodyLength() {
+		return bodyLength;
+	}
+
+	/**
+	 * @return the signature headers of the response
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+}
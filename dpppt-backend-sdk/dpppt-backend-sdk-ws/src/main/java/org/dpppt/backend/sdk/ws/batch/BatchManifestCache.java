@@ -0,0 +1,134 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.dpppt.backend.sdk.model.BatchManifest;
+import org.dpppt.backend.sdk.model.BatchMetadata;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Keeps a signed manifest of all sealed protobuf batches within the retention
+ * period. The entries follow the batch cache: a batch is added when its
+ * response is cached and removed when a late insert drops it, so the manifest
+ * is only serialized and signed again when an entry changed, not per request.
+ * Batches which are missing when the manifest is requested, e.g. after a
+ * restart, are rendered through the cache once.
+ */
+public class BatchManifestCache {
+
+	private final ConcurrentSkipListMap<Long, BatchMetadata> entries = new ConcurrentSkipListMap<>();
+	private final BatchResponseCache batchCache;
+	private final ResponseSigner signer;
+	private final ObjectMapper objectMapper;
+	private final long batchLength;
+	private final long sealGrace;
+	private final long retentionPeriod;
+	private volatile boolean changed = true;
+	private volatile SignedBatchResponse manifest;
+
+	public BatchManifestCache(BatchResponseCache batchCache, ResponseSigner signer, ObjectMapper objectMapper,
+			long batchLength, long sealGrace, int retentionDays) {
+		this.batchCache = batchCache;
+		this.signer = signer;
+		this.objectMapper = objectMapper;
+		this.batchLength = batchLength;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		batchCache.addSealedListener(this::batchSealed);
+		batchCache.addInvalidationListener(this::batchInvalidated);
+	}
+
+	private void batchSealed(SignedBatchResponse batch) {
+		if (batch.getFormat() == BatchFormat.PROTO && batch.getEncoding() == ContentEncoding.IDENTITY) {
+			entries.put(batch.getBatchReleaseTime(), batch.toMetadata());
+			changed = true;
+		}
+	}
+
+	private void batchInvalidated(long batchReleaseTime) {
+		if (entries.remove(batchReleaseTime) != null) {
+			changed = true;
+		}
+	}
+
+	/**
+	 * @return the manifest as a signed JSON response, which carries the release
+	 *         time of the latest sealed batch
+	 */
+	public SignedBatchResponse get() {
+		long now = System.currentTimeMillis();
+		long latestBatch = now - now % batchLength;
+		long latestSealedBatch = latestBatch + sealGrace <= now ? latestBatch : latestBatch - batchLength;
+		SignedBatchResponse current = manifest;
+		Map.Entry<Long, BatchMetadata> oldest = entries.firstEntry();
+		if (current != null && !changed && current.getBatchReleaseTime() == latestSealedBatch
+				&& (oldest == null || oldest.getKey() >= now - retentionPeriod)) {
+			return current;
+		}
+		return update(now, latestSealedBatch);
+	}
+
+	private synchronized SignedBatchResponse update(long now, long latestSealedBatch) {
+		if (!entries.headMap(now - retentionPeriod).isEmpty()) {
+			entries.headMap(now - retentionPeriod).clear();
+			changed = true;
+		}
+		long oldestBatch = latestSealedBatch;
+		while (oldestBatch - batchLength >= now - retentionPeriod) {
+			oldestBatch -= batchLength;
+		}
+		for (long batchReleaseTime = oldestBatch; batchReleaseTime <= latestSealedBatch; batchReleaseTime += batchLength) {
+			if (!entries.containsKey(batchReleaseTime)) {
+				// a cache hit does not call the sealed listener
+				batchSealed(batchCache.getOrRender(batchReleaseTime, BatchFormat.PROTO));
+			}
+		}
+		if (manifest != null && !changed && manifest.getBatchReleaseTime() == latestSealedBatch) {
+			return manifest;
+		}
+		changed = false;
+
+		BatchManifest content = new BatchManifest();
+		content.setLatestBatchReleaseTime(latestSealedBatch);
+		content.setBatches(new ArrayList<>(entries.headMap(latestSealedBatch, true).values()));
+		int keyCount = content.getBatches().stream().mapToInt(BatchMetadata::getKeyCount).sum();
+		byte[] body;
+		try {
+			body = objectMapper.writeValueAsBytes(content);
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put(BatchRenderer.HEADER_BATCH_RELEASE_TIME, Long.toString(latestSealedBatch));
+		headers.putAll(signer.sign(body, headers));
+		manifest = new SignedBatchResponse(latestSealedBatch, BatchFormat.JSON, ByteBuffer.wrap(body), 0, keyCount,
+				etag(body), headers);
+		return manifest;
+	}
+
+	private static String etag(byte[] body) {
+		try {
+			return "manifest" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.data.ExposeeInsertListener;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Serves a batch in pages, so a request never loads more than one page of
+ * exposees however large the batch is. Pages are read with a keyset query on
+ * the primary key, each page is signed on its own and its ETag covers the page
+ * bounds.
+ * <p>
+ * The pages of sealed batches are cached like whole batches, until a late
+ * insert drops the pages of its batch or the batch leaves the retention
+ * period. Entries are kept per release time and keyed by
+ * <code>{before}-{limit}/{variant}</code>. Only pages starting at the
+ * beginning of the batch or at the end of a cached page are cached, any other
+ * <code>before</code> is rendered for the request alone. Beyond the maximum
+ * number of pages the pages of the oldest batches are dropped first.
+ * Concurrent requests for the same page share a single render.
+ */
+public class BatchPaginator implements ExposeeInsertListener {
+
+	/**
+	 * Set if there are more pages, holds the value of the <code>before</code>
+	 * parameter of the next page.
+	 */
+	public static final String HEADER_NEXT_PAGE = "X-NEXT-PAGE";
+
+	private final ConcurrentSkipListMap<Long, Map<String, SignedBatchResponse>> pages = new ConcurrentSkipListMap<>();
+	private final DPPPTDataService dataService;
+	private final BatchRenderer renderer;
+	private final int maxPageSize;
+	private final long sealGrace;
+	private final long retentionPeriod;
+	private final int maxCachedPages;
+	private final SingleFlight<String, SignedBatchResponse> renders;
+	// guarded by this, as are all changes to pages
+	private int cachedPages;
+
+	/**
+	 * @param maxPageSize    larger requested page sizes are cut down to this one
+	 * @param maxCachedPages the number of pages kept at most
+	 */
+	public BatchPaginator(DPPPTDataService dataService, BatchRenderer renderer, int maxPageSize, long sealGrace,
+			int retentionDays, int maxCachedPages, MeterRegistry meterRegistry) {
+		this.dataService = dataService;
+		this.renderer = renderer;
+		this.maxPageSize = maxPageSize;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.maxCachedPages = maxCachedPages;
+		this.renders = new SingleFlight<>(requestCounter(meterRegistry, "leader"),
+				requestCounter(meterRegistry, "wait"));
+	}
+
+	private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("dp3t.page.requests").description("Page renders by single flight role")
+				.tag("result", result).register(meterRegistry);
+	}
+
+	/**
+	 * @param before   the value of the {@link #HEADER_NEXT_PAGE} header of the
+	 *                 previous page, or null for the first page
+	 * @param pageSize the requested number of exposees per page
+	 */
+	public SignedBatchResponse getPage(long batchReleaseTime, BatchFormat format, Integer before, int pageSize,
+			ContentEncoding encoding) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		int limit = Math.min(pageSize, maxPageSize);
+		String key = (before == null ? "" : before) + "-" + limit + "/" + SignedBatchResponse.variant(format, encoding);
+		SignedBatchResponse cached = pages.getOrDefault(batchReleaseTime, Collections.emptyMap()).get(key);
+		if (cached != null) {
+			return cached;
+		}
+		return renders.execute(batchReleaseTime + "/" + key, () -> {
+			// a leader which finished just before we registered may have filled the cache
+			SignedBatchResponse current = pages.getOrDefault(batchReleaseTime, Collections.emptyMap()).get(key);
+			if (current != null) {
+				return current;
+			}
+			SignedBatchResponse page = encoding == ContentEncoding.IDENTITY
+					? render(batchReleaseTime, format, before, limit)
+					: renderer.encode(getPage(batchReleaseTime, format, before, limit, ContentEncoding.IDENTITY),
+							encoding);
+			long now = System.currentTimeMillis();
+			if (batchReleaseTime + sealGrace <= now && batchReleaseTime >= now - retentionPeriod
+					&& isPageBoundary(batchReleaseTime, before, limit)) {
+				put(batchReleaseTime, key, page);
+			}
+			return page;
+		});
+	}
+
+	/**
+	 * Whether the page starts at the beginning of the batch or where a cached
+	 * page of the same size ends. Any other value of before is chosen by the
+	 * client and would only push the pages other clients request out of the
+	 * cache.
+	 */
+	private boolean isPageBoundary(long batchReleaseTime, Integer before, int limit) {
+		if (before == null) {
+			return true;
+		}
+		String next = before.toString();
+		String size = "-" + limit + "/";
+		return pages.getOrDefault(batchReleaseTime, Collections.emptyMap()).entrySet().stream()
+				.anyMatch(page -> page.getKey().contains(size)
+						&& next.equals(page.getValue().getHeaders().get(HEADER_NEXT_PAGE)));
+	}
+
+	private SignedBatchResponse render(long batchReleaseTime, BatchFormat format, Integer before, int limit) {
+		int beforeId = before == null ? Integer.MAX_VALUE : before;
+		ExposeeColumns page = dataService.getSortedExposedColumnsForBatchReleaseTime(batchReleaseTime,
+				renderer.getBatchLength(), beforeId, limit);
+		Map<String, String> headers = Collections.emptyMap();
+		if (page.size() >= limit) {
+			headers = Collections.singletonMap(HEADER_NEXT_PAGE, Integer.toString(page.getId(page.size() - 1)));
+		}
+		String etagPrefix = "page-" + (before == null ? "" : before) + "-" + limit + "-" + format.getEtagPrefix();
+		return renderer.render(batchReleaseTime, format, page, etagPrefix, headers);
+	}
+
+	private synchronized void put(long batchReleaseTime, String key, SignedBatchResponse page) {
+		if (pages.computeIfAbsent(batchReleaseTime, time -> new ConcurrentHashMap<>()).put(key, page) == null) {
+			cachedPages++;
+		}
+		while (cachedPages > maxCachedPages) {
+			cachedPages -= pages.pollFirstEntry().getValue().size();
+		}
+	}
+
+	private synchronized void remove(Map<Long, Map<String, SignedBatchResponse>> batches) {
+		for (Map<String, SignedBatchResponse> removed : batches.values()) {
+			cachedPages -= removed.size();
+		}
+		batches.clear();
+	}
+
+	/**
+	 * Drops the pages of a sealed batch receiving a late insert. Inserts into the
+	 * open batch find nothing to drop.
+	 */
+	@Override
+	public void exposeeInserted(int id, long receivedAt) {
+		long batchReleaseTime = receivedAt - receivedAt % renderer.getBatchLength() + renderer.getBatchLength();
+		remove(pages.subMap(batchReleaseTime, true, batchReleaseTime, true));
+	}
+
+	public void evictExpired() {
+		remove(pages.headMap(System.currentTimeMillis() - retentionPeriod));
+	}
+
+	public synchronized int size() {
+		return cachedPages;
+	}
+}
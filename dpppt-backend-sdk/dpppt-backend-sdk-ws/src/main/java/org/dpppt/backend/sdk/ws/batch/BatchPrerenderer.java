@@ -0,0 +1,75 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders and signs the most recent batches ahead of the first client request,
+ * so the first request after a batch boundary is already a cache hit.
+ */
+public class BatchPrerenderer {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchPrerenderer.class);
+
+	private final BatchResponseCache batchCache;
+	private final long batchLength;
+	private final long sealGrace;
+	private final int lookbackBatches;
+
+	public BatchPrerenderer(BatchResponseCache batchCache, long batchLength, long sealGrace, int lookbackBatches) {
+		this.batchCache = batchCache;
+		this.batchLength = batchLength;
+		this.sealGrace = sealGrace;
+		this.lookbackBatches = lookbackBatches;
+	}
+
+	/**
+	 * @return the delay until the next batch boundary has passed its grace period
+	 */
+	public long getInitialDelay() {
+		long now = System.currentTimeMillis();
+		long nextBoundary = now - now % batchLength + batchLength;
+		return nextBoundary + sealGrace - now;
+	}
+
+	/**
+	 * Renders the latest released batch and the configured number of batches
+	 * before it, skipping those already cached.
+	 */
+	public void prerender() {
+		long now = System.currentTimeMillis();
+		long latestBatch = now - now % batchLength;
+		for (int i = 0; i <= lookbackBatches; i++) {
+			long batchReleaseTime = latestBatch - i * batchLength;
+			if (!batchCache.isCacheable(batchReleaseTime)) {
+				continue;
+			}
+			for (BatchFormat format : BatchFormat.values()) {
+				for (ContentEncoding encoding : batchCache.getEncodings(format)) {
+					prerender(batchReleaseTime, format, encoding);
+				}
+			}
+		}
+	}
+
+	private void prerender(long batchReleaseTime, BatchFormat format, ContentEncoding encoding) {
+		if (batchCache.getIfPresent(batchReleaseTime, format, encoding) != null) {
+			return;
+		}
+		String variant = SignedBatchResponse.variant(format, encoding);
+		try {
+			long start = System.currentTimeMillis();
+			SignedBatchResponse response = batchCache.getOrRender(batchReleaseTime, format, encoding);
+			logger.info("Pre-rendered " + variant + " batch " + batchReleaseTime + " with " + response.getKeyCount()
+					+ " keys in " + (System.currentTimeMillis() - start) + "ms");
+		} catch (RuntimeException e) {
+			logger.error("Pre-rendering " + variant + " batch " + batchReleaseTime + " failed", e);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.dpppt.backend.sdk.model.BatchMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Announces every batch once it is sealed. A single timer fires at the seal
+ * time of the next batch, reads the metadata of the batch once and hands it to
+ * all waiters, however many there are.
+ */
+public class BatchReleaseNotifier implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchReleaseNotifier.class);
+
+	private final BatchResponseCache batchCache;
+	private final long batchLength;
+	private final long sealGrace;
+	private final Set<Consumer<BatchMetadata>> waiters = ConcurrentHashMap.newKeySet();
+	private final List<Consumer<BatchMetadata>> listeners = new CopyOnWriteArrayList<>();
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "batch-release");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile BatchMetadata latest;
+
+	public BatchReleaseNotifier(BatchResponseCache batchCache, long batchLength, long sealGrace) {
+		this.batchCache = batchCache;
+		this.batchLength = batchLength;
+		this.sealGrace = sealGrace;
+	}
+
+	/**
+	 * Loads the latest sealed batch and schedules the release of the next one.
+	 */
+	public void start() {
+		timer.execute(() -> {
+			long now = System.currentTimeMillis();
+			long latestBatch = now - now % batchLength;
+			release(latestBatch + sealGrace <= now ? latestBatch : latestBatch - batchLength);
+		});
+	}
+
+	/**
+	 * @return the latest sealed batch or null if it is not known yet
+	 */
+	public BatchMetadata getLatest() {
+		return latest;
+	}
+
+	/**
+	 * Registers a listener which is called with every sealed batch.
+	 */
+	public void addListener(Consumer<BatchMetadata> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Calls the waiter once with the first sealed batch released after the given
+	 * time, right away if it is already known.
+	 *
+	 * @return cancels the wait
+	 */
+	public Runnable awaitRelease(long after, Consumer<BatchMetadata> waiter) {
+		waiters.add(waiter);
+		// a release between reading latest and adding the waiter would be missed
+		BatchMetadata current = latest;
+		if (current != null && current.getBatchReleaseTime() > after && waiters.remove(waiter)) {
+			waiter.accept(current);
+		}
+		return () -> waiters.remove(waiter);
+	}
+
+	private void release(long batchReleaseTime) {
+		BatchMetadata metadata;
+		try {
+			SignedBatchResponse batch = batchCache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+			metadata = batch.toMetadata();
+		} catch (RuntimeException e) {
+			logger.warn("Could not load released batch " + batchReleaseTime, e);
+			metadata = new BatchMetadata(batchReleaseTime, null, null);
+			metadata.setUrl("/v1/exposed/" + batchReleaseTime);
+		}
+		latest = metadata;
+		for (Consumer<BatchMetadata> waiter : waiters) {
+			if (waiters.remove(waiter)) {
+				deliver(waiter, metadata);
+			}
+		}
+		for (Consumer<BatchMetadata> listener : listeners) {
+			deliver(listener, metadata);
+		}
+		long next = batchReleaseTime + batchLength;
+		timer.schedule(() -> release(next), Math.max(0, next + sealGrace - System.currentTimeMillis()),
+				TimeUnit.MILLISECONDS);
+	}
+
+	private static void deliver(Consumer<BatchMetadata> consumer, BatchMetadata metadata) {
+		try {
+			consumer.accept(metadata);
+		} catch (RuntimeException e) {
+			logger.warn("Batch release listener failed", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		timer.shutdownNow();
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGeneratorInterface;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Loads a batch from the database, serializes it and signs the result.
+ */
+public class BatchRenderer {
+
+	public static final String HEADER_BATCH_RELEASE_TIME = "X-BATCH-RELEASE-TIME";
+
+	private final DPPPTDataService dataService;
+	private final EtagGeneratorInterface etagGenerator;
+	private final ResponseSigner signer;
+	private final ObjectMapper objectMapper;
+	private final long batchLength;
+	private final MeterRegistry meterRegistry;
+	private final List<ContentEncoding> jsonEncodings = new ArrayList<>();
+
+	/**
+	 * @param jsonEncodings the encodings JSON batches are offered with besides
+	 *                      identity, in order of preference
+	 */
+	public BatchRenderer(DPPPTDataService dataService, EtagGeneratorInterface etagGenerator, ResponseSigner signer,
+			ObjectMapper objectMapper, long batchLength, List<ContentEncoding> jsonEncodings,
+			MeterRegistry meterRegistry) {
+		this.dataService = dataService;
+		this.etagGenerator = etagGenerator;
+		this.signer = signer;
+		this.objectMapper = objectMapper;
+		this.batchLength = batchLength;
+		this.meterRegistry = meterRegistry;
+		this.jsonEncodings.addAll(jsonEncodings);
+		this.jsonEncodings.remove(ContentEncoding.IDENTITY);
+		this.jsonEncodings.add(ContentEncoding.IDENTITY);
+	}
+
+	public long getBatchLength() {
+		return batchLength;
+	}
+
+	/**
+	 * @return whether the response is signed with the current key, which responses
+	 *         stored before a key rotation are not
+	 */
+	public boolean isSignedWithCurrentKey(SignedBatchResponse response) {
+		return signer.getPublicKeyAsPEM().equals(response.getHeaders().get(ResponseSigner.HEADER_PUBLIC_KEY));
+	}
+
+	/**
+	 * @return the encodings the format is offered with, in order of preference,
+	 *         always ending with identity
+	 */
+	public List<ContentEncoding> getEncodings(BatchFormat format) {
+		return format == BatchFormat.JSON ? jsonEncodings : Collections.singletonList(ContentEncoding.IDENTITY);
+	}
+
+	/**
+	 * Creates the encoded variant of a rendered batch. The signature headers stay
+	 * those of the identity body.
+	 */
+	public SignedBatchResponse encode(SignedBatchResponse identity, ContentEncoding encoding) {
+		if (encoding == ContentEncoding.IDENTITY) {
+			return identity;
+		}
+		return new SignedBatchResponse(identity.getBatchReleaseTime(), identity.getFormat(), encoding,
+				ByteBuffer.wrap(encoding.encode(identity.getBody())), identity.getMaxId(), identity.getKeyCount(),
+				encoding.etag(identity.getEtag()), identity.getHeaders());
+	}
+
+	public SignedBatchResponse render(long batchReleaseTime, BatchFormat format) {
+		return render(batchReleaseTime, format, null);
+	}
+
+	/**
+	 * @param window only the keys with a key date in the window are rendered, all
+	 *               keys if null
+	 */
+	public SignedBatchResponse render(long batchReleaseTime, BatchFormat format, KeyDateWindow window) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		SignedBatchResponse response;
+		if (window == null) {
+			BatchWriter writer = BatchWriter.forFormat(format, batchReleaseTime, objectMapper);
+			dataService.streamSortedExposedForBatchReleaseTime(batchReleaseTime, batchLength, writer);
+			response = sign(batchReleaseTime, format, writer, format.getEtagPrefix(), Collections.emptyMap());
+		} else {
+			ExposeeColumns exposees = dataService.getSortedExposedColumnsForBatchReleaseTime(batchReleaseTime,
+					batchLength, window.getFrom(), window.getTo());
+			response = render(batchReleaseTime, format, exposees, etagPrefix(format, window),
+					Collections.emptyMap());
+		}
+		sample.stop(meterRegistry.timer("dp3t.batch.render", "format", format.getEtagPrefix()));
+		meterRegistry.summary("dp3t.batch.rows", "format", format.getEtagPrefix()).record(response.getKeyCount());
+		return response;
+	}
+
+	/**
+	 * @return the ETag of the batch as {@link #render(long, BatchFormat)} would
+	 *         create it, from the max id of the batch
+	 */
+	public String getEtag(long batchReleaseTime, BatchFormat format) {
+		int maxId = dataService.getMaxExposedIdForBatchReleaseTime(batchReleaseTime, batchLength);
+		return etagGenerator.getEtag(maxId, format.getEtagPrefix());
+	}
+
+	/**
+	 * Renders all keys received on the given UTC day. The response carries the
+	 * end of the day as its release time.
+	 */
+	public SignedBatchResponse renderDay(LocalDate day, BatchFormat format) {
+		return renderDay(day, format, null);
+	}
+
+	/**
+	 * @param window only the keys with a key date in the window are rendered, all
+	 *               keys if null
+	 */
+	public SignedBatchResponse renderDay(LocalDate day, BatchFormat format, KeyDateWindow window) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		OffsetDateTime dayStart = day.atStartOfDay().atOffset(ZoneOffset.UTC);
+		long batchReleaseTime = dayStart.plusDays(1).toInstant().toEpochMilli();
+		SignedBatchResponse response;
+		if (window == null) {
+			BatchWriter writer = BatchWriter.forFormat(format, batchReleaseTime, objectMapper);
+			dataService.streamSortedExposedForDay(dayStart, writer);
+			response = sign(batchReleaseTime, format, writer, dayEtagPrefix(format), Collections.emptyMap());
+		} else {
+			ExposeeColumns exposees = dataService.getSortedExposedColumnsForDay(dayStart, window.getFrom(),
+					window.getTo());
+			response = render(batchReleaseTime, format, exposees, "day-" + etagPrefix(format, window),
+					Collections.emptyMap());
+		}
+		sample.stop(meterRegistry.timer("dp3t.batch.render", "format", dayEtagPrefix(format)));
+		meterRegistry.summary("dp3t.batch.rows", "format", dayEtagPrefix(format)).record(response.getKeyCount());
+		return response;
+	}
+
+	/**
+	 * @return the ETag of the day as {@link #renderDay} would create it, from the
+	 *         max id of the day
+	 */
+	public String getDayEtag(LocalDate day, BatchFormat format) {
+		int maxId = dataService.getMaxExposedIdForDay(day.atStartOfDay().atOffset(ZoneOffset.UTC));
+		return etagGenerator.getEtag(maxId, dayEtagPrefix(format));
+	}
+
+	private static String etagPrefix(BatchFormat format, KeyDateWindow window) {
+		return window == null ? format.getEtagPrefix() : format.getEtagPrefix() + "-" + window;
+	}
+
+	private static String dayEtagPrefix(BatchFormat format) {
+		return "day-" + format.getEtagPrefix();
+	}
+
+	/**
+	 * Serializes and signs the given exposees.
+	 *
+	 * @param extraHeaders headers to send and sign along with the release time
+	 */
+	SignedBatchResponse render(long batchReleaseTime, BatchFormat format, ExposeeColumns exposees,
+			String etagPrefix, Map<String, String> extraHeaders) {
+		BatchWriter writer = BatchWriter.forFormat(format, batchReleaseTime, objectMapper);
+		writer.writeAll(exposees);
+		return sign(batchReleaseTime, format, writer, etagPrefix, extraHeaders);
+	}
+
+	/**
+	 * Signs a written batch with the hash computed during writing.
+	 *
+	 * @param extraHeaders headers to send and sign along with the release time
+	 */
+	private SignedBatchResponse sign(long batchReleaseTime, BatchFormat format, BatchWriter writer,
+			String etagPrefix, Map<String, String> extraHeaders) {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put(HEADER_BATCH_RELEASE_TIME, Long.toString(batchReleaseTime));
+		headers.putAll(extraHeaders);
+		byte[] body = writer.toByteArray();
+		headers.putAll(signer.sign(writer.getContentHash(), headers::get));
+		return new SignedBatchResponse(batchReleaseTime, format, ByteBuffer.wrap(body), writer.getMaxId(),
+				writer.getCount(), etagGenerator.getEtag(writer.getMaxId(), etagPrefix), headers);
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import org.dpppt.backend.sdk.data.ExposeeInsertListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps the signed responses of sealed batches in memory. A batch is sealed
+ * once its release time (plus a grace period for late commits) has passed, from
+ * then on its content only changes when the retention cleanup removes it. With
+ * an {@link BatchArtifactStore} the bodies are kept in mapped files instead of
+ * on the heap.
+ * <p>
+ * An insert into a cached batch means a commit took longer than the grace
+ * period, the batch is then dropped and rendered again on the next request.
+ */
+public class BatchResponseCache implements ExposeeInsertListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchResponseCache.class);
+
+	private final ConcurrentSkipListMap<BatchKey, SignedBatchResponse> responses = new ConcurrentSkipListMap<>();
+	private final SingleFlight<BatchKey, SignedBatchResponse> renders;
+	private final BatchRenderer renderer;
+	private final BatchEtagIndex etagIndex;
+	private final BatchArtifactStore artifactStore;
+	private final List<Consumer<SignedBatchResponse>> sealedListeners = new CopyOnWriteArrayList<>();
+	private final List<LongConsumer> invalidationListeners = new CopyOnWriteArrayList<>();
+	private final long sealGrace;
+	private final long retentionPeriod;
+	private final Counter hitCounter;
+
+	/**
+	 * @param artifactStore where sealed responses are kept, null to keep them on
+	 *                      the heap
+	 */
+	public BatchResponseCache(BatchRenderer renderer, BatchEtagIndex etagIndex, BatchArtifactStore artifactStore,
+			long sealGrace, int retentionDays, MeterRegistry meterRegistry) {
+		this.renderer = renderer;
+		this.etagIndex = etagIndex;
+		this.artifactStore = artifactStore;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.hitCounter = requestCounter(meterRegistry, "hit");
+		this.renders = new SingleFlight<>(requestCounter(meterRegistry, "leader"),
+				requestCounter(meterRegistry, "wait"));
+	}
+
+	private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("dp3t.batch.requests").description("Batch lookups by cache result")
+				.tag("result", result).register(meterRegistry);
+	}
+
+	/**
+	 * Registers a listener which is called with every response added to the
+	 * cache, including the ones restored from the artifact store.
+	 */
+	public void addSealedListener(Consumer<SignedBatchResponse> listener) {
+		sealedListeners.add(listener);
+	}
+
+	/**
+	 * Registers a listener which is called with the release time of every batch
+	 * dropped because of a late insert.
+	 */
+	public void addInvalidationListener(LongConsumer listener) {
+		invalidationListeners.add(listener);
+	}
+
+	@Override
+	public void exposeeInserted(int id, long receivedAt) {
+		long batchReleaseTime = receivedAt - receivedAt % renderer.getBatchLength() + renderer.getBatchLength();
+		Map<BatchKey, SignedBatchResponse> variants = responses.subMap(new BatchKey(batchReleaseTime, ""),
+				new BatchKey(batchReleaseTime + 1, ""));
+		// a smaller id than the rendered max id may commit later, so ids do not tell
+		// whether the insert is part of the cached responses
+		if (variants.isEmpty()) {
+			return;
+		}
+		logger.warn("Late insert into sealed batch " + batchReleaseTime + ", consider a longer seal grace");
+		variants.clear();
+		if (artifactStore != null) {
+			artifactStore.evict(batchReleaseTime);
+		}
+		invalidationListeners.forEach(listener -> listener.accept(batchReleaseTime));
+	}
+
+	/**
+	 * Fills the cache with the responses found in the artifact store. A batch is
+	 * dropped from the store if one of its responses is signed with another key,
+	 * e.g. after a key rotation, or has another max id than the etag index, which
+	 * was seeded from the database and knows about the inserts committed while
+	 * this node was down.
+	 */
+	public void restore() {
+		if (artifactStore == null) {
+			return;
+		}
+		List<SignedBatchResponse> stored = artifactStore.load();
+		Set<Long> stale = new HashSet<>();
+		for (SignedBatchResponse response : stored) {
+			Integer maxId = etagIndex.getMaxId(response.getBatchReleaseTime());
+			if (!renderer.isSignedWithCurrentKey(response) || maxId == null || maxId != response.getMaxId()) {
+				stale.add(response.getBatchReleaseTime());
+			}
+		}
+		stale.forEach(artifactStore::evict);
+		for (SignedBatchResponse response : stored) {
+			if (isCacheable(response.getBatchReleaseTime()) && !stale.contains(response.getBatchReleaseTime())) {
+				responses.put(new BatchKey(response.getBatchReleaseTime(), response.getVariant()), response);
+				etagIndex.putHead(response);
+				sealedListeners.forEach(listener -> listener.accept(response));
+			}
+		}
+		logger.info("Restored " + responses.size() + " batch responses from disk, dropped " + stale.size()
+				+ " stale batches");
+	}
+
+	public SignedBatchResponse getIfPresent(long batchReleaseTime, BatchFormat format) {
+		return getIfPresent(batchReleaseTime, format, ContentEncoding.IDENTITY);
+	}
+
+	public SignedBatchResponse getIfPresent(long batchReleaseTime, BatchFormat format, ContentEncoding encoding) {
+		return responses.get(new BatchKey(batchReleaseTime, SignedBatchResponse.variant(format, encoding)));
+	}
+
+	/**
+	 * Returns the ETag of the batch without rendering it: from the cached
+	 * response, from the index or from the max id of the batch, in this order.
+	 */
+	public String getEtag(long batchReleaseTime, BatchFormat format, ContentEncoding encoding) {
+		SignedBatchResponse cached = getIfPresent(batchReleaseTime, format, encoding);
+		if (cached != null) {
+			return cached.getEtag();
+		}
+		String etag = etagIndex.getEtag(batchReleaseTime, format);
+		return encoding.etag(etag != null ? etag : renderer.getEtag(batchReleaseTime, format));
+	}
+
+	/**
+	 * @return the encodings the format is offered with, in order of preference
+	 */
+	public List<ContentEncoding> getEncodings(BatchFormat format) {
+		return renderer.getEncodings(format);
+	}
+
+	public SignedBatchResponse getOrRender(long batchReleaseTime, BatchFormat format) {
+		return getOrRender(batchReleaseTime, format, ContentEncoding.IDENTITY);
+	}
+
+	/**
+	 * Returns the cached response or renders the batch. Concurrent misses for the
+	 * same batch share a single render. The rendered response is only kept if the
+	 * batch is sealed and still within the retention period. Encoded variants are
+	 * created from the identity response.
+	 */
+	public SignedBatchResponse getOrRender(long batchReleaseTime, BatchFormat format, ContentEncoding encoding) {
+		BatchKey key = new BatchKey(batchReleaseTime, SignedBatchResponse.variant(format, encoding));
+		SignedBatchResponse cached = responses.get(key);
+		if (cached != null) {
+			hitCounter.increment();
+			return cached;
+		}
+		return renders.execute(key, () -> {
+			// a leader which finished just before we registered may have filled the cache
+			SignedBatchResponse current = responses.get(key);
+			if (current != null) {
+				return current;
+			}
+			SignedBatchResponse rendered = encoding == ContentEncoding.IDENTITY
+					? renderer.render(batchReleaseTime, format)
+					: renderer.encode(getOrRender(batchReleaseTime, format), encoding);
+			if (isCacheable(batchReleaseTime)) {
+				etagIndex.update(batchReleaseTime, rendered.getMaxId());
+				rendered = store(rendered);
+				responses.put(key, rendered);
+				etagIndex.putHead(rendered);
+				for (Consumer<SignedBatchResponse> listener : sealedListeners) {
+					listener.accept(rendered);
+				}
+			}
+			return rendered;
+		});
+	}
+
+	private SignedBatchResponse store(SignedBatchResponse rendered) {
+		if (artifactStore == null) {
+			return rendered;
+		}
+		try {
+			return artifactStore.store(rendered);
+		} catch (IOException e) {
+			logger.error("Could not store batch " + rendered.getBatchReleaseTime() + ", keeping it on the heap", e);
+			return rendered;
+		}
+	}
+
+	public boolean isCacheable(long batchReleaseTime) {
+		long now = System.currentTimeMillis();
+		return batchReleaseTime + sealGrace <= now && batchReleaseTime >= now - retentionPeriod;
+	}
+
+	/**
+	 * Removes all responses of batches released before the given time.
+	 */
+	public void evictBefore(long batchReleaseTime) {
+		responses.headMap(new BatchKey(batchReleaseTime, "")).clear();
+		if (artifactStore != null) {
+			artifactStore.evictBefore(batchReleaseTime);
+		}
+	}
+
+	/**
+	 * Removes the batches which left the retention period. This lists the
+	 * artifact store, so it runs on a schedule and not when a batch is rendered.
+	 */
+	public void evictExpired() {
+		evictBefore(System.currentTimeMillis() - retentionPeriod);
+	}
+
+	public int size() {
+		return responses.size();
+	}
+
+	private static class BatchKey implements Comparable<BatchKey> {
+		private final long batchReleaseTime;
+		private final String variant;
+
+		BatchKey(long batchReleaseTime, String variant) {
+			this.batchReleaseTime = batchReleaseTime;
+			this.variant = variant;
+		}
+
+		@Override
+		public int compareTo(BatchKey other) {
+			int result = Long.compare(batchReleaseTime, other.batchReleaseTime);
+			return result != 0 ? result : variant.compareTo(other.variant);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BatchKey)) {
+				return false;
+			}
+			BatchKey other = (BatchKey) obj;
+			return batchReleaseTime == other.batchReleaseTime && variant.equals(other.variant);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(batchReleaseTime) * 31 + variant.hashCode();
+		}
+	}
+}
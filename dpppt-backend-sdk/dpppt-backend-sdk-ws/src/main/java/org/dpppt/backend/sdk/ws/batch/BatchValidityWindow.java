@@ -0,0 +1,125 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Decides which batch release times can be requested, without any date
+ * arithmetic per request. The latest released and the oldest retained batch
+ * only change at known instants, so they are kept in a snapshot which is
+ * replaced once one of these instants has passed. The snapshot also holds the
+ * signature of an empty body, so rejections are answered with a pre-signed
+ * response.
+ */
+public class BatchValidityWindow {
+
+	public enum Rejection {
+		MISALIGNED, FUTURE, EXPIRED;
+	}
+
+	private final long batchLength;
+	private final long retentionPeriod;
+	private final ResponseSigner signer;
+	private final Map<Rejection, Counter> rejections = new EnumMap<>(Rejection.class);
+	private volatile Snapshot snapshot;
+
+	public BatchValidityWindow(long batchLength, int retentionDays, ResponseSigner signer,
+			MeterRegistry meterRegistry) {
+		this.batchLength = batchLength;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.signer = signer;
+		for (Rejection rejection : Rejection.values()) {
+			rejections.put(rejection, Counter.builder("dp3t.batch.rejected").description("Rejected batch requests")
+					.tag("reason", rejection.name().toLowerCase()).register(meterRegistry));
+		}
+		this.snapshot = new Snapshot(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param checkRetention whether batches older than the retention period are
+	 *                       rejected
+	 * @return why the batch can not be requested or null if it can
+	 */
+	public Rejection check(long batchReleaseTime, boolean checkRetention) {
+		if (batchReleaseTime % batchLength != 0) {
+			return Rejection.MISALIGNED;
+		}
+		Snapshot current = current();
+		if (batchReleaseTime > current.latestBatch) {
+			return Rejection.FUTURE;
+		}
+		if (checkRetention && batchReleaseTime < current.oldestBatch) {
+			return Rejection.EXPIRED;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the release time of the latest released batch
+	 */
+	public long getLatestBatch() {
+		return current().latestBatch;
+	}
+
+	/**
+	 * @return the release time of the oldest batch within the retention period
+	 */
+	public long getOldestBatch() {
+		return current().oldestBatch;
+	}
+
+	/**
+	 * @return an empty, signed response with the given status
+	 */
+	public ResponseEntity<ByteBuffer> reject(Rejection rejection, HttpStatus status) {
+		rejections.get(rejection).increment();
+		BodyBuilder response = ResponseEntity.status(status);
+		current().emptyBodySignature.forEach((name, value) -> response.header(name, value));
+		return response.build();
+	}
+
+	private Snapshot current() {
+		Snapshot current = snapshot;
+		long now = System.currentTimeMillis();
+		if (now >= current.validUntil) {
+			current = new Snapshot(now);
+			snapshot = current;
+		}
+		return current;
+	}
+
+	private class Snapshot {
+		private final long latestBatch;
+		private final long oldestBatch;
+		private final long validUntil;
+		private final Map<String, String> emptyBodySignature;
+
+		Snapshot(long now) {
+			latestBatch = now - now % batchLength;
+			// the oldest aligned batch with batchReleaseTime >= now - retentionPeriod
+			long retainedFrom = now - retentionPeriod;
+			long oldest = retainedFrom - Math.floorMod(retainedFrom, batchLength);
+			oldestBatch = oldest < retainedFrom ? oldest + batchLength : oldest;
+			// the next batch is released, or the oldest one leaves the retention period
+			validUntil = Math.min(latestBatch + batchLength, oldestBatch + retentionPeriod + 1);
+			emptyBodySignature = Collections.unmodifiableMap(signer.sign(new byte[0], Collections.emptyMap()));
+		}
+	}
+}
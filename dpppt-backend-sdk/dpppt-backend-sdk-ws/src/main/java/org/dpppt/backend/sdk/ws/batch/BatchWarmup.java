@@ -0,0 +1,124 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+/**
+ * Renders all batches of the retention period on startup, so the first wave
+ * of clients after a deploy does not hit the database with every batch at
+ * once. The batches are rendered on a fork-join pool of bounded parallelism,
+ * which should stay below the size of the connection pool.
+ * <p>
+ * Until the warm-up is done the node reports itself as out of service, so a
+ * load balancer checking the health endpoint waits for it.
+ */
+public class BatchWarmup implements HealthIndicator {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchWarmup.class);
+
+	private final BatchResponseCache batchCache;
+	private final long batchLength;
+	private final long retentionPeriod;
+	private final int parallelism;
+	private final AtomicInteger rendered = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private volatile int total;
+	private volatile long started;
+	private volatile long finished;
+
+	/**
+	 * @param parallelism the number of batches rendered concurrently, 0 disables
+	 *                    the warm-up
+	 */
+	public BatchWarmup(BatchResponseCache batchCache, long batchLength, int retentionDays, int parallelism) {
+		this.batchCache = batchCache;
+		this.batchLength = batchLength;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Starts the warm-up in the background.
+	 */
+	public void start() {
+		if (parallelism <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<Long> batches = new ArrayList<>();
+		long batchReleaseTime = now - now % batchLength;
+		while (batchReleaseTime >= now - retentionPeriod) {
+			if (batchCache.isCacheable(batchReleaseTime)) {
+				batches.add(batchReleaseTime);
+			}
+			batchReleaseTime -= batchLength;
+		}
+		total = batches.size();
+		started = now;
+		Thread thread = new Thread(() -> warmup(batches), "batch-warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void warmup(List<Long> batches) {
+		logger.info("Warming up " + batches.size() + " batches with parallelism " + parallelism);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(() -> batches.parallelStream().forEach(this::render)).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.error("Warm-up failed", e);
+		} finally {
+			pool.shutdown();
+			finished = System.currentTimeMillis();
+		}
+		logger.info("Warmed up " + rendered.get() + " batches in " + (finished - started) + "ms, " + failed.get()
+				+ " failed");
+	}
+
+	private void render(long batchReleaseTime) {
+		try {
+			for (BatchFormat format : BatchFormat.values()) {
+				for (ContentEncoding encoding : batchCache.getEncodings(format)) {
+					batchCache.getOrRender(batchReleaseTime, format, encoding);
+				}
+			}
+			rendered.incrementAndGet();
+		} catch (RuntimeException e) {
+			// the batch is rendered on request instead
+			logger.warn("Warm-up of batch " + batchReleaseTime + " failed", e);
+			failed.incrementAndGet();
+		}
+	}
+
+	public boolean isDone() {
+		return started == 0 || finished != 0;
+	}
+
+	@Override
+	public Health health() {
+		if (parallelism <= 0) {
+			return Health.up().withDetail("warmup", "disabled").build();
+		}
+		Health.Builder health = isDone() ? Health.up() : Health.outOfService();
+		long end = finished != 0 ? finished : System.currentTimeMillis();
+		return health.withDetail("batches", total).withDetail("rendered", rendered.get())
+				.withDetail("failed", failed.get()).withDetail("durationMs", end - started).build();
+	}
+}
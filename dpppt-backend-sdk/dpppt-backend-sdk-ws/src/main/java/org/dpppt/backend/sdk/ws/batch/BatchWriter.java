@@ -0,0 +1,140 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.data.ExposeeRowCallback;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serializes a batch row by row as the rows are read from the database. The
+ * sha-256 hash of the body is computed while it is written, so the body does
+ * not have to be hashed again for the signature. A writer is used for one
+ * batch only and is not thread safe.
+ */
+public abstract class BatchWriter implements ExposeeRowCallback {
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final MessageDigest digest = ResponseSigner.newDigest();
+	private final OutputStream output = new DigestOutputStream(buffer, digest);
+	private int maxId;
+	private int count;
+	private byte[] body;
+	private byte[] contentHash;
+
+	BatchWriter() {
+	}
+
+	static BatchWriter forFormat(BatchFormat format, long batchReleaseTime, ObjectMapper objectMapper) {
+		switch (format) {
+		case PROTO:
+			return new ProtoBatchWriter(batchReleaseTime);
+		case JSON:
+			return new JsonBatchWriter(objectMapper.getFactory(), batchReleaseTime);
+		case PROTO_V2:
+			return new ProtoV2BatchWriter(batchReleaseTime);
+		default:
+			throw new IllegalArgumentException("Unknown batch format " + format);
+		}
+	}
+
+	/**
+	 * @return the stream the serialized batch is written to
+	 */
+	OutputStream output() {
+		return output;
+	}
+
+	@Override
+	public final void processRow(int id, byte[] key, long keyDate) {
+		checkIncomplete();
+		try {
+			write(key, 0, key.length, keyDate);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		rowWritten(id);
+	}
+
+	/**
+	 * Writes all rows of the columns.
+	 */
+	public final void writeAll(ExposeeColumns columns) {
+		checkIncomplete();
+		try {
+			for (int row = 0; row < columns.size(); row++) {
+				write(columns.getKeys(), columns.getKeyOffset(row), columns.getKeyLength(row),
+						columns.getKeyDate(row));
+				rowWritten(columns.getId(row));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param keys the array holding the key
+	 */
+	abstract void write(byte[] keys, int keyOffset, int keyLength, long keyDate) throws IOException;
+
+	/**
+	 * Writes what is left after the last row and flushes the output.
+	 */
+	abstract void finish() throws IOException;
+
+	private void checkIncomplete() {
+		if (body != null) {
+			throw new IllegalStateException("Batch is already complete");
+		}
+	}
+
+	private void rowWritten(int id) {
+		maxId = Math.max(maxId, id);
+		count++;
+	}
+
+	public int getMaxId() {
+		return maxId;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Completes the batch, no more rows can be written afterwards.
+	 */
+	public byte[] toByteArray() {
+		if (body == null) {
+			try {
+				finish();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			body = buffer.toByteArray();
+			contentHash = digest.digest();
+		}
+		return body;
+	}
+
+	/**
+	 * @return the sha-256 hash of {@link #toByteArray()}
+	 */
+	public byte[] getContentHash() {
+		toByteArray();
+		return contentHash;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content codings a response body can be sent with. Signatures are always
+ * created over the identity body, so they stay valid after the client decoded
+ * the response.
+ */
+public enum ContentEncoding {
+	IDENTITY("identity"), GZIP("gzip"), DEFLATE("deflate");
+
+	private final String name;
+
+	private ContentEncoding(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name as used in the Accept-Encoding and Content-Encoding headers
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * An encoded body is a different representation and needs its own etag.
+	 */
+	public String etag(String identityEtag) {
+		return this == IDENTITY ? identityEtag : identityEtag + "-" + name;
+	}
+
+	public byte[] encode(ByteBuffer body) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.remaining() / 2);
+		try (OutputStream out = this == GZIP ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+			Channels.newChannel(out).write(body.duplicate());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	public static ContentEncoding forName(String name) {
+		for (ContentEncoding encoding : values()) {
+			if (encoding.name.equalsIgnoreCase(name.trim())) {
+				return encoding;
+			}
+		}
+		throw new IllegalArgumentException("Unknown content encoding " + name);
+	}
+
+	/**
+	 * Picks the first of the available encodings the client accepts.
+	 *
+	 * @param acceptEncoding the Accept-Encoding header, may be null
+	 * @param available      the encodings to choose from, in order of preference
+	 * @return the chosen encoding, {@link #IDENTITY} if none of them is accepted
+	 */
+	public static ContentEncoding negotiate(String acceptEncoding, Collection<ContentEncoding> available) {
+		if (acceptEncoding == null) {
+			return IDENTITY;
+		}
+		for (ContentEncoding encoding : available) {
+			if (encoding != IDENTITY && isAccepted(acceptEncoding, encoding.name)) {
+				return encoding;
+			}
+		}
+		return IDENTITY;
+	}
+
+	private static boolean isAccepted(String acceptEncoding, String name) {
+		Double wildcardQuality = null;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String token = parts[0].trim().toLowerCase(Locale.ROOT);
+			double quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if (token.equals(name)) {
+				return quality > 0;
+			}
+			if (token.equals("*")) {
+				wildcardQuality = quality;
+			}
+		}
+		return wildcardQuality != null && wildcardQuality > 0;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.dpppt.backend.sdk.data.ExposeeInsertListener;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps the signed responses of whole UTC days. Once a day is over (plus the
+ * seal grace) its response is kept until the day leaves the retention period
+ * or a late insert into the day drops it. The response of the current day is kept as well, but only reused as long as
+ * the max id of the day has not changed.
+ * <p>
+ * Entries are keyed by <code>{yyyy-MM-dd}/{variant}</code>, which sorts by day.
+ */
+public class DayBundleCache implements ExposeeInsertListener {
+
+	private final ConcurrentSkipListMap<String, SignedBatchResponse> sealed = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<String, SignedBatchResponse> open = new ConcurrentSkipListMap<>();
+	private final SingleFlight<String, SignedBatchResponse> renders;
+	private final BatchRenderer renderer;
+	private final long sealGrace;
+	private final long retentionPeriod;
+
+	public DayBundleCache(BatchRenderer renderer, long sealGrace, int retentionDays, MeterRegistry meterRegistry) {
+		this.renderer = renderer;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.renders = new SingleFlight<>(requestCounter(meterRegistry, "leader"),
+				requestCounter(meterRegistry, "wait"));
+	}
+
+	private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("dp3t.day.requests").description("Day bundle lookups by cache result")
+				.tag("result", result).register(meterRegistry);
+	}
+
+	public List<ContentEncoding> getEncodings(BatchFormat format) {
+		return renderer.getEncodings(format);
+	}
+
+	/**
+	 * Returns the ETag of the identity response, which for a sealed day is taken
+	 * from the cache and otherwise from the max id of the day.
+	 */
+	public String getEtag(LocalDate day, BatchFormat format) {
+		if (isSealed(day)) {
+			return getOrRender(day, format, ContentEncoding.IDENTITY, null).getEtag();
+		}
+		return renderer.getDayEtag(day, format);
+	}
+
+	/**
+	 * @param etag the ETag of the identity response as returned by
+	 *             {@link #getEtag}, a cached response of the current day is only
+	 *             returned if it matches
+	 */
+	public SignedBatchResponse getOrRender(LocalDate day, BatchFormat format, ContentEncoding encoding,
+			String etag) {
+		String key = day + "/" + SignedBatchResponse.variant(format, encoding);
+		boolean isSealed = isSealed(day);
+		SignedBatchResponse cached = isSealed ? sealed.get(key) : open.get(key);
+		if (cached != null && (isSealed || cached.getEtag().equals(encoding.etag(etag)))) {
+			return cached;
+		}
+		return renders.execute(key, () -> {
+			SignedBatchResponse rendered = encoding == ContentEncoding.IDENTITY ? renderer.renderDay(day, format)
+					: renderer.encode(getOrRender(day, format, ContentEncoding.IDENTITY, etag), encoding);
+			if (isSealed) {
+				if (isWithinRetention(day)) {
+					sealed.put(key, rendered);
+					evictExpired();
+				}
+			} else {
+				open.put(key, rendered);
+			}
+			return rendered;
+		});
+	}
+
+	/**
+	 * Drops the responses of a sealed day receiving a late insert. The responses
+	 * of the current day are checked against its max id anyway.
+	 */
+	@Override
+	public void exposeeInserted(int id, long receivedAt) {
+		LocalDate day = dayOf(receivedAt);
+		sealed.subMap(day.toString(), day.plusDays(1).toString()).clear();
+	}
+
+	/**
+	 * Removes the days which left the retention period, and the responses of the
+	 * former current day, which may miss the last inserts.
+	 */
+	public void evictExpired() {
+		long now = System.currentTimeMillis();
+		sealed.headMap(dayOf(now - retentionPeriod).toString()).clear();
+		open.headMap(dayOf(now - sealGrace).toString()).clear();
+	}
+
+	private boolean isSealed(LocalDate day) {
+		return endOf(day) + sealGrace <= System.currentTimeMillis();
+	}
+
+	private boolean isWithinRetention(LocalDate day) {
+		return endOf(day) >= System.currentTimeMillis() - retentionPeriod;
+	}
+
+	private static long endOf(LocalDate day) {
+		return day.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	private static LocalDate dayOf(long time) {
+		return Instant.ofEpochMilli(time).atOffset(ZoneOffset.UTC).toLocalDate();
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The signed {@link GolombCodedSet} of all keys received on a UTC day.
+ */
+public class DayKeyFilter {
+
+	/**
+	 * The number of keys in the set, which the hashes are reduced with.
+	 */
+	public static final String HEADER_KEY_COUNT = "X-GCS-COUNT";
+
+	/**
+	 * The number of remainder bits per key.
+	 */
+	public static final String HEADER_BITS = "X-GCS-BITS";
+
+	private final LocalDate day;
+	private final long receivedBefore;
+	private final ByteBuffer body;
+	private final int maxId;
+	private final String etag;
+	private final Map<String, String> headers;
+
+	/**
+	 * @param receivedBefore the keys received on the day before this time are in
+	 *                       the set
+	 */
+	public DayKeyFilter(LocalDate day, long receivedBefore, ByteBuffer body, int maxId, String etag,
+			Map<String, String> headers) {
+		this.day = day;
+		this.receivedBefore = receivedBefore;
+		this.body = body.asReadOnlyBuffer();
+		this.maxId = maxId;
+		this.etag = etag;
+		this.headers = Collections.unmodifiableMap(headers);
+	}
+
+	public LocalDate getDay() {
+		return day;
+	}
+
+	public long getReceivedBefore() {
+		return receivedBefore;
+	}
+
+	/**
+	 * @return a new read only view of the body, positioned at its start
+	 */
+	public ByteBuffer getBody() {
+		return body.duplicate();
+	}
+
+	public int getMaxId() {
+		return maxId;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the X-BATCH-RELEASE-TIME, X-GCS-COUNT, X-GCS-BITS and signature
+	 *         headers
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGeneratorInterface;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.data.ExposeeInsertListener;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Builds and keeps the {@link DayKeyFilter} of every day within the retention
+ * period. A filter only covers the keys of sealed batches, so it never reveals
+ * more than the batches do. The filter of the current day is rebuilt once the
+ * next batch is sealed, a filter missing a late insert is dropped and built
+ * again.
+ * <p>
+ * The filters are built by {@link #refresh()} after every batch, a request
+ * only builds one if the job has not yet.
+ */
+public class DayKeyFilterCache implements ExposeeInsertListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(DayKeyFilterCache.class);
+
+	private final ConcurrentSkipListMap<LocalDate, DayKeyFilter> filters = new ConcurrentSkipListMap<>();
+	private final SingleFlight<LocalDate, DayKeyFilter> builds;
+	private final DPPPTDataService dataService;
+	private final EtagGeneratorInterface etagGenerator;
+	private final ResponseSigner signer;
+	private final int bits;
+	private final long batchLength;
+	private final long sealGrace;
+	private final long retentionPeriod;
+
+	/**
+	 * @param falsePositiveRate the rate at which a key not received on a day is
+	 *                          reported as probably received
+	 */
+	public DayKeyFilterCache(DPPPTDataService dataService, EtagGeneratorInterface etagGenerator,
+			ResponseSigner signer, double falsePositiveRate, long batchLength, long sealGrace, int retentionDays,
+			MeterRegistry meterRegistry) {
+		this.dataService = dataService;
+		this.etagGenerator = etagGenerator;
+		this.signer = signer;
+		this.bits = GolombCodedSet.bitsFor(falsePositiveRate);
+		this.batchLength = batchLength;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.builds = new SingleFlight<>(requestCounter(meterRegistry, "leader"),
+				requestCounter(meterRegistry, "wait"));
+	}
+
+	private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("dp3t.filter.requests").description("Day key filter lookups by cache result")
+				.tag("result", result).register(meterRegistry);
+	}
+
+	public DayKeyFilter get(LocalDate day) {
+		long receivedBefore = receivedBefore(day, System.currentTimeMillis());
+		DayKeyFilter filter = filters.get(day);
+		if (filter != null && filter.getReceivedBefore() == receivedBefore) {
+			return filter;
+		}
+		return builds.execute(day, () -> {
+			DayKeyFilter built = build(day, receivedBefore);
+			if (endOf(day) >= System.currentTimeMillis() - retentionPeriod) {
+				filters.merge(day, built,
+						(old, current) -> old.getReceivedBefore() > current.getReceivedBefore() ? old : current);
+			}
+			return built;
+		});
+	}
+
+	/**
+	 * Builds the filters which are missing or outdated, e.g. those of the current
+	 * day after a batch was sealed.
+	 */
+	public void refresh() {
+		long now = System.currentTimeMillis();
+		LocalDate today = dayOf(now);
+		for (LocalDate day = dayOf(now - retentionPeriod); !day.isAfter(today); day = day.plusDays(1)) {
+			try {
+				get(day);
+			} catch (RuntimeException e) {
+				logger.error("Building key filter of " + day + " failed", e);
+			}
+		}
+		evictExpired();
+	}
+
+	/**
+	 * Drops the filter of the day receiving the insert if the filter should
+	 * cover it. Inserts into the open batch find nothing to drop.
+	 */
+	@Override
+	public void exposeeInserted(int id, long receivedAt) {
+		filters.computeIfPresent(dayOf(receivedAt),
+				(day, filter) -> receivedAt < filter.getReceivedBefore() ? null : filter);
+	}
+
+	public void evictExpired() {
+		filters.headMap(dayOf(System.currentTimeMillis() - retentionPeriod)).clear();
+	}
+
+	private DayKeyFilter build(LocalDate day, long receivedBefore) {
+		long start = System.currentTimeMillis();
+		long dayStart = day.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		ExposeeColumns exposees = receivedBefore > dayStart
+				? dataService.getExposedColumnsUpToIdReceivedBetween(Integer.MAX_VALUE, dayStart, receivedBefore)
+				: ExposeeColumns.empty();
+		int maxId = exposees.getMaxId();
+		byte[] body = GolombCodedSet.build(exposees, bits);
+
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put(BatchRenderer.HEADER_BATCH_RELEASE_TIME, Long.toString(receivedBefore));
+		headers.put(DayKeyFilter.HEADER_KEY_COUNT, Integer.toString(exposees.size()));
+		headers.put(DayKeyFilter.HEADER_BITS, Integer.toString(bits));
+		headers.putAll(signer.sign(body, headers));
+		logger.info("Built key filter of " + day + " with " + exposees.size() + " keys in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		return new DayKeyFilter(day, receivedBefore, ByteBuffer.wrap(body), maxId,
+				etagGenerator.getEtag(maxId, "gcs" + bits + "-" + receivedBefore), headers);
+	}
+
+	/**
+	 * @return the end of the day or the release time of the latest sealed batch,
+	 *         whichever is earlier
+	 */
+	private long receivedBefore(LocalDate day, long now) {
+		long latestBatch = now - now % batchLength;
+		long latestSealedBatch = latestBatch + sealGrace <= now ? latestBatch : latestBatch - batchLength;
+		return Math.min(endOf(day), latestSealedBatch);
+	}
+
+	private static long endOf(LocalDate day) {
+		return day.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	private static LocalDate dayOf(long time) {
+		return Instant.ofEpochMilli(time).atOffset(ZoneOffset.UTC).toLocalDate();
+	}
+}
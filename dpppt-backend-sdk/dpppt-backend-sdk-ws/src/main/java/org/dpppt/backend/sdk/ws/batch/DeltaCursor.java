@@ -0,0 +1,108 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * The position of a client in the delta sync. The client has seen every
+ * exposee received before {@link #getReceivedBefore()} with an id up to
+ * {@link #getLastId()}, except while the exposees of a newly sealed range are
+ * sent: of those received from {@link #getBackfillFrom()} on, only the ones up
+ * to {@link #getBackfillAfterId()} have been seen. Clients treat the cursor as
+ * an opaque string.
+ */
+public class DeltaCursor {
+
+	private static final byte VERSION = 1;
+	private static final int LENGTH = 1 + Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+
+	/**
+	 * The cursor of a client which has not seen anything yet.
+	 */
+	public static final DeltaCursor START = new DeltaCursor(0, 0);
+
+	private final int lastId;
+	private final long receivedBefore;
+	private final long backfillFrom;
+	private final int backfillAfterId;
+
+	public DeltaCursor(int lastId, long receivedBefore) {
+		this(lastId, receivedBefore, 0, 0);
+	}
+
+	public DeltaCursor(int lastId, long receivedBefore, long backfillFrom, int backfillAfterId) {
+		this.lastId = lastId;
+		this.receivedBefore = receivedBefore;
+		this.backfillFrom = backfillFrom;
+		this.backfillAfterId = backfillAfterId;
+	}
+
+	public int getLastId() {
+		return lastId;
+	}
+
+	public long getReceivedBefore() {
+		return receivedBefore;
+	}
+
+	/**
+	 * @return the start of the range which is still being sent, or 0 if there is
+	 *         none
+	 */
+	public long getBackfillFrom() {
+		return backfillFrom;
+	}
+
+	public int getBackfillAfterId() {
+		return backfillAfterId;
+	}
+
+	public boolean isBackfilling() {
+		return backfillFrom > 0;
+	}
+
+	public String encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+		buffer.put(VERSION).putInt(lastId).putLong(receivedBefore).putLong(backfillFrom).putInt(backfillAfterId);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the cursor is malformed
+	 */
+	public static DeltaCursor decode(String cursor) {
+		byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+		if (bytes.length != LENGTH || bytes[0] != VERSION) {
+			throw new IllegalArgumentException("Unknown cursor " + cursor);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, LENGTH - 1);
+		return new DeltaCursor(buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.getInt());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof DeltaCursor)) {
+			return false;
+		}
+		DeltaCursor other = (DeltaCursor) obj;
+		return lastId == other.lastId && receivedBefore == other.receivedBefore
+				&& backfillFrom == other.backfillFrom && backfillAfterId == other.backfillAfterId;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((lastId * 31 + Long.hashCode(receivedBefore)) * 31 + Long.hashCode(backfillFrom)) * 31
+				+ backfillAfterId;
+	}
+
+	@Override
+	public String toString() {
+		return "DeltaCursor[" + lastId + ", " + receivedBefore + ", " + backfillFrom + ", " + backfillAfterId + "]";
+	}
+}
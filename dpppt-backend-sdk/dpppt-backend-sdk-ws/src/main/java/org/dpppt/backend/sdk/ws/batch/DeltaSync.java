@@ -0,0 +1,100 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+
+/**
+ * Hands out the exposees a client has not seen yet, page by page. Pages are
+ * read with a keyset query on the primary key. Only exposees of sealed batches
+ * are handed out, so the delta never reveals more than the batches do.
+ * <p>
+ * Ids are not strictly ordered by received_at, an exposee may commit after one
+ * with a larger id. When the sealed range grows, the exposees of the new range
+ * with an id up to the last seen one are sent first, paged the same way, and
+ * the cursor keeps the position within them until they are all sent.
+ */
+public class DeltaSync {
+
+	public static final String HEADER_NEXT_CURSOR = "X-NEXT-CURSOR";
+	public static final String HEADER_HAS_MORE = "X-HAS-MORE";
+
+	private final DPPPTDataService dataService;
+	private final BatchRenderer renderer;
+	private final long batchLength;
+	private final long sealGrace;
+	private final long retentionPeriod;
+	private final int pageSize;
+
+	public DeltaSync(DPPPTDataService dataService, BatchRenderer renderer, long batchLength, long sealGrace,
+			int retentionDays, int pageSize) {
+		this.dataService = dataService;
+		this.renderer = renderer;
+		this.batchLength = batchLength;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Returns the next page after the cursor as a signed protobuf list. The
+	 * headers contain the cursor of the next page and whether the client is up
+	 * to date. A cursor older than the retention period starts over, everything
+	 * it has seen is deleted by now.
+	 */
+	public SignedBatchResponse nextPage(DeltaCursor cursor) {
+		long now = System.currentTimeMillis();
+		if (cursor.getReceivedBefore() < now - retentionPeriod) {
+			cursor = DeltaCursor.START;
+		}
+		long receivedBefore = cursor.getReceivedBefore();
+		long backfillFrom = cursor.getBackfillFrom();
+		int backfillAfterId = cursor.getBackfillAfterId();
+		if (!cursor.isBackfilling()) {
+			// the sealed range only grows once the previous growth is sent
+			receivedBefore = Math.max(latestSealedBatch(now), cursor.getReceivedBefore());
+			if (cursor.getReceivedBefore() > 0 && receivedBefore > cursor.getReceivedBefore()) {
+				backfillFrom = cursor.getReceivedBefore();
+			}
+		}
+
+		ExposeeColumns exposees = ExposeeColumns.empty();
+		if (backfillFrom > 0) {
+			exposees = dataService.getExposedColumnsUpToIdReceivedBetween(backfillAfterId, cursor.getLastId(),
+					backfillFrom, receivedBefore, pageSize);
+			if (exposees.size() >= pageSize) {
+				DeltaCursor next = new DeltaCursor(cursor.getLastId(), receivedBefore, backfillFrom,
+						exposees.getId(exposees.size() - 1));
+				return render(receivedBefore, exposees, next, true);
+			}
+		}
+		int limit = pageSize - exposees.size();
+		ExposeeColumns page = dataService.getExposedColumnsAfterId(cursor.getLastId(), receivedBefore, limit);
+
+		int lastId = page.isEmpty() ? cursor.getLastId() : page.getId(page.size() - 1);
+		return render(receivedBefore, exposees.append(page), new DeltaCursor(lastId, receivedBefore),
+				page.size() >= limit);
+	}
+
+	private SignedBatchResponse render(long receivedBefore, ExposeeColumns exposees, DeltaCursor next,
+			boolean hasMore) {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put(HEADER_NEXT_CURSOR, next.encode());
+		headers.put(HEADER_HAS_MORE, Boolean.toString(hasMore));
+		return renderer.render(receivedBefore, BatchFormat.PROTO, exposees, "delta-", headers);
+	}
+
+	private long latestSealedBatch(long now) {
+		long latestBatch = now - now % batchLength;
+		return latestBatch + sealGrace <= now ? latestBatch : latestBatch - batchLength;
+	}
+}
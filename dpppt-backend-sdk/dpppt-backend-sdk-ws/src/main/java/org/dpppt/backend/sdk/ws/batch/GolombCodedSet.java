@@ -0,0 +1,176 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+
+/**
+ * A Golomb-coded set of keys, a compact filter which answers whether a key is
+ * probably in the set. A key not in the set is reported with a false positive
+ * rate of about 2^-bits.
+ * <p>
+ * Every key is hashed with SHA-256, the first eight bytes are read as an
+ * unsigned big-endian number and reduced modulo <code>n * 2^bits</code>, n
+ * being the number of keys. The sorted hashes are stored as the differences
+ * between consecutive values, each Rice-coded with the given number of bits:
+ * the quotient in unary (ones terminated by a zero), followed by the
+ * remainder, most significant bit first. The last byte is padded with zeros.
+ */
+public final class GolombCodedSet {
+
+	private GolombCodedSet() {
+	}
+
+	/**
+	 * @return the number of bits per key for the given false positive rate
+	 */
+	public static int bitsFor(double falsePositiveRate) {
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+		}
+		int bits = (int) Math.ceil(Math.log(1 / falsePositiveRate) / Math.log(2));
+		return Math.max(1, Math.min(32, bits));
+	}
+
+	public static byte[] build(Collection<byte[]> keys, int bits) {
+		long range = (long) keys.size() << bits;
+		MessageDigest digest = newDigest();
+		long[] values = new long[keys.size()];
+		int i = 0;
+		for (byte[] key : keys) {
+			values[i++] = hash(digest, key, 0, key.length, range);
+		}
+		return encode(values, bits);
+	}
+
+	/**
+	 * Builds the set of the keys of the exposees, without copying the keys.
+	 */
+	public static byte[] build(ExposeeColumns exposees, int bits) {
+		long range = (long) exposees.size() << bits;
+		MessageDigest digest = newDigest();
+		long[] values = new long[exposees.size()];
+		for (int row = 0; row < values.length; row++) {
+			values[row] = hash(digest, exposees.getKeys(), exposees.getKeyOffset(row), exposees.getKeyLength(row),
+					range);
+		}
+		return encode(values, bits);
+	}
+
+	private static byte[] encode(long[] values, int bits) {
+		Arrays.sort(values);
+
+		BitWriter writer = new BitWriter();
+		long last = 0;
+		for (long value : values) {
+			long delta = value - last;
+			last = value;
+			for (long quotient = delta >>> bits; quotient > 0; quotient--) {
+				writer.write(1);
+			}
+			writer.write(0);
+			for (int bit = bits - 1; bit >= 0; bit--) {
+				writer.write((int) (delta >>> bit) & 1);
+			}
+		}
+		return writer.toByteArray();
+	}
+
+	/**
+	 * @param count the number of keys the set was built from
+	 * @return whether the key is probably in the set
+	 */
+	public static boolean contains(byte[] set, int count, int bits, byte[] key) {
+		if (count == 0) {
+			return false;
+		}
+		long target = hash(key, (long) count << bits);
+		BitReader reader = new BitReader(set);
+		long value = 0;
+		for (int i = 0; i < count; i++) {
+			long quotient = 0;
+			while (reader.read() == 1) {
+				quotient++;
+			}
+			long remainder = 0;
+			for (int bit = 0; bit < bits; bit++) {
+				remainder = remainder << 1 | reader.read();
+			}
+			value += quotient << bits | remainder;
+			if (value >= target) {
+				return value == target;
+			}
+		}
+		return false;
+	}
+
+	static long hash(byte[] key, long range) {
+		return hash(newDigest(), key, 0, key.length, range);
+	}
+
+	private static long hash(MessageDigest digest, byte[] key, int offset, int length, long range) {
+		digest.update(key, offset, length);
+		return Long.remainderUnsigned(ByteBuffer.wrap(digest.digest()).getLong(), range);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class BitWriter {
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private int current;
+		private int count;
+
+		void write(int bit) {
+			current = current << 1 | bit;
+			if (++count == 8) {
+				output.write(current);
+				current = 0;
+				count = 0;
+			}
+		}
+
+		byte[] toByteArray() {
+			if (count > 0) {
+				output.write(current << (8 - count));
+				current = 0;
+				count = 0;
+			}
+			return output.toByteArray();
+		}
+	}
+
+	private static class BitReader {
+		private final byte[] input;
+		private int position;
+
+		BitReader(byte[] input) {
+			this.input = input;
+		}
+
+		int read() {
+			if (position >= input.length * 8) {
+				throw new IllegalArgumentException("Golomb-coded set is truncated");
+			}
+			int bit = (input[position / 8] >>> (7 - position % 8)) & 1;
+			position++;
+			return bit;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.dpppt.backend.sdk.model.ExposedOverview;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes an {@link ExposedOverview} row by row with a {@link JsonGenerator},
+ * without holding the exposees in memory. The output is the one of an object
+ * mapper serializing the overview: the release time comes first, then the
+ * exposees with their key and key date.
+ */
+public class JsonBatchWriter extends BatchWriter {
+
+	private final JsonGenerator generator;
+
+	/**
+	 * @param batchReleaseTime written as null if null
+	 */
+	public JsonBatchWriter(JsonFactory jsonFactory, Long batchReleaseTime) {
+		try {
+			generator = jsonFactory.createGenerator(output(), JsonEncoding.UTF8);
+			generator.writeStartObject();
+			if (batchReleaseTime == null) {
+				generator.writeNullField("batchReleaseTime");
+			} else {
+				generator.writeNumberField("batchReleaseTime", batchReleaseTime);
+			}
+			generator.writeArrayFieldStart("exposed");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	void write(byte[] keys, int keyOffset, int keyLength, long keyDate) throws IOException {
+		generator.writeStartObject();
+		// base64 with padding and without line feeds, as the keys are uploaded
+		generator.writeFieldName("key");
+		generator.writeBinary(keys, keyOffset, keyLength);
+		generator.writeNumberField("keyDate", keyDate);
+		generator.writeEndObject();
+	}
+
+	@Override
+	void finish() throws IOException {
+		generator.writeEndArray();
+		generator.writeEndObject();
+		generator.close();
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.time.Duration;
+
+/**
+ * A range of key dates a client is interested in. The bounds are widened to
+ * whole UTC days, so every window covering the same days is the same window,
+ * and is cached only once. A key date is not necessarily the start of a day, a
+ * widened window selects every key of the days it covers. For the same reason
+ * the bounds are clamped to the key dates which can still be stored, a bound
+ * beyond them selects as much as no bound.
+ */
+public class KeyDateWindow {
+
+	private static final long DAY = Duration.ofDays(1).toMillis();
+	// the validators accept key dates up to 21 days before the upload
+	private static final long MAX_KEY_AGE = Duration.ofDays(21).toMillis();
+
+	private final Long from;
+	private final Long to;
+
+	private KeyDateWindow(Long from, Long to) {
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * @param keyDateFrom   the earliest key date, inclusive, or null
+	 * @param keyDateTo     the latest key date, inclusive, or null
+	 * @param retentionDays how long exposees are kept after their upload
+	 * @return the window or null if it selects all stored key dates
+	 * @throws IllegalArgumentException if keyDateFrom is after keyDateTo
+	 */
+	public static KeyDateWindow of(Long keyDateFrom, Long keyDateTo, int retentionDays) {
+		if (keyDateFrom == null && keyDateTo == null) {
+			return null;
+		}
+		if (keyDateFrom != null && keyDateTo != null && keyDateFrom > keyDateTo) {
+			throw new IllegalArgumentException("keyDateFrom is after keyDateTo");
+		}
+		// the day of keyDateFrom, and the day after keyDateTo
+		Long from = keyDateFrom == null ? null : Math.floorDiv(keyDateFrom, DAY) * DAY;
+		Long to = keyDateTo == null ? null : Math.floorDiv(keyDateTo, DAY) * DAY + DAY;
+		long now = System.currentTimeMillis();
+		long oldest = Math.floorDiv(now - Duration.ofDays(retentionDays).toMillis() - MAX_KEY_AGE, DAY) * DAY;
+		long tomorrow = Math.floorDiv(now, DAY) * DAY + DAY;
+		from = from == null || from <= oldest ? null : Math.min(from, tomorrow);
+		to = to == null || to >= tomorrow ? null : Math.max(to, oldest);
+		if (from == null && to == null) {
+			return null;
+		}
+		return new KeyDateWindow(from, to);
+	}
+
+	/**
+	 * @return the earliest key date, inclusive, or null
+	 */
+	public Long getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return the end of the key dates, exclusive, or null
+	 */
+	public Long getTo() {
+		return to;
+	}
+
+	/**
+	 * Identifies the window in cache keys and ETags.
+	 */
+	@Override
+	public String toString() {
+		return "kd" + (from == null ? "" : from) + "-" + (to == null ? "" : to);
+	}
+}
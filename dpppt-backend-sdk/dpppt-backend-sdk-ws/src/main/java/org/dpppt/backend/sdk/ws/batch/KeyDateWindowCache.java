@@ -0,0 +1,139 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+import org.dpppt.backend.sdk.data.ExposeeInsertListener;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps the responses of batches and days filtered by a {@link KeyDateWindow}.
+ * As the unfiltered responses, they are only kept once sealed and until they
+ * leave the retention period, and a late insert drops the filtered responses
+ * of its batch and its day. Windows are whole days within the stored key
+ * dates, but any two of these days make a window, so beyond the maximum number
+ * of entries the responses of the oldest release times are dropped first.
+ * <p>
+ * Entries are kept per release time, the end of the day for days, and keyed
+ * by <code>{window}/{variant}</code>.
+ */
+public class KeyDateWindowCache implements ExposeeInsertListener {
+
+	private static final long DAY = Duration.ofDays(1).toMillis();
+
+	private final ConcurrentSkipListMap<Long, Map<String, SignedBatchResponse>> batches = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<Long, Map<String, SignedBatchResponse>> days = new ConcurrentSkipListMap<>();
+	private final SingleFlight<String, SignedBatchResponse> renders;
+	private final BatchRenderer renderer;
+	private final long sealGrace;
+	private final long retentionPeriod;
+	private final int maxEntries;
+	// guarded by this, as are all changes to batches and days
+	private int entries;
+
+	public KeyDateWindowCache(BatchRenderer renderer, long sealGrace, int retentionDays, int maxEntries,
+			MeterRegistry meterRegistry) {
+		this.renderer = renderer;
+		this.sealGrace = sealGrace;
+		this.retentionPeriod = Duration.ofDays(retentionDays).toMillis();
+		this.maxEntries = maxEntries;
+		this.renders = new SingleFlight<>(requestCounter(meterRegistry, "leader"),
+				requestCounter(meterRegistry, "wait"));
+	}
+
+	private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("dp3t.keydate.requests").description("Key date filtered lookups by cache result")
+				.tag("result", result).register(meterRegistry);
+	}
+
+	public SignedBatchResponse getOrRender(long batchReleaseTime, BatchFormat format, ContentEncoding encoding,
+			KeyDateWindow window) {
+		return getOrRender(batches, batchReleaseTime, format, encoding, window,
+				() -> renderer.render(batchReleaseTime, format, window));
+	}
+
+	public SignedBatchResponse getOrRenderDay(LocalDate day, BatchFormat format, ContentEncoding encoding,
+			KeyDateWindow window) {
+		long dayEnd = day.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		return getOrRender(days, dayEnd, format, encoding, window, () -> renderer.renderDay(day, format, window));
+	}
+
+	private SignedBatchResponse getOrRender(ConcurrentSkipListMap<Long, Map<String, SignedBatchResponse>> responses,
+			long releaseTime, BatchFormat format, ContentEncoding encoding, KeyDateWindow window,
+			Supplier<SignedBatchResponse> render) {
+		String key = window + "/" + SignedBatchResponse.variant(format, encoding);
+		Map<String, SignedBatchResponse> cached = responses.getOrDefault(releaseTime, Collections.emptyMap());
+		SignedBatchResponse hit = cached.get(key);
+		if (hit != null) {
+			return hit;
+		}
+		String flightKey = (responses == days ? "day/" : "batch/") + releaseTime + "/" + key;
+		return renders.execute(flightKey, () -> {
+			SignedBatchResponse rendered = encoding == ContentEncoding.IDENTITY ? render.get()
+					: renderer.encode(getOrRender(responses, releaseTime, format, ContentEncoding.IDENTITY, window,
+							render), encoding);
+			long now = System.currentTimeMillis();
+			if (releaseTime + sealGrace <= now && releaseTime >= now - retentionPeriod) {
+				put(responses, releaseTime, key, rendered);
+			}
+			return rendered;
+		});
+	}
+
+	private synchronized void put(ConcurrentSkipListMap<Long, Map<String, SignedBatchResponse>> responses,
+			long releaseTime, String key, SignedBatchResponse rendered) {
+		if (responses.computeIfAbsent(releaseTime, time -> new ConcurrentHashMap<>()).put(key, rendered) == null) {
+			entries++;
+		}
+		while (entries > maxEntries) {
+			Long oldestBatch = batches.isEmpty() ? null : batches.firstKey();
+			Long oldestDay = days.isEmpty() ? null : days.firstKey();
+			boolean dayFirst = oldestBatch == null || (oldestDay != null && oldestDay < oldestBatch);
+			entries -= (dayFirst ? days : batches).pollFirstEntry().getValue().size();
+		}
+	}
+
+	private synchronized void remove(Map<Long, Map<String, SignedBatchResponse>> responses) {
+		for (Map<String, SignedBatchResponse> removed : responses.values()) {
+			entries -= removed.size();
+		}
+		responses.clear();
+	}
+
+	/**
+	 * Drops the filtered responses of a sealed batch and day receiving a late
+	 * insert. Inserts into the open batch find nothing to drop.
+	 */
+	@Override
+	public void exposeeInserted(int id, long receivedAt) {
+		long batchLength = renderer.getBatchLength();
+		long batchReleaseTime = receivedAt - receivedAt % batchLength + batchLength;
+		long dayEnd = Math.floorDiv(receivedAt, DAY) * DAY + DAY;
+		remove(batches.subMap(batchReleaseTime, true, batchReleaseTime, true));
+		remove(days.subMap(dayEnd, true, dayEnd, true));
+	}
+
+	public void evictExpired() {
+		long retainedFrom = System.currentTimeMillis() - retentionPeriod;
+		remove(batches.headMap(retainedFrom));
+		remove(days.headMap(retainedFrom));
+	}
+
+	public synchronized int size() {
+		return entries;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.dpppt.backend.sdk.model.proto.Exposed;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Writes a {@link Exposed.ProtoExposedList} row by row, without building the
+ * message first. The output is byte for byte the one of the generated builder:
+ * the release time comes first, then every exposee as a length delimited
+ * message of its key and key date, fields with default values are left out.
+ */
+class ProtoBatchWriter extends BatchWriter {
+
+	private static final int KEY_TAG_SIZE = CodedOutputStream.computeTagSize(Exposed.ProtoExposee.KEY_FIELD_NUMBER);
+
+	private final CodedOutputStream output = CodedOutputStream.newInstance(output());
+
+	ProtoBatchWriter(long batchReleaseTime) {
+		try {
+			if (batchReleaseTime != 0) {
+				output.writeInt64(Exposed.ProtoExposedList.BATCHRELEASETIME_FIELD_NUMBER, batchReleaseTime);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	void write(byte[] keys, int keyOffset, int keyLength, long keyDate) throws IOException {
+		int size = 0;
+		if (keyLength > 0) {
+			size += KEY_TAG_SIZE + CodedOutputStream.computeUInt32SizeNoTag(keyLength) + keyLength;
+		}
+		if (keyDate != 0) {
+			size += CodedOutputStream.computeInt64Size(Exposed.ProtoExposee.KEYDATE_FIELD_NUMBER, keyDate);
+		}
+		output.writeTag(Exposed.ProtoExposedList.EXPOSED_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		output.writeUInt32NoTag(size);
+		if (keyLength > 0) {
+			output.writeTag(Exposed.ProtoExposee.KEY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			output.writeUInt32NoTag(keyLength);
+			output.writeRawBytes(keys, keyOffset, keyLength);
+		}
+		if (keyDate != 0) {
+			output.writeInt64(Exposed.ProtoExposee.KEYDATE_FIELD_NUMBER, keyDate);
+		}
+	}
+
+	@Override
+	void finish() throws IOException {
+		output.flush();
+	}
+}
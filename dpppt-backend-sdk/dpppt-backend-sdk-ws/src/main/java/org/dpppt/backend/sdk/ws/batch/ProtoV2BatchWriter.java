@@ -0,0 +1,106 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Writes a <code>ProtoExposedListV2</code> of <code>exposed_v2.proto</code>.
+ * Instead of a message per exposee, all keys are sent in one bytes field of
+ * fixed length records and the key dates as packed day offsets to the day of
+ * the batch, which mostly take a single byte. A key date within a day is
+ * rounded down to the start of the day.
+ * <p>
+ * Both fields are length delimited, so the keys and offsets are collected and
+ * written when the batch is complete. The first key sets the key length of the
+ * batch, keys of other lengths can not be written and are skipped.
+ */
+class ProtoV2BatchWriter extends BatchWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProtoV2BatchWriter.class);
+
+	static final int BATCH_RELEASE_TIME_FIELD_NUMBER = 1;
+	static final int KEY_LENGTH_FIELD_NUMBER = 2;
+	static final int KEYS_FIELD_NUMBER = 3;
+	static final int KEY_DATES_FIELD_NUMBER = 4;
+
+	private static final long DAY = Duration.ofDays(1).toMillis();
+
+	private final long batchReleaseTime;
+	private final long batchDay;
+	private byte[] keys = new byte[32 * 64];
+	private int[] keyDates = new int[64];
+	private int keyLength;
+	private int rows;
+	private int skipped;
+
+	ProtoV2BatchWriter(long batchReleaseTime) {
+		this.batchReleaseTime = batchReleaseTime;
+		this.batchDay = Math.floorDiv(batchReleaseTime, DAY);
+	}
+
+	@Override
+	void write(byte[] keys, int keyOffset, int keyLength, long keyDate) throws IOException {
+		if (rows == 0) {
+			this.keyLength = keyLength;
+		} else if (keyLength != this.keyLength) {
+			skipped++;
+			return;
+		}
+		if (rows == keyDates.length) {
+			keyDates = Arrays.copyOf(keyDates, rows * 2);
+		}
+		int keysEnd = rows * keyLength;
+		if (this.keys.length < keysEnd + keyLength) {
+			this.keys = Arrays.copyOf(this.keys, Math.max(this.keys.length * 2, keysEnd + keyLength));
+		}
+		System.arraycopy(keys, keyOffset, this.keys, keysEnd, keyLength);
+		keyDates[rows++] = Math.toIntExact(batchDay - Math.floorDiv(keyDate, DAY));
+	}
+
+	@Override
+	public int getCount() {
+		return super.getCount() - skipped;
+	}
+
+	@Override
+	void finish() throws IOException {
+		if (skipped > 0) {
+			logger.warn("Skipped " + skipped + " keys not of " + keyLength + " bytes in batch " + batchReleaseTime);
+		}
+		CodedOutputStream output = CodedOutputStream.newInstance(output());
+		if (batchReleaseTime != 0) {
+			output.writeInt64(BATCH_RELEASE_TIME_FIELD_NUMBER, batchReleaseTime);
+		}
+		if (rows > 0) {
+			if (keyLength > 0) {
+				output.writeUInt32(KEY_LENGTH_FIELD_NUMBER, keyLength);
+				output.writeTag(KEYS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+				output.writeUInt32NoTag(rows * keyLength);
+				output.writeRawBytes(keys, 0, rows * keyLength);
+			}
+			int size = 0;
+			for (int row = 0; row < rows; row++) {
+				size += CodedOutputStream.computeSInt32SizeNoTag(keyDates[row]);
+			}
+			output.writeTag(KEY_DATES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			output.writeUInt32NoTag(size);
+			for (int row = 0; row < rows; row++) {
+				output.writeSInt32NoTag(keyDates[row]);
+			}
+		}
+		output.flush();
+	}
+}
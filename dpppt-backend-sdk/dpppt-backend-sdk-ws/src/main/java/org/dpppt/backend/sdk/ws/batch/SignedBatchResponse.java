@@ -0,0 +1,115 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import org.dpppt.backend.sdk.model.BatchMetadata;
+
+/**
+ * A rendered and signed batch response. Instances are immutable, the body and
+ * the headers can be sent as they are. The body is either on the heap or a
+ * mapped file of the {@link BatchArtifactStore}.
+ */
+public class SignedBatchResponse {
+
+	private final long batchReleaseTime;
+	private final BatchFormat format;
+	private final ContentEncoding encoding;
+	private final ByteBuffer body;
+	private final int maxId;
+	private final int keyCount;
+	private final String etag;
+	private final Map<String, String> headers;
+
+	public SignedBatchResponse(long batchReleaseTime, BatchFormat format, ByteBuffer body, int maxId, int keyCount,
+			String etag, Map<String, String> headers) {
+		this(batchReleaseTime, format, ContentEncoding.IDENTITY, body, maxId, keyCount, etag, headers);
+	}
+
+	/**
+	 * @param body    the body encoded with the given encoding
+	 * @param headers the signature headers of the identity body
+	 */
+	public SignedBatchResponse(long batchReleaseTime, BatchFormat format, ContentEncoding encoding, ByteBuffer body,
+			int maxId, int keyCount, String etag, Map<String, String> headers) {
+		this.batchReleaseTime = batchReleaseTime;
+		this.format = format;
+		this.encoding = encoding;
+		this.body = body.asReadOnlyBuffer();
+		this.maxId = maxId;
+		this.keyCount = keyCount;
+		this.etag = etag;
+		this.headers = Collections.unmodifiableMap(headers);
+	}
+
+	public long getBatchReleaseTime() {
+		return batchReleaseTime;
+	}
+
+	public BatchFormat getFormat() {
+		return format;
+	}
+
+	public ContentEncoding getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Identifies the representation within its batch, e.g. "json" or "json-gzip".
+	 */
+	public String getVariant() {
+		return variant(format, encoding);
+	}
+
+	static String variant(BatchFormat format, ContentEncoding encoding) {
+		return encoding == ContentEncoding.IDENTITY ? format.getEtagPrefix()
+				: format.getEtagPrefix() + "-" + encoding.getName();
+	}
+
+	/**
+	 * @return a new read only view of the body, positioned at its start
+	 */
+	public ByteBuffer getBody() {
+		return body.duplicate();
+	}
+
+	public int getBodyLength() {
+		return body.remaining();
+	}
+
+	public int getMaxId() {
+		return maxId;
+	}
+
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the release time, ETag, key count, body size and URL of a batch
+	 */
+	public BatchMetadata toMetadata() {
+		BatchMetadata metadata = new BatchMetadata(batchReleaseTime, etag, keyCount);
+		metadata.setByteSize(getBodyLength());
+		metadata.setUrl("/" + format.getPath() + "/" + batchReleaseTime);
+		return metadata;
+	}
+
+	/**
+	 * @return the X-BATCH-RELEASE-TIME, Digest, X-Public-Key and Signature headers
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+}
@@ -13,22 +13,46 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.hubspot.jackson.datatype.protobuf.ProtobufModule;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.dpppt.backend.sdk.data.DPPPTDataService;
 import io.jsonwebtoken.SignatureAlgorithm;
 import org.dpppt.backend.sdk.data.EtagGenerator;
 import org.dpppt.backend.sdk.data.EtagGeneratorInterface;
+import org.dpppt.backend.sdk.data.ExposeeNotificationListener;
 import org.dpppt.backend.sdk.data.JDBCDPPPTDataServiceImpl;
+import org.dpppt.backend.sdk.ws.batch.BatchArtifactStore;
+import org.dpppt.backend.sdk.ws.batch.BatchBundler;
+import org.dpppt.backend.sdk.ws.batch.BatchEtagIndex;
+import org.dpppt.backend.sdk.ws.batch.BatchEventFeed;
+import org.dpppt.backend.sdk.ws.batch.BatchExporter;
+import org.dpppt.backend.sdk.ws.batch.BatchManifestCache;
+import org.dpppt.backend.sdk.ws.batch.BatchPaginator;
+import org.dpppt.backend.sdk.ws.batch.BatchPrerenderer;
+import org.dpppt.backend.sdk.ws.batch.BatchReleaseNotifier;
+import org.dpppt.backend.sdk.ws.batch.BatchRenderer;
+import org.dpppt.backend.sdk.ws.batch.BatchResponseCache;
+import org.dpppt.backend.sdk.ws.batch.BatchValidityWindow;
+import org.dpppt.backend.sdk.ws.batch.BatchWarmup;
+import org.dpppt.backend.sdk.ws.batch.ContentEncoding;
+import org.dpppt.backend.sdk.ws.batch.DayBundleCache;
+import org.dpppt.backend.sdk.ws.batch.DayKeyFilterCache;
+import org.dpppt.backend.sdk.ws.batch.DeltaSync;
+import org.dpppt.backend.sdk.ws.batch.KeyDateWindowCache;
 import org.dpppt.backend.sdk.ws.controller.DPPPTController;
+import org.dpppt.backend.sdk.ws.controller.DPPPTControllerV2;
 import org.dpppt.backend.sdk.ws.filter.ResponseWrapperFilter;
 import org.dpppt.backend.sdk.ws.security.NoValidateRequest;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest;
 import org.dpppt.backend.sdk.ws.security.NoValidateRequest;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.dpppt.backend.sdk.ws.util.ByteBufferHttpMessageConverter;
 import org.flywaydb.core.Flyway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.converter.HttpMessageConverter;
@@ -42,8 +66,11 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import java.util.List;
 
+import javax.servlet.DispatcherType;
 import javax.sql.DataSource;
+import java.nio.file.Paths;
 import java.security.KeyPair;
+import java.util.ArrayList;
 import java.util.List;
 
 @Configuration
@@ -73,12 +100,72 @@ public abstract class WSBaseConfig implements SchedulingConfigurer, WebMvcConfig
 	@Value("${ws.exposedlist.requestTime: 1500}")
 	long requestTime;
 
+	@Value("${ws.exposedlist.cache.sealgrace: 60000}")
+	long batchSealGrace;
+
+	@Value("${ws.exposedlist.prerender.lookback: 12}")
+	int prerenderLookbackBatches;
+
+	@Value("${ws.exposedlist.store.directory:}")
+	String batchStoreDirectory;
+
+	@Value("${ws.exposedlist.export.directory:}")
+	String batchExportDirectory;
+
+	@Value("${ws.exposedlist.encodings: gzip}")
+	List<String> jsonEncodings;
+
+	@Value("${ws.exposedlist.warmup.parallelism: 0}")
+	int warmupParallelism;
+
+	@Value("${ws.exposedlist.delta.pagesize: 5000}")
+	int deltaPageSize;
+
+	@Value("${ws.exposedlist.page.maxsize: 50000}")
+	int maxPageSize;
+
+	@Value("${ws.exposedlist.page.cachesize: 500}")
+	int pageCacheSize;
+
+	@Value("${ws.exposedlist.bundle.maxsize: 33554432}")
+	long maxBundleSize;
+
+	@Value("${ws.exposedlist.bundle.cachesize: 8}")
+	int bundleCacheSize;
+
+	@Value("${ws.exposedlist.keydate.cachesize: 1000}")
+	int keyDateCacheSize;
+
+	@Value("${ws.exposedlist.filter.falsepositiverate: 0.0001}")
+	double keyFilterFalsePositiveRate;
+
+	@Value("${ws.exposedlist.longpoll.timeout: 300000}")
+	long longPollTimeout;
+
+	@Value("${ws.exposedlist.feed.timeout: 3600000}")
+	long feedTimeout;
+
+	@Value("${ws.exposedlist.feed.buffer: 16}")
+	int feedBufferSize;
+
+	@Value("${ws.exposedlist.feed.threads: 2}")
+	int feedThreads;
+
+	@Value("${ws.exposedlist.feed.heartbeat: 30000}")
+	long feedHeartbeat;
+
+	@Value("${ws.exposedlist.feed.writetimeout: 10000}")
+	long feedWriteTimeout;
+
 	@Value("${ws.app.source}")
 	String appSource;
 
 	@Autowired(required = false)
 	ValidateRequest requestValidator;
 
+	@Autowired
+	MeterRegistry meterRegistry;
+
 	final SignatureAlgorithm algorithm = SignatureAlgorithm.ES256;
 
 	@Bean
@@ -88,7 +175,15 @@ public abstract class WSBaseConfig implements SchedulingConfigurer, WebMvcConfig
 			theValidator = new NoValidateRequest();
 		}
 		return new DPPPTController(dppptSDKDataService(), etagGenerator(), appSource, exposedListCacheControl,
-				theValidator, batchLength, retentionDays, requestTime);
+				theValidator, batchLength, retentionDays, requestTime, batchResponseCache(),
+				batchEtagIndex(), responseSigner(), batchValidityWindow(), batchBundler(), dayBundleCache(),
+				deltaSync(), batchReleaseNotifier(), longPollTimeout, batchEventFeed(),
+				batchPaginator(), dayKeyFilterCache(), batchManifestCache(), keyDateWindowCache());
+	}
+
+	@Bean
+	public DPPPTControllerV2 dppptSDKControllerV2() {
+		return new DPPPTControllerV2(dppptSDKController());
 	}
 	
 
@@ -108,6 +203,7 @@ public abstract class WSBaseConfig implements SchedulingConfigurer, WebMvcConfig
 	@Override
 	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
 		converters.add(new ProtobufHttpMessageConverter());
+		converters.add(new ByteBufferHttpMessageConverter());
 		WebMvcConfigurer.super.extendMessageConverters(converters);
 	}
 
@@ -116,9 +212,180 @@ public abstract class WSBaseConfig implements SchedulingConfigurer, WebMvcConfig
 		return new EtagGenerator();
 	}
 
+	@Bean
+	public ResponseSigner responseSigner() {
+		return new ResponseSigner(getKeyPair(algorithm), retentionDays, protectedHeaders);
+	}
+
 	@Bean
 	public ResponseWrapperFilter hashFilter() {
-		return new ResponseWrapperFilter(getKeyPair(algorithm), retentionDays, protectedHeaders);
+		return new ResponseWrapperFilter(responseSigner());
+	}
+
+	@Bean
+	public BatchRenderer batchRenderer() {
+		List<ContentEncoding> encodings = new ArrayList<>();
+		for (String encoding : jsonEncodings) {
+			if (!encoding.trim().isEmpty()) {
+				encodings.add(ContentEncoding.forName(encoding));
+			}
+		}
+		return new BatchRenderer(dppptSDKDataService(), etagGenerator(), responseSigner(),
+				converter().getObjectMapper(), batchLength, encodings, meterRegistry);
+	}
+
+	@Bean
+	public BatchValidityWindow batchValidityWindow() {
+		return new BatchValidityWindow(batchLength, retentionDays, responseSigner(), meterRegistry);
+	}
+
+	@Bean
+	public BatchEtagIndex batchEtagIndex() {
+		BatchEtagIndex etagIndex = new BatchEtagIndex(etagGenerator(), batchLength, batchSealGrace, retentionDays);
+		dppptSDKDataService().addInsertListener(etagIndex);
+		// seeding reads t_exposed, so the migrations need to have run
+		flyway();
+		etagIndex.seed(dppptSDKDataService());
+		return etagIndex;
+	}
+
+	@Bean
+	public BatchResponseCache batchResponseCache() {
+		BatchArtifactStore artifactStore = null;
+		if (!batchStoreDirectory.isEmpty()) {
+			artifactStore = new BatchArtifactStore(Paths.get(batchStoreDirectory), retentionDays);
+		}
+		BatchResponseCache batchResponseCache = new BatchResponseCache(batchRenderer(), batchEtagIndex(),
+				artifactStore, batchSealGrace, retentionDays, meterRegistry);
+		if (batchExporter() != null) {
+			batchResponseCache.addSealedListener(batchExporter()::export);
+		}
+		dppptSDKDataService().addInsertListener(batchResponseCache);
+		batchResponseCache.restore();
+		return batchResponseCache;
+	}
+
+	/**
+	 * @return the listener for inserts of other instances or null if the database
+	 *         does not support notifications
+	 */
+	@Bean(destroyMethod = "close")
+	public ExposeeNotificationListener exposeeNotificationListener() {
+		DPPPTDataService dataService = dppptSDKDataService();
+		if (!"pgsql".equals(getDbType()) || !(dataService instanceof JDBCDPPPTDataServiceImpl)) {
+			return null;
+		}
+		JDBCDPPPTDataServiceImpl jdbcDataService = (JDBCDPPPTDataServiceImpl) dataService;
+		// inserts missed while not listening invalidate the cached batches as if notified
+		ExposeeNotificationListener listener = jdbcDataService.createNotificationListener(
+				() -> batchEtagIndex().seed(dataService).forEach((batchReleaseTime, maxId) -> jdbcDataService
+						.fireInserted(maxId, batchReleaseTime - 1)));
+		// the insert listeners are registered by these
+		batchEtagIndex();
+		batchResponseCache();
+		listener.start();
+		return listener;
+	}
+
+	/**
+	 * @return the exporter or null if no export directory is configured
+	 */
+	@Bean
+	public BatchExporter batchExporter() {
+		if (batchExportDirectory.isEmpty()) {
+			return null;
+		}
+		BatchExporter batchExporter = new BatchExporter(Paths.get(batchExportDirectory), batchLength, retentionDays,
+				exposedListCacheControl);
+		batchExporter.init(responseSigner(), batchEtagIndex());
+		dppptSDKDataService().addInsertListener(batchExporter);
+		return batchExporter;
+	}
+
+	@Bean
+	public BatchBundler batchBundler() {
+		return new BatchBundler(batchResponseCache(), batchEtagIndex(), responseSigner(), batchLength,
+				maxBundleSize, bundleCacheSize, meterRegistry);
+	}
+
+	@Bean
+	public DayBundleCache dayBundleCache() {
+		DayBundleCache dayBundleCache = new DayBundleCache(batchRenderer(), batchSealGrace, retentionDays,
+				meterRegistry);
+		dppptSDKDataService().addInsertListener(dayBundleCache);
+		return dayBundleCache;
+	}
+
+	@Bean
+	public DeltaSync deltaSync() {
+		return new DeltaSync(dppptSDKDataService(), batchRenderer(), batchLength, batchSealGrace, retentionDays,
+				deltaPageSize);
+	}
+
+	@Bean
+	public BatchPaginator batchPaginator() {
+		BatchPaginator batchPaginator = new BatchPaginator(dppptSDKDataService(), batchRenderer(), maxPageSize,
+				batchSealGrace, retentionDays, pageCacheSize, meterRegistry);
+		dppptSDKDataService().addInsertListener(batchPaginator);
+		return batchPaginator;
+	}
+
+	@Bean
+	public KeyDateWindowCache keyDateWindowCache() {
+		KeyDateWindowCache keyDateWindowCache = new KeyDateWindowCache(batchRenderer(), batchSealGrace,
+				retentionDays, keyDateCacheSize, meterRegistry);
+		dppptSDKDataService().addInsertListener(keyDateWindowCache);
+		return keyDateWindowCache;
+	}
+
+	@Bean
+	public BatchManifestCache batchManifestCache() {
+		return new BatchManifestCache(batchResponseCache(), responseSigner(), converter().getObjectMapper(),
+				batchLength, batchSealGrace, retentionDays);
+	}
+
+	@Bean
+	public DayKeyFilterCache dayKeyFilterCache() {
+		DayKeyFilterCache dayKeyFilterCache = new DayKeyFilterCache(dppptSDKDataService(), etagGenerator(),
+				responseSigner(), keyFilterFalsePositiveRate, batchLength, batchSealGrace, retentionDays,
+				meterRegistry);
+		dppptSDKDataService().addInsertListener(dayKeyFilterCache);
+		return dayKeyFilterCache;
+	}
+
+	@Bean(destroyMethod = "close")
+	public BatchReleaseNotifier batchReleaseNotifier() {
+		BatchReleaseNotifier batchReleaseNotifier = new BatchReleaseNotifier(batchResponseCache(), batchLength,
+				batchSealGrace);
+		batchReleaseNotifier.start();
+		return batchReleaseNotifier;
+	}
+
+	@Bean(destroyMethod = "close")
+	public BatchEventFeed batchEventFeed() {
+		return new BatchEventFeed(converter().getObjectMapper(), batchReleaseNotifier(), feedTimeout, feedBufferSize,
+				feedThreads, feedHeartbeat, feedWriteTimeout);
+	}
+
+	@Bean
+	public FilterRegistrationBean<ResponseWrapperFilter> hashFilterRegistration() {
+		FilterRegistrationBean<ResponseWrapperFilter> registration = new FilterRegistrationBean<>(hashFilter());
+		// long polls write their response in the async dispatch
+		registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+		return registration;
+	}
+
+	@Bean
+	public BatchWarmup batchWarmup() {
+		BatchWarmup batchWarmup = new BatchWarmup(batchResponseCache(), batchLength, retentionDays,
+				warmupParallelism);
+		batchWarmup.start();
+		return batchWarmup;
+	}
+
+	@Bean
+	public BatchPrerenderer batchPrerenderer() {
+		return new BatchPrerenderer(batchResponseCache(), batchLength, batchSealGrace, prerenderLookbackBatches);
 	}
 
 	public KeyPair getKeyPair(SignatureAlgorithm algorithm) {
@@ -134,4 +401,31 @@ public abstract class WSBaseConfig implements SchedulingConfigurer, WebMvcConfig
 			logger.info("DB cleanup up");
 		}, 60 * 60 * 1000L));
 	}
+
+	/**
+	 * Schedules the batch and cache tasks apart from {@link #configureTasks},
+	 * which the profiles override to leave the database cleanup to another job.
+	 */
+	@Bean
+	public SchedulingConfigurer batchTasks() {
+		return taskRegistrar -> {
+			taskRegistrar.addFixedRateTask(new IntervalTask(() -> {
+				batchPrerenderer().prerender();
+			}, batchLength, batchPrerenderer().getInitialDelay()));
+			taskRegistrar.addFixedRateTask(new IntervalTask(() -> {
+				dayKeyFilterCache().refresh();
+			}, batchLength, batchPrerenderer().getInitialDelay()));
+			taskRegistrar.addFixedRateTask(new IntervalTask(() -> {
+				batchResponseCache().evictExpired();
+				batchEtagIndex().evictExpired();
+				dayBundleCache().evictExpired();
+				dayKeyFilterCache().evictExpired();
+				keyDateWindowCache().evictExpired();
+				batchPaginator().evictExpired();
+				if (batchExporter() != null) {
+					batchExporter().evictExpired();
+				}
+			}, 60 * 60 * 1000L));
+		};
+	}
 }
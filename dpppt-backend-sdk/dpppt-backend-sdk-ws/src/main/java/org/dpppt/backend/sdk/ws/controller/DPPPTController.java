@@ -6,33 +6,59 @@
 
 package org.dpppt.backend.sdk.ws.controller;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import javax.validation.Valid;
 
 import org.apache.commons.codec.binary.Hex;
+import org.dpppt.backend.sdk.data.Base64Keys;
 import org.dpppt.backend.sdk.data.DPPPTDataService;
 import org.dpppt.backend.sdk.data.EtagGeneratorInterface;
+import org.dpppt.backend.sdk.model.BatchMetadata;
 import org.dpppt.backend.sdk.model.BucketList;
-import org.dpppt.backend.sdk.model.ExposedOverview;
-import org.dpppt.backend.sdk.model.Exposee;
 import org.dpppt.backend.sdk.model.ExposeeRequest;
-import org.dpppt.backend.sdk.model.proto.Exposed;
+import org.dpppt.backend.sdk.ws.batch.BatchBundler;
+import org.dpppt.backend.sdk.ws.batch.BatchEtagIndex;
+import org.dpppt.backend.sdk.ws.batch.BatchHead;
+import org.dpppt.backend.sdk.ws.batch.BatchEventFeed;
+import org.dpppt.backend.sdk.ws.batch.BatchFormat;
+import org.dpppt.backend.sdk.ws.batch.BatchManifestCache;
+import org.dpppt.backend.sdk.ws.batch.BatchPaginator;
+import org.dpppt.backend.sdk.ws.batch.BatchReleaseNotifier;
+import org.dpppt.backend.sdk.ws.batch.BatchResponseCache;
+import org.dpppt.backend.sdk.ws.batch.BatchValidityWindow;
+import org.dpppt.backend.sdk.ws.batch.BatchValidityWindow.Rejection;
+import org.dpppt.backend.sdk.ws.batch.ContentEncoding;
+import org.dpppt.backend.sdk.ws.batch.DayBundleCache;
+import org.dpppt.backend.sdk.ws.batch.DayKeyFilter;
+import org.dpppt.backend.sdk.ws.batch.DayKeyFilterCache;
+import org.dpppt.backend.sdk.ws.batch.DeltaCursor;
+import org.dpppt.backend.sdk.ws.batch.DeltaSync;
+import org.dpppt.backend.sdk.ws.batch.JsonBatchWriter;
+import org.dpppt.backend.sdk.ws.batch.KeyDateWindow;
+import org.dpppt.backend.sdk.ws.batch.KeyDateWindowCache;
+import org.dpppt.backend.sdk.ws.batch.SignedBatchResponse;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest;
 import org.dpppt.backend.sdk.ws.security.ValidateRequest.InvalidDateException;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -43,13 +69,15 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.protobuf.ByteString;
 
 @Controller
 @RequestMapping("/v1")
@@ -61,6 +89,20 @@ public class DPPPTController {
 	private final int exposedListCacheContol;
 	private final ValidateRequest validateRequest;
 	private final int retentionDays;
+	private final BatchResponseCache batchCache;
+	private final BatchEtagIndex etagIndex;
+	private final ResponseSigner responseSigner;
+	private final BatchValidityWindow validityWindow;
+	private final BatchBundler batchBundler;
+	private final DayBundleCache dayCache;
+	private final DeltaSync deltaSync;
+	private final BatchReleaseNotifier releaseNotifier;
+	private final long longPollTimeout;
+	private final BatchEventFeed batchEventFeed;
+	private final BatchPaginator batchPaginator;
+	private final DayKeyFilterCache keyFilterCache;
+	private final BatchManifestCache manifestCache;
+	private final KeyDateWindowCache windowCache;
 
 	private final long batchLength;
 
@@ -70,7 +112,12 @@ public class DPPPTController {
 
 
 	public DPPPTController(DPPPTDataService dataService, EtagGeneratorInterface etagGenerator, String appSource,
-			int exposedListCacheControl, ValidateRequest validateRequest, long batchLength, int retentionDays, long requestTime) {
+			int exposedListCacheControl, ValidateRequest validateRequest, long batchLength, int retentionDays, long requestTime,
+			BatchResponseCache batchCache, BatchEtagIndex etagIndex, ResponseSigner responseSigner,
+			BatchValidityWindow validityWindow, BatchBundler batchBundler, DayBundleCache dayCache,
+			DeltaSync deltaSync, BatchReleaseNotifier releaseNotifier, long longPollTimeout,
+			BatchEventFeed batchEventFeed, BatchPaginator batchPaginator, DayKeyFilterCache keyFilterCache,
+			BatchManifestCache manifestCache, KeyDateWindowCache windowCache) {
 		this.dataService = dataService;
 		this.appSource = appSource;
 		this.etagGenerator = etagGenerator;
@@ -79,6 +126,20 @@ public class DPPPTController {
 		this.batchLength = batchLength;
 		this.retentionDays = retentionDays;
 		this.requestTime = requestTime;
+		this.batchCache = batchCache;
+		this.etagIndex = etagIndex;
+		this.responseSigner = responseSigner;
+		this.validityWindow = validityWindow;
+		this.batchBundler = batchBundler;
+		this.dayCache = dayCache;
+		this.deltaSync = deltaSync;
+		this.releaseNotifier = releaseNotifier;
+		this.longPollTimeout = longPollTimeout;
+		this.batchEventFeed = batchEventFeed;
+		this.batchPaginator = batchPaginator;
+		this.keyFilterCache = keyFilterCache;
+		this.manifestCache = manifestCache;
+		this.windowCache = windowCache;
 	}
 
 	@CrossOrigin(origins = { "https://editor.swagger.io" })
@@ -93,20 +154,21 @@ public class DPPPTController {
 			@RequestHeader(value = "User-Agent", required = true) String userAgent,
 			@AuthenticationPrincipal Object principal) throws InvalidDateException {
 		long now = System.currentTimeMillis();
-		if (!isValidBase64(exposeeRequest.getKey())) {
+		byte[] key;
+		try {
+			// decoded once, the key is stored as bytes
+			key = Base64Keys.decode(exposeeRequest.getKey());
+		} catch (IllegalArgumentException e) {
 			return new ResponseEntity<>("No valid base64 key", HttpStatus.BAD_REQUEST);
 		}
 		// TODO: should we give that information?
 		if (!this.validateRequest.isValid(principal)) {
 			return new ResponseEntity<>("Invalid authentication", HttpStatus.BAD_REQUEST);
 		}
-		Exposee exposee = new Exposee();
-		exposee.setKey(exposeeRequest.getKey());
 		long keyDate = this.validateRequest.getKeyDate(principal, exposeeRequest);
 
-		exposee.setKeyDate(keyDate);
 		if(!this.validateRequest.isFakeRequest(principal, exposeeRequest)) {
-			dataService.upsertExposee(exposee, appSource);
+			dataService.upsertExposee(key, keyDate, appSource);
 		} 
 		
 		long after = System.currentTimeMillis();
@@ -122,74 +184,379 @@ public class DPPPTController {
 
 	@CrossOrigin(origins = { "https://editor.swagger.io" })
 	@GetMapping(value = "/hashtest/{dayDateStr}")
-	public @ResponseBody ResponseEntity<ExposedOverview> getExposed(@PathVariable String dayDateStr)
-			throws NoSuchAlgorithmException, JsonProcessingException {
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposed(@PathVariable String dayDateStr, WebRequest request) {
 		OffsetDateTime dayDate = LocalDate.parse(dayDateStr).atStartOfDay().atOffset(ZoneOffset.UTC);
-		MessageDigest digest = MessageDigest.getInstance("SHA-256");
-		List<Exposee> exposeeList = dataService.getSortedExposedForDay(dayDate);
-
-		ExposedOverview overview = new ExposedOverview(exposeeList);
-		byte[] hash = digest.digest(jacksonObjectMapper.writeValueAsString(overview).getBytes());
+		// the json is written once while the rows are read, hashing it on the way
+		JsonBatchWriter writer = new JsonBatchWriter(jacksonObjectMapper.getFactory(), null);
+		dataService.streamSortedExposedForDay(dayDate, writer);
+		byte[] json = writer.toByteArray();
+		byte[] hash = writer.getContentHash();
 
-		return ResponseEntity.ok().header("JSON-Sha256-Hash", Hex.encodeHexString(hash)).body(overview);
+		BodyBuilder response = ResponseEntity.ok().header("JSON-Sha256-Hash", Hex.encodeHexString(hash))
+				.contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		// sign with the known hash, the signature filter would hash the body again
+		// or sign the compressed body
+		responseSigner.sign(hash, header -> null).forEach((name, value) -> response.header(name, value));
+		ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+				batchCache.getEncodings(BatchFormat.JSON));
+		if (encoding == ContentEncoding.IDENTITY) {
+			return response.body(ByteBuffer.wrap(json));
+		}
+		return response.header(HttpHeaders.CONTENT_ENCODING, encoding.getName())
+				.body(ByteBuffer.wrap(encoding.encode(ByteBuffer.wrap(json))));
 	}
 
 	@CrossOrigin(origins = { "https://editor.swagger.io" })
 	@GetMapping(value = "/exposedjson/{batchReleaseTime}", produces = "application/json")
-	public @ResponseBody ResponseEntity<ExposedOverview> getExposedByDayDate(@PathVariable Long batchReleaseTime,
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedByDayDate(@PathVariable Long batchReleaseTime,
+			@RequestParam(required = false) Integer pageSize, @RequestParam(required = false) Integer before,
+			@RequestParam(required = false) Long keyDateFrom,
+			@RequestParam(required = false) Long keyDateTo, WebRequest request) {
+		Rejection rejection = validityWindow.check(batchReleaseTime, false);
+		if (rejection != null) {
+			return validityWindow.reject(rejection, HttpStatus.BAD_REQUEST);
+		}
+		return getBatch(batchReleaseTime, BatchFormat.JSON, pageSize, before, keyDateWindow(keyDateFrom, keyDateTo),
+				request);
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/{batchReleaseTime}", produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedByBatch(@PathVariable Long batchReleaseTime,
+			@RequestParam(required = false) Integer pageSize, @RequestParam(required = false) Integer before,
+			@RequestParam(required = false) Long keyDateFrom,
+			@RequestParam(required = false) Long keyDateTo, WebRequest request) {
+		return getProtoBatch(batchReleaseTime, BatchFormat.PROTO, pageSize, before,
+				keyDateWindow(keyDateFrom, keyDateTo), request);
+	}
+
+	/**
+	 * Serves a batch in one of the protobuf formats, which are only served within
+	 * the retention period.
+	 */
+	ResponseEntity<ByteBuffer> getProtoBatch(long batchReleaseTime, BatchFormat format, Integer pageSize,
+			Integer before, KeyDateWindow window, WebRequest request) {
+		Rejection rejection = validityWindow.check(batchReleaseTime, true);
+		if (rejection != null) {
+			return validityWindow.reject(rejection,
+					rejection == Rejection.MISALIGNED ? HttpStatus.BAD_REQUEST : HttpStatus.NOT_FOUND);
+		}
+		return getBatch(batchReleaseTime, format, pageSize, before, window, request);
+	}
+
+	/**
+	 * @return the window clamped to the key dates within the retention period,
+	 *         or null if it selects all of them
+	 */
+	KeyDateWindow keyDateWindow(Long keyDateFrom, Long keyDateTo) {
+		return KeyDateWindow.of(keyDateFrom, keyDateTo, retentionDays);
+	}
+
+	/**
+	 * Lists every sealed batch within the retention period with its ETag, key
+	 * count and size, so clients can skip empty and unchanged batches without a
+	 * request per batch.
+	 */
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/manifest", produces = "application/json")
+	public @ResponseBody ResponseEntity<ByteBuffer> getManifest(WebRequest request) {
+		SignedBatchResponse manifest = manifestCache.get();
+		if (request.checkNotModified(manifest.getEtag())) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+		}
+		return signedResponse(manifest, Collections.singletonList(ContentEncoding.IDENTITY));
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@RequestMapping(value = "/exposedjson/{batchReleaseTime}", method = RequestMethod.HEAD, produces = "application/json")
+	public @ResponseBody ResponseEntity<ByteBuffer> headExposedByDayDate(@PathVariable Long batchReleaseTime,
+			WebRequest request) {
+		Rejection rejection = validityWindow.check(batchReleaseTime, false);
+		if (rejection != null) {
+			return validityWindow.reject(rejection, HttpStatus.BAD_REQUEST);
+		}
+		return headBatch(batchReleaseTime, BatchFormat.JSON, request);
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@RequestMapping(value = "/exposed/{batchReleaseTime}", method = RequestMethod.HEAD, produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> headExposedByBatch(@PathVariable Long batchReleaseTime,
 			WebRequest request) {
-		if (batchReleaseTime % batchLength != 0) {
-			return ResponseEntity.badRequest().build();
+		return headProtoBatch(batchReleaseTime, BatchFormat.PROTO, request);
+	}
+
+	ResponseEntity<ByteBuffer> headProtoBatch(long batchReleaseTime, BatchFormat format, WebRequest request) {
+		Rejection rejection = validityWindow.check(batchReleaseTime, true);
+		if (rejection != null) {
+			return validityWindow.reject(rejection,
+					rejection == Rejection.MISALIGNED ? HttpStatus.BAD_REQUEST : HttpStatus.NOT_FOUND);
+		}
+		return headBatch(batchReleaseTime, format, request);
+	}
+
+	/**
+	 * Answers a conditional HEAD request from the ETag alone, which takes at most
+	 * a single max id query. Otherwise the batch is described completely, with
+	 * its length and signature headers, which the etag index keeps for every
+	 * variant rendered since the batch last changed. Only if the index does not
+	 * have them, e.g. for open batches or a variant nobody requested yet, the
+	 * batch is taken from the cache or rendered.
+	 */
+	private ResponseEntity<ByteBuffer> headBatch(long batchReleaseTime, BatchFormat format, WebRequest request) {
+		List<ContentEncoding> encodings = batchCache.getEncodings(format);
+		ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+				encodings);
+		if (request.checkNotModified(batchCache.getEtag(batchReleaseTime, format, encoding))) {
+			return notModified(encodings);
 		}
-		if (batchReleaseTime > System.currentTimeMillis()) {
-			return ResponseEntity.badRequest().build();
+		BatchHead head = etagIndex.getHead(batchReleaseTime, format, encoding);
+		if (head == null) {
+			head = new BatchHead(batchCache.getOrRender(batchReleaseTime, format, encoding));
 		}
+		return signedHeaders(head.getFormat(), head.getEncoding(), head.getHeaders(), encodings)
+				.contentLength(head.getBodyLength()).build();
+	}
 
-		int max = dataService.getMaxExposedIdForBatchReleaseTime(batchReleaseTime, batchLength);
-		String etag = etagGenerator.getEtag(max, "json");
-		if (request.checkNotModified(etag)) {
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/since/{batchReleaseTime}", produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedSince(@PathVariable Long batchReleaseTime,
+			WebRequest request) {
+		Rejection rejection = validityWindow.check(batchReleaseTime, false);
+		if (rejection != null) {
+			return validityWindow.reject(rejection,
+					rejection == Rejection.MISALIGNED ? HttpStatus.BAD_REQUEST : HttpStatus.NOT_FOUND);
+		}
+		// batches which already left the retention period are skipped
+		long firstBatch = Math.max(batchReleaseTime + batchLength, validityWindow.getOldestBatch());
+		long lastBatch = validityWindow.getLatestBatch();
+		// a bundle may stop before the last batch, its ETag covers what it contains
+		SignedBatchResponse bundle = batchBundler.bundle(firstBatch, lastBatch);
+		if (request.checkNotModified(bundle.getEtag())) {
 			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+		}
+		return signedResponse(bundle, Collections.singletonList(ContentEncoding.IDENTITY));
+	}
+
+	private ResponseEntity<ByteBuffer> getBatch(long batchReleaseTime, BatchFormat format, WebRequest request) {
+		List<ContentEncoding> encodings = batchCache.getEncodings(format);
+		ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+				encodings);
+		// answer conditional requests from the index, so a 304 never needs a render
+		SignedBatchResponse batch = null;
+		String etag = etagIndex.getEtag(batchReleaseTime, format);
+		if (etag == null) {
+			batch = batchCache.getOrRender(batchReleaseTime, format, encoding);
+			etag = batch.getEtag();
 		} else {
-			List<Exposee> exposeeList = dataService.getSortedExposedForBatchReleaseTime(batchReleaseTime, batchLength);
-			ExposedOverview overview = new ExposedOverview(exposeeList);
-			overview.setBatchReleaseTime(batchReleaseTime);
-			return ResponseEntity.ok().cacheControl(CacheControl.maxAge(Duration.ofMinutes(exposedListCacheContol)))
-					.header("X-BATCH-RELEASE-TIME", batchReleaseTime.toString()).body(overview);
+			etag = encoding.etag(etag);
+		}
+		if (request.checkNotModified(etag)) {
+			return notModified(encodings);
+		}
+		if (batch == null) {
+			batch = batchCache.getOrRender(batchReleaseTime, format, encoding);
+		}
+		return signedResponse(batch, encodings);
+	}
+
+	/**
+	 * Pages and filtered responses of sealed batches are cached as whole batches
+	 * are, their ETag saves the body for clients which already have them.
+	 *
+	 * @param pageSize the size of the requested page, null for the whole batch
+	 * @param window   the key dates of the requested keys, null for all keys
+	 */
+	private ResponseEntity<ByteBuffer> getBatch(long batchReleaseTime, BatchFormat format, Integer pageSize,
+			Integer before, KeyDateWindow window, WebRequest request) {
+		if (pageSize != null && window != null) {
+			throw new IllegalArgumentException("Pages can not be filtered by key date");
+		}
+		if (pageSize != null) {
+			return getPage(batchReleaseTime, format, before, pageSize, request);
 		}
+		if (window != null) {
+			return getFiltered(request, format, batchCache.getEncodings(format),
+					encoding -> windowCache.getOrRender(batchReleaseTime, format, encoding, window));
+		}
+		return getBatch(batchReleaseTime, format, request);
+	}
+
+	/**
+	 * Filtered responses are cached per window, the ETag of a cached response is
+	 * known without a render.
+	 */
+	private ResponseEntity<ByteBuffer> getFiltered(WebRequest request, BatchFormat format,
+			List<ContentEncoding> encodings, Function<ContentEncoding, SignedBatchResponse> getOrRender) {
+		ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+				encodings);
+		SignedBatchResponse batch = getOrRender.apply(encoding);
+		if (request.checkNotModified(batch.getEtag())) {
+			return notModified(encodings);
+		}
+		return signedResponse(batch, encodings);
+	}
+
+	private ResponseEntity<ByteBuffer> getPage(long batchReleaseTime, BatchFormat format, Integer before,
+			int pageSize, WebRequest request) {
+		List<ContentEncoding> encodings = batchCache.getEncodings(format);
+		ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+				encodings);
+		SignedBatchResponse page = batchPaginator.getPage(batchReleaseTime, format, before, pageSize, encoding);
+		if (request.checkNotModified(page.getEtag())) {
+			return notModified(encodings);
+		}
+		return signedResponse(page, encodings);
 	}
 
 	@CrossOrigin(origins = { "https://editor.swagger.io" })
-	@GetMapping(value = "/exposed/{batchReleaseTime}", produces = "application/x-protobuf")
-	public @ResponseBody ResponseEntity<Exposed.ProtoExposedList> getExposedByBatch(@PathVariable Long batchReleaseTime,
+	@GetMapping(value = "/exposedjson/day/{dayDateStr}", produces = "application/json")
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedJsonByDay(@PathVariable String dayDateStr,
+			@RequestParam(required = false) Long keyDateFrom,
+			@RequestParam(required = false) Long keyDateTo, WebRequest request) {
+		return getDay(LocalDate.parse(dayDateStr), BatchFormat.JSON, keyDateWindow(keyDateFrom, keyDateTo),
+				request);
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/day/{dayDateStr}", produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedByDay(@PathVariable String dayDateStr,
+			@RequestParam(required = false) Long keyDateFrom,
+			@RequestParam(required = false) Long keyDateTo, WebRequest request) {
+		return getDay(LocalDate.parse(dayDateStr), BatchFormat.PROTO, keyDateWindow(keyDateFrom, keyDateTo),
+				request);
+	}
+
+	ResponseEntity<ByteBuffer> getDay(LocalDate day, BatchFormat format, KeyDateWindow window,
 			WebRequest request) {
-		if (batchReleaseTime % batchLength != 0) {
-			return ResponseEntity.badRequest().build();
+		long dayStart = day.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		long dayEnd = day.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		if (dayStart > validityWindow.getLatestBatch()) {
+			return validityWindow.reject(Rejection.FUTURE, HttpStatus.NOT_FOUND);
 		}
-		if (batchReleaseTime > OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).toInstant().toEpochMilli()) {
-			return ResponseEntity.notFound().build();
+		// as for the batches, only the protobuf variants enforce the retention period
+		if (format != BatchFormat.JSON && dayEnd < validityWindow.getOldestBatch()) {
+			return validityWindow.reject(Rejection.EXPIRED, HttpStatus.NOT_FOUND);
 		}
-		if (batchReleaseTime < OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).minusDays(retentionDays).toInstant().toEpochMilli()){
-			return ResponseEntity.notFound().build();
+		List<ContentEncoding> encodings = dayCache.getEncodings(format);
+		if (window != null) {
+			return getFiltered(request, format, encodings,
+					encoding -> windowCache.getOrRenderDay(day, format, encoding, window));
 		}
-		int max = dataService.getMaxExposedIdForBatchReleaseTime(batchReleaseTime, batchLength);
-		String etag = etagGenerator.getEtag(max, "proto");
-		if (request.checkNotModified(etag)) {
+		ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+				encodings);
+		String etag = dayCache.getEtag(day, format);
+		if (request.checkNotModified(encoding.etag(etag))) {
+			return notModified(encodings);
+		}
+		return signedResponse(dayCache.getOrRender(day, format, encoding, etag), encodings);
+	}
+
+	/**
+	 * Returns the Golomb-coded set of the keys received on the given day, which
+	 * lets clients check their keys before downloading the batches of the day.
+	 */
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/filter/{dayDateStr}", produces = "application/octet-stream")
+	public @ResponseBody ResponseEntity<ByteBuffer> getKeyFilterByDay(@PathVariable String dayDateStr,
+			WebRequest request) {
+		LocalDate day = LocalDate.parse(dayDateStr);
+		long dayStart = day.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		long dayEnd = day.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		if (dayStart > validityWindow.getLatestBatch()) {
+			return validityWindow.reject(Rejection.FUTURE, HttpStatus.NOT_FOUND);
+		}
+		if (dayEnd < validityWindow.getOldestBatch()) {
+			return validityWindow.reject(Rejection.EXPIRED, HttpStatus.NOT_FOUND);
+		}
+		DayKeyFilter filter = keyFilterCache.get(day);
+		if (request.checkNotModified(filter.getEtag())) {
 			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+		}
+		// the filter is already signed, the signature filter passes it through as is
+		BodyBuilder response = ResponseEntity.ok()
+				.cacheControl(CacheControl.maxAge(Duration.ofMinutes(exposedListCacheContol)))
+				.contentType(MediaType.APPLICATION_OCTET_STREAM);
+		filter.getHeaders().forEach((name, value) -> response.header(name, value));
+		return response.body(filter.getBody());
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/delta", produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedDelta(
+			@RequestParam(required = false) String cursor) {
+		SignedBatchResponse page = deltaSync
+				.nextPage(cursor == null || cursor.isEmpty() ? DeltaCursor.START : DeltaCursor.decode(cursor));
+		// the next page depends on the cursor and the time of the request
+		BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noStore())
+				.contentType(BatchFormat.PROTO.getMediaType());
+		page.getHeaders().forEach((name, value) -> response.header(name, value));
+		return response.body(page.getBody());
+	}
+
+	/**
+	 * Waits for the first batch sealed after the given release time, or the next
+	 * one if none is given. The request does not hold a thread while it waits,
+	 * if nothing is released before the timeout it is answered with 204.
+	 */
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/next", produces = "application/json")
+	public @ResponseBody DeferredResult<ResponseEntity<BatchMetadata>> waitForNextBatch(
+			@RequestParam(required = false) Long after) {
+		DeferredResult<ResponseEntity<BatchMetadata>> result = new DeferredResult<>(longPollTimeout,
+				ResponseEntity.noContent().build());
+		long releasedAfter;
+		if (after != null) {
+			releasedAfter = after;
 		} else {
-			List<Exposee> exposeeList = dataService.getSortedExposedForBatchReleaseTime(batchReleaseTime, batchLength);
-			List<Exposed.ProtoExposee> exposees = new ArrayList<>();
-			for (Exposee exposee : exposeeList) {
-				Exposed.ProtoExposee protoExposee = Exposed.ProtoExposee.newBuilder()
-						.setKey(ByteString.copyFrom(Base64.getDecoder().decode(exposee.getKey())))
-						.setKeyDate(exposee.getKeyDate()).build();
-				exposees.add(protoExposee);
-			}
-			Exposed.ProtoExposedList protoExposee = Exposed.ProtoExposedList.newBuilder().addAllExposed(exposees)
-					.setBatchReleaseTime(batchReleaseTime).build();
+			BatchMetadata latest = releaseNotifier.getLatest();
+			releasedAfter = latest != null ? latest.getBatchReleaseTime() : System.currentTimeMillis();
+		}
+		result.onCompletion(releaseNotifier.awaitRelease(releasedAfter, metadata -> result
+				.setResult(ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(metadata))));
+		return result;
+	}
+
+	/**
+	 * Streams an event for every sealed batch. A client reconnecting with
+	 * <code>Last-Event-ID</code> receives the latest batch if it missed it. The
+	 * events are not signed, the batches they point to are.
+	 */
+	@GetMapping(value = "/exposed/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public @ResponseBody SseEmitter getBatchFeed(
+			@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+		return batchEventFeed.subscribe(lastEventId);
+	}
 
-			return ResponseEntity.ok().cacheControl(CacheControl.maxAge(Duration.ofMinutes(exposedListCacheContol)))
-					.header("X-BATCH-RELEASE-TIME", batchReleaseTime.toString()).body(protoExposee);
+	private ResponseEntity<ByteBuffer> notModified(List<ContentEncoding> encodings) {
+		BodyBuilder notModified = ResponseEntity.status(HttpStatus.NOT_MODIFIED);
+		if (encodings.size() > 1) {
+			notModified.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
 		}
+		return notModified.build();
+	}
+
+	/**
+	 * @param encodings the encodings the response could have been sent with
+	 */
+	private ResponseEntity<ByteBuffer> signedResponse(SignedBatchResponse batch, List<ContentEncoding> encodings) {
+		return signedHeaders(batch.getFormat(), batch.getEncoding(), batch.getHeaders(), encodings)
+				.body(batch.getBody());
+	}
+
+	private BodyBuilder signedHeaders(BatchFormat format, ContentEncoding encoding, Map<String, String> headers,
+			List<ContentEncoding> encodings) {
+		// the response is already signed, the signature filter passes it through as is
+		BodyBuilder response = ResponseEntity.ok()
+				.cacheControl(CacheControl.maxAge(Duration.ofMinutes(exposedListCacheContol)))
+				.contentType(format.getMediaType());
+		if (encodings.size() > 1) {
+			response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+		if (encoding != ContentEncoding.IDENTITY) {
+			response.header(HttpHeaders.CONTENT_ENCODING, encoding.getName());
+		}
+		headers.forEach((name, value) -> response.header(name, value));
+		return response;
 	}
 
 	@CrossOrigin(origins = { "https://editor.swagger.io" })
@@ -215,19 +582,16 @@ public class DPPPTController {
 		return ResponseEntity.badRequest().build();
 	}
 
-	@ExceptionHandler(InvalidDateException.class)
+	@ExceptionHandler(DateTimeParseException.class)
 	@ResponseStatus(HttpStatus.BAD_REQUEST)
-	public ResponseEntity<Object> invalidDate() {
+	public ResponseEntity<Object> invalidDayDate() {
 		return ResponseEntity.badRequest().build();
 	}
 
-	private boolean isValidBase64(String value) {
-		try {
-			Base64.getDecoder().decode(value);
-			return true;
-		} catch (Exception e) {
-			return false;
-		}
+	@ExceptionHandler(InvalidDateException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public ResponseEntity<Object> invalidDate() {
+		return ResponseEntity.badRequest().build();
 	}
 
 }
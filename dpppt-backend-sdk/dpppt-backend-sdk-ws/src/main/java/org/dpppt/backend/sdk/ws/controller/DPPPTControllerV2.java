@@ -0,0 +1,80 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.controller;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import org.dpppt.backend.sdk.ws.batch.BatchFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * Serves the batches in the compact protobuf format of
+ * <code>exposed_v2.proto</code>. Caching, validation and signing are those of
+ * the v1 protobuf endpoints, only the body differs.
+ */
+@Controller
+@RequestMapping("/v2")
+public class DPPPTControllerV2 {
+
+	private final DPPPTController controller;
+
+	public DPPPTControllerV2(DPPPTController controller) {
+		this.controller = controller;
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/{batchReleaseTime}", produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedByBatch(@PathVariable Long batchReleaseTime,
+			@RequestParam(required = false) Integer pageSize, @RequestParam(required = false) Integer before,
+			@RequestParam(required = false) Long keyDateFrom,
+			@RequestParam(required = false) Long keyDateTo, WebRequest request) {
+		return controller.getProtoBatch(batchReleaseTime, BatchFormat.PROTO_V2, pageSize, before,
+				controller.keyDateWindow(keyDateFrom, keyDateTo), request);
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@RequestMapping(value = "/exposed/{batchReleaseTime}", method = RequestMethod.HEAD, produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> headExposedByBatch(@PathVariable Long batchReleaseTime,
+			WebRequest request) {
+		return controller.headProtoBatch(batchReleaseTime, BatchFormat.PROTO_V2, request);
+	}
+
+	@CrossOrigin(origins = { "https://editor.swagger.io" })
+	@GetMapping(value = "/exposed/day/{dayDateStr}", produces = "application/x-protobuf")
+	public @ResponseBody ResponseEntity<ByteBuffer> getExposedByDay(@PathVariable String dayDateStr,
+			@RequestParam(required = false) Long keyDateFrom,
+			@RequestParam(required = false) Long keyDateTo, WebRequest request) {
+		return controller.getDay(LocalDate.parse(dayDateStr), BatchFormat.PROTO_V2,
+				controller.keyDateWindow(keyDateFrom, keyDateTo), request);
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public ResponseEntity<Object> invalidArguments() {
+		return ResponseEntity.badRequest().build();
+	}
+
+	@ExceptionHandler(DateTimeParseException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public ResponseEntity<Object> invalidDayDate() {
+		return ResponseEntity.badRequest().build();
+	}
+}
@@ -17,36 +17,60 @@ import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
 import javax.servlet.http.HttpServletResponse;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
 import org.dpppt.backend.sdk.ws.security.signature.SignatureResponseWrapper;
 
 public class ResponseWrapperFilter implements Filter {
 
-	private final KeyPair pair;
-	private final int retentionDays;
-	private final List<String> protectedHeaders;
+	private final ResponseSigner signer;
 	
 	public PublicKey getPublicKey() {
-		return pair.getPublic();
+		return signer.getPublicKey();
 	}
 
 	public ResponseWrapperFilter(KeyPair pair, int retentionDays, List<String> protectedHeaders) {
+		this(new ResponseSigner(pair, retentionDays, protectedHeaders));
+	}
+
+	public ResponseWrapperFilter(ResponseSigner signer) {
 		Security.addProvider(new BouncyCastleProvider());
 		Security.setProperty("crypto.policy", "unlimited");
-		this.pair = pair;
-        this.retentionDays = retentionDays;
-        this.protectedHeaders = protectedHeaders;
+		this.signer = signer;
 	}
 
+	/**
+	 * Handles the request and async dispatches. If the handler started async
+	 * processing nothing is written yet, the async dispatch passes this filter
+	 * again with the wrapper of the request dispatch.
+	 */
 	@Override
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
 			throws IOException, ServletException {
-		HttpServletResponse httpResponse = (HttpServletResponse) response;
-		SignatureResponseWrapper wrapper = new SignatureResponseWrapper(httpResponse, pair, retentionDays, protectedHeaders);
-		chain.doFilter(request, wrapper);
-		wrapper.outputData(httpResponse.getOutputStream());
+		SignatureResponseWrapper wrapper = findWrapper(response);
+		if (wrapper == null) {
+			wrapper = new SignatureResponseWrapper((HttpServletResponse) response, signer);
+			chain.doFilter(request, wrapper);
+		} else {
+			chain.doFilter(request, response);
+		}
+		if (request.isAsyncStarted()) {
+			return;
+		}
+		wrapper.outputData(wrapper.getResponse().getOutputStream());
+	}
+
+	private static SignatureResponseWrapper findWrapper(ServletResponse response) {
+		while (response instanceof ServletResponseWrapper) {
+			if (response instanceof SignatureResponseWrapper) {
+				return (SignatureResponseWrapper) response;
+			}
+			response = ((ServletResponseWrapper) response).getResponse();
+		}
+		return null;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.security.signature;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemWriter;
+import org.springframework.util.Base64Utils;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+
+/**
+ * Creates the Digest, X-Public-Key and Signature headers for a response body.
+ * Used by the {@link SignatureResponseWrapper} for every response and directly
+ * by the batch render pipeline, which signs a body once and reuses the headers.
+ */
+public class ResponseSigner {
+
+	public static final String HEADER_SIGNATURE = "Signature";
+	public static final String HEADER_PUBLIC_KEY = "X-Public-Key";
+	public static final String HEADER_DIGEST = "Digest";
+	private static final String ISSUER_DP3T = "dp3t";
+	private static final String CLAIM_HASH_ALG = "hash-alg";
+	private static final String CLAIM_CONTENT_HASH = "content-hash";
+
+	// after number of days days the list and hence the signature is invalid
+	private final int retentionPeriod;
+	private final KeyPair pair;
+	private final List<String> protectedHeaders;
+	private final String publicKeyAsPEM;
+
+	public ResponseSigner(KeyPair pair, int retentionDays, List<String> protectedHeaders) {
+		this.pair = pair;
+		this.retentionPeriod = retentionDays;
+		this.protectedHeaders = protectedHeaders;
+		this.publicKeyAsPEM = createPublicKeyAsPEM();
+	}
+
+	public PublicKey getPublicKey() {
+		return pair.getPublic();
+	}
+
+	/**
+	 * @return the value of the X-Public-Key header
+	 */
+	public String getPublicKeyAsPEM() {
+		return publicKeyAsPEM;
+	}
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Signs the given body.
+	 *
+	 * @param body    the complete response body
+	 * @param headers the headers which will be sent along with the body
+	 * @return the signature headers to add to the response
+	 */
+	public Map<String, String> sign(byte[] body, Map<String, String> headers) {
+		return sign(newDigest().digest(body), headers::get);
+	}
+
+	/**
+	 * Creates the signature headers for an already hashed body.
+	 *
+	 * @param contentHash the sha-256 hash of the body
+	 * @param headers     lookup of the headers sent along with the body, returns
+	 *                    null for absent headers
+	 * @return the signature headers to add to the response
+	 */
+	public Map<String, String> sign(byte[] contentHash, Function<String, String> headers) {
+		Claims claims = Jwts.claims();
+		claims.put(CLAIM_CONTENT_HASH, Base64.getEncoder().encodeToString(contentHash));
+		claims.put(CLAIM_HASH_ALG, "sha-256");
+
+		claims.setIssuer(ISSUER_DP3T);
+		claims.setIssuedAt(Date.from(OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).toInstant()));
+		claims.setExpiration(Date.from(OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).plusDays(retentionPeriod).toInstant()));
+		for (String header : protectedHeaders) {
+			String headerValue = headers.apply(header);
+			if (headerValue == null) {
+				continue;
+			}
+
+			String normalizedHeader = header.toLowerCase().replace("x-", "");
+			claims.put(normalizedHeader, headerValue);
+			if (normalizedHeader.equals("batch-release-time")) {
+				OffsetDateTime issueDate = OffsetDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(headerValue)), ZoneOffset.UTC);
+				claims.setIssuedAt(Date.from(issueDate.toInstant()));
+				claims.setExpiration(Date.from(issueDate.plusDays(retentionPeriod).toInstant()));
+			}
+		}
+		String signature = Jwts.builder().setClaims(claims).signWith(pair.getPrivate()).compact();
+
+		Map<String, String> signatureHeaders = new LinkedHashMap<>();
+		signatureHeaders.put(HEADER_DIGEST, "sha-256=" + Hex.encodeHexString(contentHash));
+		signatureHeaders.put(HEADER_PUBLIC_KEY, publicKeyAsPEM);
+		signatureHeaders.put(HEADER_SIGNATURE, signature);
+		return signatureHeaders;
+	}
+
+	private String createPublicKeyAsPEM() {
+		try {
+			StringWriter writer = new StringWriter();
+			PemWriter pemWriter = new PemWriter(writer);
+			pemWriter.writeObject(new PemObject("PUBLIC KEY", pair.getPublic().getEncoded()));
+			pemWriter.flush();
+			pemWriter.close();
+			return Base64Utils.encodeToUrlSafeString(writer.toString().trim().getBytes());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -11,59 +11,41 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.security.KeyPair;
 import java.security.MessageDigest;
-import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
-import java.util.Base64;
-import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
-import org.apache.commons.codec.binary.Hex;
-import org.bouncycastle.util.io.pem.PemObject;
-import org.bouncycastle.util.io.pem.PemWriter;
-import org.springframework.util.Base64Utils;
-
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
-
 public class SignatureResponseWrapper extends HttpServletResponseWrapper {
 
-	// after number of days days the list and hence the signature is invalid
-	public final int retentionPeriod;
+	private static final String TEXT_EVENT_STREAM = "text/event-stream";
 
 	private final MessageDigest digest;
 	private final ByteArrayOutputStream output;
-	private final KeyPair pair;
-	private final List<String> protectedHeaders;
+	private final ResponseSigner signer;
 
 	private HashStream stream;
 	private PrintWriter writer;
-
-	private static final String HEADER_SIGNATURE = "Signature";
-	private static final String HEADER_PUBLIC_KEY = "X-Public-Key";
-	private static final String HEADER_DIGEST = "Digest";
-	private static final String ISSUER_DP3T = "dp3t";
-	private static final String CLAIM_HASH_ALG = "hash-alg";
-	private static final String CLAIM_CONTENT_HASH = "content-hash";
+	private boolean presigned;
+	private boolean signed;
 
 	public SignatureResponseWrapper(HttpServletResponse response, KeyPair pair, int retentionDays,
 			List<String> protectedHeaders) {
+		this(response, new ResponseSigner(pair, retentionDays, protectedHeaders));
+	}
+
+	public SignatureResponseWrapper(HttpServletResponse response, ResponseSigner signer) {
 		super(response);
-		this.pair = pair;
-		this.protectedHeaders = protectedHeaders;
+		this.signer = signer;
 		try {
 			this.output = new ByteArrayOutputStream(response.getBufferSize());
-			this.digest = MessageDigest.getInstance("SHA-256");
+			this.digest = ResponseSigner.newDigest();
 			this.stream = new HashStream(this.digest, this.output);
-			this.retentionPeriod = retentionDays;
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		}
@@ -71,6 +53,11 @@ public class SignatureResponseWrapper extends HttpServletResponseWrapper {
 
 	@Override
 	public ServletOutputStream getOutputStream() throws IOException {
+		// responses which were signed by the handler itself (e.g. cached batches) are
+		// written straight through, there is nothing left to hash or sign
+		if (isPresigned()) {
+			return super.getOutputStream();
+		}
 		if (stream == null) {
 			stream = new HashStream(this.digest, this.output);
 		}
@@ -96,6 +83,10 @@ public class SignatureResponseWrapper extends HttpServletResponseWrapper {
 
 	@Override
 	public void flushBuffer() throws IOException {
+		if (isPresigned()) {
+			super.flushBuffer();
+			return;
+		}
 		this.setSignature();
 		super.flushBuffer();
 		if (writer != null) {
@@ -106,49 +97,36 @@ public class SignatureResponseWrapper extends HttpServletResponseWrapper {
 	}
 
 	public void outputData(OutputStream httpOutput) throws IOException {
+		if (isPresigned()) {
+			return;
+		}
 		this.setSignature();
 		httpOutput.write(this.output.toByteArray());
 	}
 
-	private void setSignature() throws IOException {
-		byte[] theHash = this.getHash();
-
-		Claims claims = Jwts.claims();
-		claims.put(CLAIM_CONTENT_HASH, Base64.getEncoder().encodeToString(theHash));
-		claims.put(CLAIM_HASH_ALG, "sha-256");
-
-		claims.setIssuer(ISSUER_DP3T);
-		claims.setIssuedAt(Date.from(OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).toInstant()));
-		claims.setExpiration(Date.from(OffsetDateTime.now().withOffsetSameInstant(ZoneOffset.UTC).plusDays(retentionPeriod).toInstant()));
-		for (String header : protectedHeaders) {
-			if (!this.containsHeader(header)) {
-				continue;
-			}
-
-			String normalizedHeader = header.toLowerCase().replace("x-", "");
-			String headerValue = this.getHeader(header);
-			claims.put(normalizedHeader, headerValue);
-			if (normalizedHeader.equals("batch-release-time")) {
-				OffsetDateTime issueDate = OffsetDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(headerValue)), ZoneOffset.UTC);
-				claims.setIssuedAt(Date.from(issueDate.toInstant()));
-				claims.setExpiration(Date.from(issueDate.plusDays(retentionPeriod).toInstant()));
-			}
-		}
-		String signature = Jwts.builder().setClaims(claims).signWith(pair.getPrivate()).compact();
-
-		this.setHeader(HEADER_DIGEST, "sha-256=" + Hex.encodeHexString(theHash));
-		this.setHeader(HEADER_PUBLIC_KEY, getPublicKeyAsPEM());
-		this.setHeader(HEADER_SIGNATURE, signature);
+	/**
+	 * A Signature header we did not set ourselves was set by the handler, which
+	 * also holds for pre-signed responses without a body. Event streams never end
+	 * and cannot be signed as a whole, they are passed through as well.
+	 */
+	private boolean isPresigned() {
+		if (!presigned && !signed && (this.containsHeader(ResponseSigner.HEADER_SIGNATURE) || isEventStream())) {
+			presigned = true;
+		}
+		return presigned;
+	}
 
+	private boolean isEventStream() {
+		String contentType = getContentType();
+		return contentType != null && contentType.startsWith(TEXT_EVENT_STREAM);
 	}
 
-	private String getPublicKeyAsPEM() throws IOException {
-		StringWriter writer = new StringWriter();
-		PemWriter pemWriter = new PemWriter(writer);
-		pemWriter.writeObject(new PemObject("PUBLIC KEY", pair.getPublic().getEncoded()));
-		pemWriter.flush();
-		pemWriter.close();
-		return Base64Utils.encodeToUrlSafeString(writer.toString().trim().getBytes());
+	private void setSignature() throws IOException {
+		signed = true;
+		byte[] theHash = this.getHash();
+		Map<String, String> signatureHeaders = signer.sign(theHash,
+				header -> this.containsHeader(header) ? this.getHeader(header) : null);
+		signatureHeaders.forEach(this::setHeader);
 	}
 
 	private class HashStream extends ServletOutputStream {
@@ -177,6 +155,12 @@ public class SignatureResponseWrapper extends HttpServletResponseWrapper {
 			this.output.write(b);
 		}
 
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.digest.update(b, off, len);
+			this.output.write(b, off, len);
+		}
+
 		@Override
 		public void close() throws IOException {
 			this.output.close();
@@ -0,0 +1,63 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/**
+ * Writes {@link ByteBuffer} bodies, e.g. memory mapped files, to the response
+ * without copying them to the heap first. Only used for responses.
+ */
+public class ByteBufferHttpMessageConverter extends AbstractHttpMessageConverter<ByteBuffer> {
+
+	public ByteBufferHttpMessageConverter() {
+		super(MediaType.ALL);
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return ByteBuffer.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	protected boolean canRead(MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected ByteBuffer readInternal(Class<? extends ByteBuffer> clazz, HttpInputMessage inputMessage)
+			throws IOException, HttpMessageNotReadableException {
+		throw new HttpMessageNotReadableException("ByteBuffer bodies can not be read", inputMessage);
+	}
+
+	@Override
+	protected Long getContentLength(ByteBuffer buffer, MediaType contentType) {
+		return (long) buffer.remaining();
+	}
+
+	@Override
+	protected void writeInternal(ByteBuffer buffer, HttpOutputMessage outputMessage) throws IOException {
+		ByteBuffer body = buffer.duplicate();
+		if (body.hasArray()) {
+			outputMessage.getBody().write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+			return;
+		}
+		WritableByteChannel channel = Channels.newChannel(outputMessage.getBody());
+		while (body.hasRemaining()) {
+			channel.write(body);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchArtifactStoreTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private BatchArtifactStore store;
+
+	@Before
+	public void setup() {
+		store = new BatchArtifactStore(folder.getRoot().toPath(), 21);
+	}
+
+	@Test
+	public void storedResponsesSurviveRestart() throws IOException {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		SignedBatchResponse stored = store.store(response(batchReleaseTime, "body"));
+		assertEquals("body", body(stored));
+
+		List<SignedBatchResponse> loaded = new BatchArtifactStore(folder.getRoot().toPath(), 21).load();
+		assertEquals(1, loaded.size());
+		SignedBatchResponse response = loaded.get(0);
+		assertEquals(batchReleaseTime, response.getBatchReleaseTime());
+		assertEquals(BatchFormat.JSON, response.getFormat());
+		assertEquals(7, response.getMaxId());
+		assertEquals(3, response.getKeyCount());
+		assertEquals("etag", response.getEtag());
+		assertEquals("signature", response.getHeaders().get("Signature"));
+		assertEquals("body", body(response));
+	}
+
+	@Test
+	public void expiredAndBrokenFilesAreDeleted() throws IOException {
+		store.store(response(currentBatch() - 22 * 24 * 60 * 60 * 1000L, "old"));
+		Path broken = folder.newFile("1-json.batch").toPath();
+		Files.write(broken, new byte[] { 1, 2, 3 });
+		assertTrue(store.load().isEmpty());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void evictBeforeDeletesOlderBatches() throws IOException {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		store.store(response(batchReleaseTime - BATCH_LENGTH, "older"));
+		store.store(response(batchReleaseTime, "newer"));
+		store.evictBefore(batchReleaseTime);
+		List<SignedBatchResponse> loaded = store.load();
+		assertEquals(1, loaded.size());
+		assertEquals("newer", body(loaded.get(0)));
+	}
+
+	private static String body(SignedBatchResponse response) {
+		ByteBuffer body = response.getBody();
+		byte[] bytes = new byte[body.remaining()];
+		body.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static SignedBatchResponse response(long batchReleaseTime, String body) {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("X-BATCH-RELEASE-TIME", Long.toString(batchReleaseTime));
+		headers.put("Signature", "signature");
+		return new SignedBatchResponse(batchReleaseTime, BatchFormat.JSON,
+				ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)), 7, 3, "etag", headers);
+	}
+
+	private static long currentBatch() {
+		long now = System.currentTimeMillis();
+		return now - now % BATCH_LENGTH;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.model.proto.Exposed;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BatchBundlerTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	private BatchResponseCache cache;
+	private BatchEtagIndex etagIndex;
+	private ResponseSigner signer;
+	private BatchBundler bundler;
+	private int inserts;
+
+	@Before
+	public void setup() {
+		BatchRenderer renderer = mock(BatchRenderer.class);
+		when(renderer.getBatchLength()).thenReturn(BATCH_LENGTH);
+		when(renderer.render(anyLong(), eq(BatchFormat.PROTO)))
+				.thenAnswer(invocation -> response(invocation.getArgument(0)));
+		etagIndex = new BatchEtagIndex(new EtagGenerator(), BATCH_LENGTH, 60 * 1000L, 21);
+		cache = new BatchResponseCache(renderer, etagIndex, null, 60 * 1000L, 21, new SimpleMeterRegistry());
+		signer = mock(ResponseSigner.class);
+		when(signer.sign(any(byte[].class), anyMap()))
+				.thenReturn(Collections.singletonMap(ResponseSigner.HEADER_SIGNATURE, "signature"));
+		bundler = new BatchBundler(cache, etagIndex, signer, BATCH_LENGTH, Integer.MAX_VALUE, 8,
+				new SimpleMeterRegistry());
+	}
+
+	@Test
+	public void bundleKeepsBatchesInOrder() throws Exception {
+		long lastBatch = currentBatch() - BATCH_LENGTH;
+		long firstBatch = lastBatch - 2 * BATCH_LENGTH;
+		SignedBatchResponse bundle = bundler.bundle(firstBatch, lastBatch);
+
+		assertEquals(lastBatch, bundle.getBatchReleaseTime());
+		assertEquals(Long.toString(lastBatch), bundle.getHeaders().get(BatchRenderer.HEADER_BATCH_RELEASE_TIME));
+		assertEquals("signature", bundle.getHeaders().get(ResponseSigner.HEADER_SIGNATURE));
+		assertEquals(3, bundle.getKeyCount());
+		assertEquals(bundle.getEtag(), bundler.getEtag(firstBatch, lastBatch));
+
+		List<Exposed.ProtoExposedList> batches = parse(bundle.getBody());
+		assertEquals(3, batches.size());
+		for (int i = 0; i < batches.size(); i++) {
+			assertEquals(firstBatch + i * BATCH_LENGTH, batches.get(i).getBatchReleaseTime());
+			assertEquals(1, batches.get(i).getExposedCount());
+		}
+	}
+
+	@Test
+	public void bundleIsSignedOnceUntilABatchChanges() {
+		long lastBatch = currentBatch() - BATCH_LENGTH;
+		long firstBatch = lastBatch - 2 * BATCH_LENGTH;
+		SignedBatchResponse bundle = bundler.bundle(firstBatch, lastBatch);
+		assertSame(bundle, bundler.bundle(firstBatch, lastBatch));
+		verify(signer, times(1)).sign(any(byte[].class), anyMap());
+
+		inserts++;
+		cache.exposeeInserted(0, lastBatch - 1);
+		assertNotSame(bundle, bundler.bundle(firstBatch, lastBatch));
+		verify(signer, times(2)).sign(any(byte[].class), anyMap());
+	}
+
+	@Test
+	public void bundleStopsBeforeTheMaximumSize() throws Exception {
+		long lastBatch = currentBatch() - BATCH_LENGTH;
+		long firstBatch = lastBatch - 2 * BATCH_LENGTH;
+		long twoBatches = bundler.bundle(firstBatch, firstBatch + BATCH_LENGTH).getBodyLength();
+		bundler = new BatchBundler(cache, etagIndex, signer, BATCH_LENGTH, twoBatches + 1, 8,
+				new SimpleMeterRegistry());
+
+		SignedBatchResponse bundle = bundler.bundle(firstBatch, lastBatch);
+		assertEquals(lastBatch - BATCH_LENGTH, bundle.getBatchReleaseTime());
+		assertEquals(Long.toString(lastBatch - BATCH_LENGTH),
+				bundle.getHeaders().get(BatchRenderer.HEADER_BATCH_RELEASE_TIME));
+		assertEquals(2, parse(bundle.getBody()).size());
+		// a client replaying the ETag of the truncated bundle gets a 304
+		assertEquals(bundle.getEtag(), bundler.getEtag(firstBatch, lastBatch));
+		assertEquals(bundle.getEtag(), bundler.getEtag(firstBatch, lastBatch - BATCH_LENGTH));
+	}
+
+	@Test
+	public void batchLargerThanTheMaximumSizeIsBundledAlone() throws Exception {
+		long lastBatch = currentBatch() - BATCH_LENGTH;
+		long firstBatch = lastBatch - BATCH_LENGTH;
+		bundler = new BatchBundler(cache, etagIndex, signer, BATCH_LENGTH, 1, 8, new SimpleMeterRegistry());
+
+		SignedBatchResponse bundle = bundler.bundle(firstBatch, lastBatch);
+		assertEquals(firstBatch, bundle.getBatchReleaseTime());
+		assertEquals(1, parse(bundle.getBody()).size());
+		assertEquals(lastBatch, bundler.bundle(lastBatch, lastBatch).getBatchReleaseTime());
+	}
+
+	@Test
+	public void etagDependsOnRange() {
+		long lastBatch = currentBatch() - BATCH_LENGTH;
+		assertNotEquals(bundler.getEtag(lastBatch - BATCH_LENGTH, lastBatch), bundler.getEtag(lastBatch, lastBatch));
+	}
+
+	@Test
+	public void emptyRangeIsEmptyBundle() throws Exception {
+		long lastBatch = currentBatch() - BATCH_LENGTH;
+		SignedBatchResponse bundle = bundler.bundle(lastBatch + BATCH_LENGTH, lastBatch);
+		assertEquals(0, bundle.getBodyLength());
+		assertEquals(0, parse(bundle.getBody()).size());
+	}
+
+	private static List<Exposed.ProtoExposedList> parse(ByteBuffer body) throws Exception {
+		// ProtoExposedBatches, field 1 repeated
+		CodedInputStream in = CodedInputStream.newInstance(body);
+		List<Exposed.ProtoExposedList> batches = new ArrayList<>();
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			assertEquals(1, tag >>> 3);
+			batches.add(Exposed.ProtoExposedList.parseFrom(in.readBytes()));
+		}
+		return batches;
+	}
+
+	private static long currentBatch() {
+		long now = System.currentTimeMillis();
+		return now - now % BATCH_LENGTH;
+	}
+
+	private SignedBatchResponse response(long batchReleaseTime) {
+		byte[] body = Exposed.ProtoExposedList.newBuilder().setBatchReleaseTime(batchReleaseTime)
+				.addExposed(Exposed.ProtoExposee.newBuilder().setKey(ByteString.copyFromUtf8("key"))
+						.setKeyDate(batchReleaseTime))
+				.build().toByteArray();
+		int maxId = (int) (batchReleaseTime / BATCH_LENGTH) + inserts;
+		return new SignedBatchResponse(batchReleaseTime, BatchFormat.PROTO, ByteBuffer.wrap(body), maxId, 1,
+				new EtagGenerator().getEtag(maxId, "proto"), Collections.emptyMap());
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchEtagIndexTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	private EtagGenerator etagGenerator;
+	private BatchEtagIndex etagIndex;
+
+	@Before
+	public void setup() {
+		etagGenerator = new EtagGenerator();
+		etagIndex = new BatchEtagIndex(etagGenerator, BATCH_LENGTH, 60 * 1000L, 21);
+	}
+
+	@Test
+	public void unseededIndexDoesNotAnswer() {
+		assertNull(etagIndex.getEtag(currentBatch() - BATCH_LENGTH, BatchFormat.PROTO));
+	}
+
+	@Test
+	public void seededIndexAnswersSealedBatches() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		seed(batchReleaseTime, 42);
+		assertEquals(etagGenerator.getEtag(42, "proto"), etagIndex.getEtag(batchReleaseTime, BatchFormat.PROTO));
+		assertEquals(etagGenerator.getEtag(42, "json"), etagIndex.getEtag(batchReleaseTime, BatchFormat.JSON));
+		// batches without entries are known to be empty
+		assertEquals(etagGenerator.getEtag(0, "proto"),
+				etagIndex.getEtag(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO));
+		// the open batch might still change
+		assertNull(etagIndex.getEtag(currentBatch() + BATCH_LENGTH, BatchFormat.PROTO));
+	}
+
+	@Test
+	public void insertsMoveTheEtag() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		seed(batchReleaseTime, 42);
+		etagIndex.exposeeInserted(43, batchReleaseTime - 1);
+		assertEquals(etagGenerator.getEtag(43, "proto"), etagIndex.getEtag(batchReleaseTime, BatchFormat.PROTO));
+		etagIndex.exposeeInserted(0, batchReleaseTime - 1);
+		assertNull(etagIndex.getEtag(batchReleaseTime, BatchFormat.PROTO));
+		etagIndex.update(batchReleaseTime, 44);
+		assertEquals(etagGenerator.getEtag(44, "proto"), etagIndex.getEtag(batchReleaseTime, BatchFormat.PROTO));
+	}
+
+	@Test
+	public void headsAreKeptUntilTheBatchChanges() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		seed(batchReleaseTime, 42);
+		etagIndex.putHead(response(batchReleaseTime, 41));
+		assertNull(etagIndex.getHead(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY));
+
+		etagIndex.putHead(response(batchReleaseTime, 42));
+		etagIndex.update(batchReleaseTime, 42);
+		BatchHead head = etagIndex.getHead(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY);
+		assertEquals(3, head.getBodyLength());
+		assertEquals("signature", head.getHeaders().get("Signature"));
+		assertNull(etagIndex.getHead(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.GZIP));
+
+		// a late insert with a smaller id changes the batch as well
+		etagIndex.exposeeInserted(41, batchReleaseTime - 1);
+		assertNull(etagIndex.getHead(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY));
+		assertEquals(etagGenerator.getEtag(42, "proto"), etagIndex.getEtag(batchReleaseTime, BatchFormat.PROTO));
+	}
+
+	private static SignedBatchResponse response(long batchReleaseTime, int maxId) {
+		return new SignedBatchResponse(batchReleaseTime, BatchFormat.PROTO, ByteBuffer.wrap(new byte[3]), maxId, 1,
+				"etag", Collections.singletonMap("Signature", "signature"));
+	}
+
+	private void seed(long batchReleaseTime, int maxId) {
+		DPPPTDataService dataService = mock(DPPPTDataService.class);
+		when(dataService.getMaxExposedIdPerBatch(anyLong(), anyLong()))
+				.thenReturn(Collections.singletonMap(batchReleaseTime, maxId));
+		etagIndex.seed(dataService);
+	}
+
+	private static long currentBatch() {
+		long now = System.currentTimeMillis();
+		return now - now % BATCH_LENGTH;
+	}
+}
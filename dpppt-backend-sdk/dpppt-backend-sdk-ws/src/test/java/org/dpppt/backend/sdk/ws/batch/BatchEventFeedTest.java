@@ -0,0 +1,97 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.dpppt.backend.sdk.model.BatchMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class BatchEventFeedTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	private BatchReleaseNotifier notifier;
+	private Consumer<BatchMetadata> release;
+	private BatchEventFeed feed;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		notifier = mock(BatchReleaseNotifier.class);
+		when(notifier.getLatest()).thenReturn(new BatchMetadata(BATCH_LENGTH, "etag", 3));
+		feed = new BatchEventFeed(new ObjectMapper(), notifier, 60000, 2, 1, 60000, 60000);
+		ArgumentCaptor<Consumer<BatchMetadata>> listener = ArgumentCaptor.forClass(Consumer.class);
+		verify(notifier).addListener(listener.capture());
+		release = listener.getValue();
+	}
+
+	@After
+	public void tearDown() {
+		feed.close();
+	}
+
+	@Test
+	public void subscribersAreCounted() {
+		feed.subscribe(null);
+		feed.subscribe(BATCH_LENGTH);
+		assertEquals(2, feed.getSubscriberCount());
+	}
+
+	@Test
+	public void closedSubscriberIsRemovedOnRelease() throws InterruptedException {
+		SseEmitter emitter = feed.subscribe(null);
+		emitter.complete();
+		release.accept(new BatchMetadata(2 * BATCH_LENGTH, "etag", 1));
+		for (int i = 0; i < 100 && feed.getSubscriberCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, feed.getSubscriberCount());
+	}
+
+	@Test
+	public void stalledWriteIsInterrupted() throws InterruptedException {
+		CountDownLatch interrupted = new CountDownLatch(1);
+		SseEmitter stalled = new SseEmitter() {
+			@Override
+			public void send(SseEventBuilder builder) throws IOException {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+					throw new IOException(e);
+				}
+			}
+		};
+		feed.close();
+		feed = new BatchEventFeed(new ObjectMapper(), notifier, 60000, 2, 1, 60000, 50) {
+			@Override
+			SseEmitter createEmitter(long timeout) {
+				return stalled;
+			}
+		};
+		feed.subscribe(0L);
+
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		assertEquals(0, feed.getSubscriberCount());
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchExporterTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path root;
+	private ResponseSigner signer;
+	private BatchExporter exporter;
+
+	@Before
+	public void setup() {
+		root = folder.getRoot().toPath();
+		signer = mock(ResponseSigner.class);
+		when(signer.getPublicKeyAsPEM()).thenReturn("key");
+		exporter = new BatchExporter(root, BATCH_LENGTH, 21, 5);
+		exporter.init(signer, seededIndex(new HashMap<>()));
+	}
+
+	@Test
+	public void exportWritesBodyHeadersAndSnippet() throws IOException {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		exporter.export(response(batchReleaseTime, BatchFormat.PROTO));
+
+		Path body = root.resolve("v1/exposed/" + batchReleaseTime);
+		assertEquals("body", new String(Files.readAllBytes(body), StandardCharsets.UTF_8));
+		List<String> headers = Files.readAllLines(root.resolve("v1/exposed/" + batchReleaseTime + ".headers"));
+		assertTrue(headers.contains("Signature: signature"));
+		assertTrue(headers.contains("X-BATCH-RELEASE-TIME: " + batchReleaseTime));
+		assertTrue(headers.contains("Cache-Control: max-age=300"));
+		assertTrue(headers.contains("ETag: \"etag\""));
+		String snippet = new String(Files.readAllBytes(root.resolve("headers.caddy")), StandardCharsets.UTF_8);
+		assertTrue(snippet.contains("path /v1/exposed/" + batchReleaseTime + "\n"));
+		assertTrue(snippet.contains("handle @v1_exposed_" + batchReleaseTime + " {"));
+		assertTrue(snippet.contains("Signature \"signature\""));
+	}
+
+	@Test
+	public void snippetSendsTheEtagsOfTheBackend() throws IOException {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		exporter.export(response(batchReleaseTime, BatchFormat.PROTO));
+
+		String snippet = new String(Files.readAllBytes(root.resolve("headers.caddy")), StandardCharsets.UTF_8);
+		String matcher = "@v1_exposed_" + batchReleaseTime;
+		assertTrue(snippet, snippet.contains(matcher + "_unchanged {\n"
+				+ "\tpath /v1/exposed/" + batchReleaseTime + "\n"
+				+ "\texpression {query} == \"\"\n"
+				+ "\theader If-None-Match \"\\\"etag\\\"\"\n"
+				+ "\theader If-None-Match \"\\\"etag-gzip\\\"\"\n"));
+		assertTrue(snippet, snippet.contains("handle " + matcher + "_unchanged {\n"));
+		assertTrue(snippet, snippet.contains("\trespond 304\n"));
+		assertTrue(snippet, snippet.contains("handle " + matcher + "_gzip {\n"
+				+ "\theader {\n"
+				+ "\t\tContent-Type \"application/x-protobuf\"\n"
+				+ "\t\tCache-Control \"max-age=300\"\n"
+				+ "\t\tETag \"\\\"etag-gzip\\\"\"\n"));
+		assertTrue(snippet, snippet.contains("\t\tETag \"\\\"etag\\\"\"\n"));
+		assertTrue(snippet, snippet.contains("\t\tdefer\n"));
+		// the unchanged, gzip and identity blocks are tried in this order
+		int unchanged = snippet.indexOf("handle " + matcher + "_unchanged {");
+		int gzip = snippet.indexOf("handle " + matcher + "_gzip {");
+		assertTrue(unchanged < gzip);
+		assertTrue(gzip < snippet.indexOf("handle " + matcher + " {"));
+	}
+
+	@Test
+	public void requestsWithAQueryAreNotServedFromDisk() throws IOException {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		exporter.export(response(batchReleaseTime, BatchFormat.PROTO));
+		exporter.export(response(batchReleaseTime, BatchFormat.PROTO_V2));
+
+		String snippet = new String(Files.readAllBytes(root.resolve("headers.caddy")), StandardCharsets.UTF_8);
+		for (String path : new String[] { "/v1/exposed/", "/v2/exposed/" }) {
+			String matcher = "@" + path.substring(1).replace('/', '_') + batchReleaseTime + " {\n"
+					+ "\tpath " + path + batchReleaseTime + "\n"
+					+ "\texpression {query} == \"\"\n";
+			assertTrue(snippet, snippet.contains(matcher));
+		}
+	}
+
+	@Test
+	public void exportedBatchesSurviveRestartUntilEvicted() throws IOException {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		exporter.export(response(batchReleaseTime - BATCH_LENGTH, BatchFormat.JSON));
+		exporter.export(response(batchReleaseTime, BatchFormat.JSON));
+
+		Map<Long, Integer> maxIds = new HashMap<>();
+		maxIds.put(batchReleaseTime - BATCH_LENGTH, 7);
+		maxIds.put(batchReleaseTime, 7);
+		BatchExporter restarted = new BatchExporter(root, BATCH_LENGTH, 21, 5);
+		restarted.init(signer, seededIndex(maxIds));
+		assertTrue(Files.exists(root.resolve("v1/exposedjson/" + (batchReleaseTime - BATCH_LENGTH))));
+		restarted.evictBefore(batchReleaseTime);
+
+		assertFalse(Files.exists(root.resolve("v1/exposedjson/" + (batchReleaseTime - BATCH_LENGTH))));
+		assertFalse(Files.exists(root.resolve("v1/exposedjson/" + (batchReleaseTime - BATCH_LENGTH) + ".headers")));
+		assertTrue(Files.exists(root.resolve("v1/exposedjson/" + batchReleaseTime)));
+		String snippet = new String(Files.readAllBytes(root.resolve("headers.caddy")), StandardCharsets.UTF_8);
+		assertFalse(snippet.contains("/v1/exposedjson/" + (batchReleaseTime - BATCH_LENGTH)));
+		assertTrue(snippet.contains("handle @v1_exposedjson_" + batchReleaseTime + " {"));
+	}
+
+	@Test
+	public void staleBatchesAreDeletedOnRestart() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		exporter.export(response(batchReleaseTime, BatchFormat.PROTO));
+		exporter.export(response(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO));
+
+		// an insert into the first batch while the exporter was down
+		Map<Long, Integer> maxIds = new HashMap<>();
+		maxIds.put(batchReleaseTime, 7);
+		maxIds.put(batchReleaseTime - BATCH_LENGTH, 8);
+		new BatchExporter(root, BATCH_LENGTH, 21, 5).init(signer, seededIndex(maxIds));
+		assertTrue(Files.exists(root.resolve("v1/exposed/" + batchReleaseTime)));
+		assertFalse(Files.exists(root.resolve("v1/exposed/" + (batchReleaseTime - BATCH_LENGTH))));
+
+		// the signing key was rotated
+		when(signer.getPublicKeyAsPEM()).thenReturn("rotated");
+		new BatchExporter(root, BATCH_LENGTH, 21, 5).init(signer, seededIndex(maxIds));
+		assertFalse(Files.exists(root.resolve("v1/exposed/" + batchReleaseTime)));
+		assertFalse(Files.exists(root.resolve("v1/exposed/" + batchReleaseTime + ".headers")));
+	}
+
+	@Test
+	public void lateInsertDeletesBatch() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		exporter.export(response(batchReleaseTime, BatchFormat.PROTO));
+		// an insert into the open batch
+		exporter.exposeeInserted(8, System.currentTimeMillis());
+		assertTrue(Files.exists(root.resolve("v1/exposed/" + batchReleaseTime)));
+		// ids commit out of order, so an id below the exported max id counts as well
+		exporter.exposeeInserted(6, batchReleaseTime - 1);
+		assertFalse(Files.exists(root.resolve("v1/exposed/" + batchReleaseTime)));
+	}
+
+	private static BatchEtagIndex seededIndex(Map<Long, Integer> maxIds) {
+		DPPPTDataService dataService = mock(DPPPTDataService.class);
+		when(dataService.getMaxExposedIdPerBatch(anyLong(), anyLong())).thenReturn(maxIds);
+		BatchEtagIndex etagIndex = new BatchEtagIndex(new EtagGenerator(), BATCH_LENGTH, 60 * 1000L, 21);
+		etagIndex.seed(dataService);
+		return etagIndex;
+	}
+
+	private static SignedBatchResponse response(long batchReleaseTime, BatchFormat format) {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("X-BATCH-RELEASE-TIME", Long.toString(batchReleaseTime));
+		headers.put("Signature", "signature");
+		headers.put(ResponseSigner.HEADER_PUBLIC_KEY, "key");
+		return new SignedBatchResponse(batchReleaseTime, format, ByteBuffer.wrap("body".getBytes(StandardCharsets.UTF_8)),
+				7, 3, "etag", headers);
+	}
+
+	private static long currentBatch() {
+		long now = System.currentTimeMillis();
+		return now - now % BATCH_LENGTH;
+	}
+}
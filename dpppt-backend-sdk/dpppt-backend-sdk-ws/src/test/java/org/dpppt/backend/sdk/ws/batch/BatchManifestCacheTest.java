@@ -0,0 +1,93 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.model.BatchManifest;
+import org.dpppt.backend.sdk.model.BatchMetadata;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BatchManifestCacheTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+	private static final int RETENTION_DAYS = 2;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private BatchRenderer renderer;
+	private BatchResponseCache batchCache;
+	private BatchManifestCache manifestCache;
+
+	@Before
+	public void setup() {
+		renderer = mock(BatchRenderer.class);
+		when(renderer.getBatchLength()).thenReturn(BATCH_LENGTH);
+		when(renderer.render(anyLong(), eq(BatchFormat.PROTO)))
+				.thenAnswer(invocation -> new SignedBatchResponse(invocation.getArgument(0), BatchFormat.PROTO,
+						ByteBuffer.allocate(12), 5, 1, "proto5", Collections.emptyMap()));
+		ResponseSigner signer = mock(ResponseSigner.class);
+		when(signer.sign(any(byte[].class), anyMap()))
+				.thenReturn(Collections.singletonMap(ResponseSigner.HEADER_SIGNATURE, "signature"));
+		BatchEtagIndex etagIndex = new BatchEtagIndex(new EtagGenerator(), BATCH_LENGTH, 0, RETENTION_DAYS);
+		batchCache = new BatchResponseCache(renderer, etagIndex, null, 0, RETENTION_DAYS, new SimpleMeterRegistry());
+		manifestCache = new BatchManifestCache(batchCache, signer, objectMapper, BATCH_LENGTH, 0, RETENTION_DAYS);
+	}
+
+	@Test
+	public void listsAllRetainedBatches() throws Exception {
+		SignedBatchResponse manifest = manifestCache.get();
+		byte[] body = new byte[manifest.getBodyLength()];
+		manifest.getBody().get(body);
+		BatchManifest content = objectMapper.readValue(body, BatchManifest.class);
+
+		long now = System.currentTimeMillis();
+		long latestBatch = now - now % BATCH_LENGTH;
+		assertEquals(latestBatch, (long) content.getLatestBatchReleaseTime());
+		assertEquals(RETENTION_DAYS * 12, content.getBatches().size());
+		BatchMetadata latest = content.getBatches().get(content.getBatches().size() - 1);
+		assertEquals(latestBatch, (long) latest.getBatchReleaseTime());
+		assertEquals(12, (int) latest.getByteSize());
+		assertEquals("/v1/exposed/" + latestBatch, latest.getUrl());
+		assertEquals(RETENTION_DAYS * 12, manifest.getKeyCount());
+	}
+
+	@Test
+	public void unchangedManifestIsReused() {
+		SignedBatchResponse manifest = manifestCache.get();
+		assertSame(manifest, manifestCache.get());
+		verify(renderer, times(RETENTION_DAYS * 12)).render(anyLong(), eq(BatchFormat.PROTO));
+	}
+
+	@Test
+	public void lateInsertUpdatesManifest() {
+		SignedBatchResponse manifest = manifestCache.get();
+		long latestBatch = manifest.getBatchReleaseTime();
+		batchCache.exposeeInserted(6, latestBatch - 1);
+		assertNotSame(manifest, manifestCache.get());
+		verify(renderer, times(2)).render(latestBatch, BatchFormat.PROTO);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.model.proto.Exposed;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BatchPaginatorTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+	private static final long BATCH_RELEASE_TIME = 10 * BATCH_LENGTH;
+
+	private DPPPTDataService dataService;
+	private BatchPaginator paginator;
+
+	@Before
+	public void setup() {
+		dataService = mock(DPPPTDataService.class);
+		ResponseSigner signer = mock(ResponseSigner.class);
+		when(signer.sign(any(byte[].class), anyMap()))
+				.thenReturn(Collections.singletonMap(ResponseSigner.HEADER_SIGNATURE, "signature"));
+		BatchRenderer renderer = new BatchRenderer(dataService, new EtagGenerator(), signer, new ObjectMapper(),
+				BATCH_LENGTH, Collections.emptyList(), new SimpleMeterRegistry());
+		paginator = new BatchPaginator(dataService, renderer, 2, 0, 21, 2, new SimpleMeterRegistry());
+	}
+
+	@Test
+	public void fullPagePointsToNextPage() throws Exception {
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(BATCH_RELEASE_TIME, BATCH_LENGTH, Integer.MAX_VALUE, 2))
+				.thenReturn(exposees(9, 7));
+		SignedBatchResponse page = paginator.getPage(BATCH_RELEASE_TIME, BatchFormat.PROTO, null, 100,
+				ContentEncoding.IDENTITY);
+		assertEquals("7", page.getHeaders().get(BatchPaginator.HEADER_NEXT_PAGE));
+		assertEquals(2, Exposed.ProtoExposedList.parseFrom(page.getBody()).getExposedCount());
+	}
+
+	@Test
+	public void lastPageHasNoNextPage() {
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(BATCH_RELEASE_TIME, BATCH_LENGTH, 7, 2))
+				.thenReturn(exposees(3));
+		SignedBatchResponse page = paginator.getPage(BATCH_RELEASE_TIME, BatchFormat.PROTO, 7, 2,
+				ContentEncoding.IDENTITY);
+		assertFalse(page.getHeaders().containsKey(BatchPaginator.HEADER_NEXT_PAGE));
+	}
+
+	@Test
+	public void pagesHaveTheirOwnEtag() {
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(BATCH_RELEASE_TIME, BATCH_LENGTH, Integer.MAX_VALUE, 1))
+				.thenReturn(exposees(9));
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(BATCH_RELEASE_TIME, BATCH_LENGTH, Integer.MAX_VALUE, 2))
+				.thenReturn(exposees(9));
+		String small = paginator.getPage(BATCH_RELEASE_TIME, BatchFormat.PROTO, null, 1, ContentEncoding.IDENTITY)
+				.getEtag();
+		String large = paginator.getPage(BATCH_RELEASE_TIME, BatchFormat.PROTO, null, 2, ContentEncoding.IDENTITY)
+				.getEtag();
+		assertNotEquals(small, large);
+	}
+
+	@Test
+	public void pagesOfSealedBatchesAreCached() {
+		long sealedBatch = System.currentTimeMillis() / BATCH_LENGTH * BATCH_LENGTH;
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(sealedBatch, BATCH_LENGTH, Integer.MAX_VALUE, 2))
+				.thenReturn(exposees(9, 7));
+		SignedBatchResponse page = paginator.getPage(sealedBatch, BatchFormat.PROTO, null, 2,
+				ContentEncoding.IDENTITY);
+		assertSame(page, paginator.getPage(sealedBatch, BatchFormat.PROTO, null, 2, ContentEncoding.IDENTITY));
+		verify(dataService, times(1)).getSortedExposedColumnsForBatchReleaseTime(sealedBatch, BATCH_LENGTH,
+				Integer.MAX_VALUE, 2);
+
+		paginator.exposeeInserted(10, sealedBatch - 1);
+		assertEquals(0, paginator.size());
+		paginator.getPage(sealedBatch, BatchFormat.PROTO, null, 2, ContentEncoding.IDENTITY);
+		verify(dataService, times(2)).getSortedExposedColumnsForBatchReleaseTime(sealedBatch, BATCH_LENGTH,
+				Integer.MAX_VALUE, 2);
+	}
+
+	@Test
+	public void pagesOfOldestBatchesAreDroppedFirst() {
+		long sealedBatch = System.currentTimeMillis() / BATCH_LENGTH * BATCH_LENGTH;
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(anyLong(), eq(BATCH_LENGTH), anyInt(), anyInt()))
+				.thenReturn(exposees(3));
+		paginator.getPage(sealedBatch - BATCH_LENGTH, BatchFormat.PROTO, null, 1, ContentEncoding.IDENTITY);
+		paginator.getPage(sealedBatch - BATCH_LENGTH, BatchFormat.PROTO, null, 2, ContentEncoding.IDENTITY);
+		assertEquals(2, paginator.size());
+		SignedBatchResponse page = paginator.getPage(sealedBatch, BatchFormat.PROTO, null, 2,
+				ContentEncoding.IDENTITY);
+		assertEquals(1, paginator.size());
+		assertSame(page, paginator.getPage(sealedBatch, BatchFormat.PROTO, null, 2, ContentEncoding.IDENTITY));
+	}
+
+	@Test
+	public void onlyPagesAtPageBoundariesAreCached() {
+		long sealedBatch = System.currentTimeMillis() / BATCH_LENGTH * BATCH_LENGTH;
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(eq(sealedBatch), eq(BATCH_LENGTH), anyInt(),
+				eq(2))).thenReturn(exposees(3));
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(sealedBatch, BATCH_LENGTH, Integer.MAX_VALUE, 2))
+				.thenReturn(exposees(9, 7));
+		// nobody handed out this cursor
+		paginator.getPage(sealedBatch, BatchFormat.PROTO, 7, 2, ContentEncoding.IDENTITY);
+		assertEquals(0, paginator.size());
+
+		paginator.getPage(sealedBatch, BatchFormat.PROTO, null, 2, ContentEncoding.IDENTITY);
+		SignedBatchResponse next = paginator.getPage(sealedBatch, BatchFormat.PROTO, 7, 2,
+				ContentEncoding.IDENTITY);
+		assertEquals(2, paginator.size());
+		assertSame(next, paginator.getPage(sealedBatch, BatchFormat.PROTO, 7, 2, ContentEncoding.IDENTITY));
+		paginator.getPage(sealedBatch, BatchFormat.PROTO, 8, 2, ContentEncoding.IDENTITY);
+		assertEquals(2, paginator.size());
+		assertSame(next, paginator.getPage(sealedBatch, BatchFormat.PROTO, 7, 2, ContentEncoding.IDENTITY));
+	}
+
+	@Test
+	public void pagesOfOpenBatchesAreNotCached() {
+		long openBatch = System.currentTimeMillis() / BATCH_LENGTH * BATCH_LENGTH + BATCH_LENGTH;
+		when(dataService.getSortedExposedColumnsForBatchReleaseTime(openBatch, BATCH_LENGTH, Integer.MAX_VALUE, 2))
+				.thenReturn(exposees(3));
+		paginator.getPage(openBatch, BatchFormat.PROTO, null, 2, ContentEncoding.IDENTITY);
+		assertEquals(0, paginator.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptyPagesAreRejected() {
+		paginator.getPage(BATCH_RELEASE_TIME, BatchFormat.PROTO, null, 0, ContentEncoding.IDENTITY);
+	}
+
+	private static ExposeeColumns exposees(int... ids) {
+		ExposeeColumns.Builder builder = new ExposeeColumns.Builder();
+		for (int id : ids) {
+			builder.add(id, new byte[] { (byte) id }, 0, 1, 0);
+		}
+		return builder.build();
+	}
+}
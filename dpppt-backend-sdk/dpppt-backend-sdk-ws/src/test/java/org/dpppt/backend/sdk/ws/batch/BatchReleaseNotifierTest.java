@@ -0,0 +1,83 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.model.BatchMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BatchReleaseNotifierTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	private BatchReleaseNotifier notifier;
+
+	@Before
+	public void setup() throws InterruptedException {
+		BatchRenderer renderer = mock(BatchRenderer.class);
+		when(renderer.getBatchLength()).thenReturn(BATCH_LENGTH);
+		when(renderer.render(anyLong(), eq(BatchFormat.PROTO)))
+				.thenAnswer(invocation -> new SignedBatchResponse(invocation.getArgument(0), BatchFormat.PROTO,
+						ByteBuffer.allocate(0), 0, 7, "proto", Collections.emptyMap()));
+		BatchEtagIndex etagIndex = new BatchEtagIndex(new EtagGenerator(), BATCH_LENGTH, 0, 21);
+		BatchResponseCache cache = new BatchResponseCache(renderer, etagIndex, null, 0, 21,
+				new SimpleMeterRegistry());
+		notifier = new BatchReleaseNotifier(cache, BATCH_LENGTH, 0);
+		notifier.start();
+		for (int i = 0; i < 100 && notifier.getLatest() == null; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		notifier.close();
+	}
+
+	@Test
+	public void latestBatchIsLoadedOnStart() {
+		BatchMetadata latest = notifier.getLatest();
+		assertNotNull(latest);
+		long now = System.currentTimeMillis();
+		assertEquals(now - now % BATCH_LENGTH, (long) latest.getBatchReleaseTime());
+		assertEquals(7, (int) latest.getKeyCount());
+	}
+
+	@Test
+	public void waiterBehindLatestIsAnsweredRightAway() {
+		List<BatchMetadata> received = new ArrayList<>();
+		long latest = notifier.getLatest().getBatchReleaseTime();
+		notifier.awaitRelease(latest - BATCH_LENGTH, received::add);
+		assertEquals(1, received.size());
+		assertEquals(latest, (long) received.get(0).getBatchReleaseTime());
+	}
+
+	@Test
+	public void waiterForNextBatchWaits() {
+		List<BatchMetadata> received = new ArrayList<>();
+		Runnable cancel = notifier.awaitRelease(notifier.getLatest().getBatchReleaseTime(), received::add);
+		assertTrue(received.isEmpty());
+		cancel.run();
+	}
+}
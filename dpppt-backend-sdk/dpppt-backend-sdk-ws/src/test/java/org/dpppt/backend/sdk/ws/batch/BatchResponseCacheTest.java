@@ -0,0 +1,192 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BatchResponseCacheTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private BatchRenderer renderer;
+	private BatchEtagIndex etagIndex;
+	private BatchResponseCache cache;
+
+	@Before
+	public void setup() {
+		renderer = mock(BatchRenderer.class);
+		when(renderer.getBatchLength()).thenReturn(BATCH_LENGTH);
+		when(renderer.render(anyLong(), eq(BatchFormat.PROTO)))
+				.thenAnswer(invocation -> response(invocation.getArgument(0)));
+		etagIndex = new BatchEtagIndex(new EtagGenerator(), BATCH_LENGTH, 60 * 1000L, 21);
+		cache = new BatchResponseCache(renderer, etagIndex, null, 60 * 1000L, 21, new SimpleMeterRegistry());
+	}
+
+	@Test
+	public void sealedBatchIsRenderedOnce() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		SignedBatchResponse first = cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		SignedBatchResponse second = cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		assertSame(first, second);
+		assertSame(first, cache.getIfPresent(batchReleaseTime, BatchFormat.PROTO));
+		assertNull(cache.getIfPresent(batchReleaseTime, BatchFormat.JSON));
+		verify(renderer, times(1)).render(batchReleaseTime, BatchFormat.PROTO);
+		assertEquals(new EtagGenerator().getEtag(0, "proto"), etagIndex.getEtag(batchReleaseTime, BatchFormat.PROTO));
+	}
+
+	@Test
+	public void encodedVariantIsDerivedFromIdentity() {
+		when(renderer.encode(any(), eq(ContentEncoding.GZIP))).thenCallRealMethod();
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		SignedBatchResponse gzip = cache.getOrRender(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.GZIP);
+		assertEquals(ContentEncoding.GZIP, gzip.getEncoding());
+		assertEquals("proto-gzip", gzip.getEtag());
+		assertSame(gzip, cache.getOrRender(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.GZIP));
+		assertNotSame(gzip, cache.getIfPresent(batchReleaseTime, BatchFormat.PROTO));
+		assertEquals(2, cache.size());
+		verify(renderer, times(1)).render(batchReleaseTime, BatchFormat.PROTO);
+	}
+
+	@Test
+	public void batchWithinGracePeriodIsNotCached() {
+		long batchReleaseTime = System.currentTimeMillis();
+		SignedBatchResponse first = cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		SignedBatchResponse second = cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		assertNotSame(first, second);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void expiredBatchesAreNotCached() {
+		long batchReleaseTime = currentBatch() - 22 * 24 * 60 * 60 * 1000L;
+		cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void evictBeforeRemovesOlderBatches() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		cache.getOrRender(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO);
+		cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		cache.evictBefore(batchReleaseTime);
+		assertEquals(1, cache.size());
+		assertNull(cache.getIfPresent(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO));
+	}
+
+	@Test
+	public void lateInsertDropsBatch() {
+		when(renderer.render(anyLong(), eq(BatchFormat.PROTO))).thenAnswer(invocation -> new SignedBatchResponse(
+				invocation.getArgument(0), BatchFormat.PROTO, ByteBuffer.allocate(0), 50, 1, "proto",
+				Collections.emptyMap()));
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		List<Long> invalidated = new ArrayList<>();
+		cache.addInvalidationListener(invalidated::add);
+		cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		cache.getOrRender(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO);
+		// the open batch is not cached
+		cache.exposeeInserted(42, System.currentTimeMillis());
+		assertEquals(2, cache.size());
+		// ids commit out of order, so an id below the rendered max id counts as well
+		cache.exposeeInserted(42, batchReleaseTime - 1);
+		assertNull(cache.getIfPresent(batchReleaseTime, BatchFormat.PROTO));
+		// an unknown id drops the batch as well
+		cache.exposeeInserted(0, batchReleaseTime - BATCH_LENGTH - 1);
+		assertEquals(Arrays.asList(batchReleaseTime, batchReleaseTime - BATCH_LENGTH), invalidated);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void etagIsKnownWithoutRender() {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		when(renderer.getEtag(batchReleaseTime, BatchFormat.PROTO)).thenReturn("proto7");
+		assertEquals(ContentEncoding.GZIP.etag("proto7"),
+				cache.getEtag(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.GZIP));
+		verify(renderer, never()).render(anyLong(), any());
+
+		cache.getOrRender(batchReleaseTime, BatchFormat.PROTO);
+		assertEquals("proto", cache.getEtag(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY));
+	}
+
+	@Test
+	public void staleStoredResponsesAreNotRestored() throws IOException {
+		long batchReleaseTime = currentBatch() - BATCH_LENGTH;
+		BatchArtifactStore store = new BatchArtifactStore(folder.getRoot().toPath(), 21);
+		store.store(stored(batchReleaseTime, 7, "current"));
+		// received an insert while the node was down
+		store.store(stored(batchReleaseTime - BATCH_LENGTH, 5, "current"));
+		// signed before a key rotation
+		store.store(stored(batchReleaseTime - 2 * BATCH_LENGTH, 3, "rotated"));
+		Map<Long, Integer> maxIds = new HashMap<>();
+		maxIds.put(batchReleaseTime, 7);
+		maxIds.put(batchReleaseTime - BATCH_LENGTH, 6);
+		maxIds.put(batchReleaseTime - 2 * BATCH_LENGTH, 3);
+		DPPPTDataService dataService = mock(DPPPTDataService.class);
+		when(dataService.getMaxExposedIdPerBatch(anyLong(), anyLong())).thenReturn(maxIds);
+		etagIndex.seed(dataService);
+		when(renderer.isSignedWithCurrentKey(any())).thenAnswer(invocation -> {
+			SignedBatchResponse response = invocation.getArgument(0);
+			return "current".equals(response.getHeaders().get(ResponseSigner.HEADER_PUBLIC_KEY));
+		});
+
+		cache = new BatchResponseCache(renderer, etagIndex, store, 60 * 1000L, 21, new SimpleMeterRegistry());
+		cache.restore();
+
+		assertEquals(1, cache.size());
+		assertEquals(7, cache.getIfPresent(batchReleaseTime, BatchFormat.PROTO).getMaxId());
+		assertEquals(new EtagGenerator().getEtag(6, "proto"),
+				etagIndex.getEtag(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO));
+		assertEquals(1, store.load().size());
+	}
+
+	private static SignedBatchResponse stored(long batchReleaseTime, int maxId, String publicKey) {
+		return new SignedBatchResponse(batchReleaseTime, BatchFormat.PROTO, ByteBuffer.allocate(0), maxId, 0,
+				"proto" + maxId, Collections.singletonMap(ResponseSigner.HEADER_PUBLIC_KEY, publicKey));
+	}
+
+	private static long currentBatch() {
+		long now = System.currentTimeMillis();
+		return now - now % BATCH_LENGTH;
+	}
+
+	private static SignedBatchResponse response(long batchReleaseTime) {
+		return new SignedBatchResponse(batchReleaseTime, BatchFormat.PROTO, ByteBuffer.allocate(0), 0, 0, "proto",
+				Collections.emptyMap());
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.dpppt.backend.sdk.ws.batch.BatchValidityWindow.Rejection;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BatchValidityWindowTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+	private static final long RETENTION = 21 * 24 * 60 * 60 * 1000L;
+
+	private ResponseSigner signer;
+	private SimpleMeterRegistry meterRegistry;
+	private BatchValidityWindow window;
+
+	@Before
+	public void setup() {
+		signer = mock(ResponseSigner.class);
+		when(signer.sign(any(byte[].class), anyMap()))
+				.thenReturn(Collections.singletonMap(ResponseSigner.HEADER_SIGNATURE, "signature"));
+		meterRegistry = new SimpleMeterRegistry();
+		window = new BatchValidityWindow(BATCH_LENGTH, 21, signer, meterRegistry);
+	}
+
+	@Test
+	public void check() {
+		long latestBatch = currentBatch();
+		assertNull(window.check(latestBatch, true));
+		assertEquals(Rejection.MISALIGNED, window.check(latestBatch + 1, true));
+		assertEquals(Rejection.FUTURE, window.check(latestBatch + BATCH_LENGTH, true));
+		assertNull(window.check(latestBatch - RETENTION + BATCH_LENGTH, true));
+		assertEquals(Rejection.EXPIRED, window.check(latestBatch - RETENTION - BATCH_LENGTH, true));
+		assertNull(window.check(latestBatch - RETENTION - BATCH_LENGTH, false));
+	}
+
+	@Test
+	public void rejectionsArePresignedAndCounted() {
+		ResponseEntity<ByteBuffer> first = window.reject(Rejection.FUTURE, HttpStatus.NOT_FOUND);
+		ResponseEntity<ByteBuffer> second = window.reject(Rejection.FUTURE, HttpStatus.NOT_FOUND);
+		assertEquals(HttpStatus.NOT_FOUND, first.getStatusCode());
+		assertEquals("signature", second.getHeaders().getFirst(ResponseSigner.HEADER_SIGNATURE));
+		verify(signer, times(1)).sign(any(byte[].class), anyMap());
+		assertEquals(2.0, meterRegistry.counter("dp3t.batch.rejected", "reason", "future").count(), 0.0);
+	}
+
+	private static long currentBatch() {
+		long now = System.currentTimeMillis();
+		return now - now % BATCH_LENGTH;
+	}
+}
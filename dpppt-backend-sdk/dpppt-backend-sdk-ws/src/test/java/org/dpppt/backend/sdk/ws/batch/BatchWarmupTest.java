@@ -0,0 +1,54 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+public class BatchWarmupTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	@Test
+	public void rendersAllRetainedBatches() throws InterruptedException {
+		BatchResponseCache cache = mock(BatchResponseCache.class);
+		when(cache.isCacheable(anyLong())).thenReturn(true);
+		when(cache.getEncodings(any())).thenReturn(Collections.singletonList(ContentEncoding.IDENTITY));
+		BatchWarmup warmup = new BatchWarmup(cache, BATCH_LENGTH, 1, 2);
+
+		warmup.start();
+		for (int i = 0; i < 100 && !warmup.isDone(); i++) {
+			Thread.sleep(50);
+		}
+
+		assertTrue(warmup.isDone());
+		Health health = warmup.health();
+		assertEquals(Status.UP, health.getStatus());
+		assertEquals(12, health.getDetails().get("rendered"));
+		verify(cache, times(12)).getOrRender(anyLong(), eq(BatchFormat.PROTO), eq(ContentEncoding.IDENTITY));
+	}
+
+	@Test
+	public void disabledWarmupIsUp() {
+		BatchWarmup warmup = new BatchWarmup(mock(BatchResponseCache.class), BATCH_LENGTH, 21, 0);
+		warmup.start();
+		assertEquals(Status.UP, warmup.health().getStatus());
+	}
+}
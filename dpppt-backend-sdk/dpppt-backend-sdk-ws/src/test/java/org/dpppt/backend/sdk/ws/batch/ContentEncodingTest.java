@@ -0,0 +1,66 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class ContentEncodingTest {
+
+	private static final List<ContentEncoding> AVAILABLE = Arrays.asList(ContentEncoding.GZIP, ContentEncoding.DEFLATE,
+			ContentEncoding.IDENTITY);
+
+	@Test
+	public void negotiate() {
+		assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate(null, AVAILABLE));
+		assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate, br", AVAILABLE));
+		assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("deflate", AVAILABLE));
+		assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("GZIP;q=0, deflate;q=0.5", AVAILABLE));
+		assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*", AVAILABLE));
+		assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("br", AVAILABLE));
+		assertEquals(ContentEncoding.IDENTITY,
+				ContentEncoding.negotiate("gzip", Arrays.asList(ContentEncoding.IDENTITY)));
+	}
+
+	@Test
+	public void encodedBodiesDecodeToTheOriginal() throws IOException {
+		byte[] body = "{\"exposed\":[{\"key\":\"AAAA\",\"keyDate\":0}]}".getBytes(StandardCharsets.UTF_8);
+		byte[] gzip = ContentEncoding.GZIP.encode(ByteBuffer.wrap(body));
+		assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+		byte[] deflate = ContentEncoding.DEFLATE.encode(ByteBuffer.wrap(body));
+		assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+	}
+
+	@Test
+	public void encodedVariantsHaveTheirOwnEtag() {
+		assertEquals("json123", ContentEncoding.IDENTITY.etag("json123"));
+		assertEquals("json123-gzip", ContentEncoding.GZIP.etag("json123"));
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
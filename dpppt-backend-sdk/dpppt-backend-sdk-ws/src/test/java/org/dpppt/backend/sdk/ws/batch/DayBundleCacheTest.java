@@ -0,0 +1,99 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class DayBundleCacheTest {
+
+	private BatchRenderer renderer;
+	private DayBundleCache cache;
+	private String currentEtag = "day-proto1";
+
+	@Before
+	public void setup() {
+		renderer = mock(BatchRenderer.class);
+		when(renderer.renderDay(any(), eq(BatchFormat.PROTO)))
+				.thenAnswer(invocation -> response(invocation.getArgument(0), currentEtag));
+		when(renderer.getDayEtag(any(), eq(BatchFormat.PROTO))).thenAnswer(invocation -> currentEtag);
+		cache = new DayBundleCache(renderer, 60 * 1000L, 21, new SimpleMeterRegistry());
+	}
+
+	@Test
+	public void sealedDayIsRenderedOnce() {
+		LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+		String etag = cache.getEtag(yesterday, BatchFormat.PROTO);
+		SignedBatchResponse first = cache.getOrRender(yesterday, BatchFormat.PROTO, ContentEncoding.IDENTITY, etag);
+		currentEtag = "day-proto2";
+		assertEquals(etag, cache.getEtag(yesterday, BatchFormat.PROTO));
+		assertSame(first, cache.getOrRender(yesterday, BatchFormat.PROTO, ContentEncoding.IDENTITY, etag));
+		verify(renderer, times(1)).renderDay(yesterday, BatchFormat.PROTO);
+		verify(renderer, never()).getDayEtag(any(), any());
+	}
+
+	@Test
+	public void currentDayIsReusedUntilItChanges() {
+		LocalDate today = LocalDate.now(ZoneOffset.UTC);
+		String etag = cache.getEtag(today, BatchFormat.PROTO);
+		SignedBatchResponse first = cache.getOrRender(today, BatchFormat.PROTO, ContentEncoding.IDENTITY, etag);
+		assertSame(first, cache.getOrRender(today, BatchFormat.PROTO, ContentEncoding.IDENTITY, etag));
+
+		currentEtag = "day-proto2";
+		etag = cache.getEtag(today, BatchFormat.PROTO);
+		SignedBatchResponse second = cache.getOrRender(today, BatchFormat.PROTO, ContentEncoding.IDENTITY, etag);
+		assertNotSame(first, second);
+		assertEquals("day-proto2", second.getEtag());
+		verify(renderer, times(2)).renderDay(today, BatchFormat.PROTO);
+	}
+
+	@Test
+	public void lateInsertDropsSealedDay() {
+		LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+		String etag = cache.getEtag(yesterday, BatchFormat.PROTO);
+		currentEtag = "day-proto2";
+		// an insert into the current day
+		cache.exposeeInserted(42, System.currentTimeMillis());
+		assertEquals(etag, cache.getEtag(yesterday, BatchFormat.PROTO));
+
+		cache.exposeeInserted(42, yesterday.atTime(12, 0).toInstant(ZoneOffset.UTC).toEpochMilli());
+		assertEquals("day-proto2", cache.getEtag(yesterday, BatchFormat.PROTO));
+		verify(renderer, times(2)).renderDay(yesterday, BatchFormat.PROTO);
+	}
+
+	@Test
+	public void expiredDaysAreNotCached() {
+		LocalDate expired = LocalDate.now(ZoneOffset.UTC).minusDays(30);
+		cache.getOrRender(expired, BatchFormat.PROTO, ContentEncoding.IDENTITY, null);
+		cache.getOrRender(expired, BatchFormat.PROTO, ContentEncoding.IDENTITY, null);
+		verify(renderer, times(2)).renderDay(expired, BatchFormat.PROTO);
+	}
+
+	private static SignedBatchResponse response(LocalDate day, String etag) {
+		long endOfDay = day.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		return new SignedBatchResponse(endOfDay, BatchFormat.PROTO, ByteBuffer.allocate(0), 0, 0, etag,
+				Collections.emptyMap());
+	}
+}
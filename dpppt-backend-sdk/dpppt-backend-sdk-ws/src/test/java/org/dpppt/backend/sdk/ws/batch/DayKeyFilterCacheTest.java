@@ -0,0 +1,67 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class DayKeyFilterCacheTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	private DayKeyFilterCache cache;
+
+	@Before
+	public void setup() {
+		DPPPTDataService dataService = mock(DPPPTDataService.class);
+		when(dataService.getExposedColumnsUpToIdReceivedBetween(anyInt(), anyLong(), anyLong()))
+				.thenAnswer(invocation -> ExposeeColumns.empty());
+		ResponseSigner signer = mock(ResponseSigner.class);
+		when(signer.sign(any(byte[].class), anyMap()))
+				.thenReturn(Collections.singletonMap(ResponseSigner.HEADER_SIGNATURE, "signature"));
+		cache = new DayKeyFilterCache(dataService, new EtagGenerator(), signer, 0.001, BATCH_LENGTH, 0, 21,
+				new SimpleMeterRegistry());
+	}
+
+	@Test
+	public void sealedDayIsBuiltOnce() {
+		LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+		DayKeyFilter filter = cache.get(yesterday);
+		assertSame(filter, cache.get(yesterday));
+	}
+
+	@Test
+	public void lateInsertDropsSealedDay() {
+		LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+		DayKeyFilter filter = cache.get(yesterday);
+		// an insert into the open batch
+		cache.exposeeInserted(42, System.currentTimeMillis());
+		assertSame(filter, cache.get(yesterday));
+
+		cache.exposeeInserted(42, yesterday.atTime(12, 0).toInstant(ZoneOffset.UTC).toEpochMilli());
+		assertNotSame(filter, cache.get(yesterday));
+	}
+}
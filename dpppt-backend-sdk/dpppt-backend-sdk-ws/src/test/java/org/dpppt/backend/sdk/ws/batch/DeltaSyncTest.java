@@ -0,0 +1,134 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Base64;
+import java.util.Collections;
+
+import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.EtagGenerator;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.model.proto.Exposed;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class DeltaSyncTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+	private DPPPTDataService dataService;
+	private DeltaSync deltaSync;
+
+	@Before
+	public void setup() {
+		dataService = mock(DPPPTDataService.class);
+		ResponseSigner signer = mock(ResponseSigner.class);
+		when(signer.sign(any(byte[].class), anyMap()))
+				.thenReturn(Collections.singletonMap(ResponseSigner.HEADER_SIGNATURE, "signature"));
+		BatchRenderer renderer = new BatchRenderer(dataService, new EtagGenerator(), signer, new ObjectMapper(),
+				BATCH_LENGTH, Collections.emptyList(), new SimpleMeterRegistry());
+		deltaSync = new DeltaSync(dataService, renderer, BATCH_LENGTH, 0, 21, 2);
+	}
+
+	@Test
+	public void cursorRoundTrip() {
+		DeltaCursor cursor = new DeltaCursor(42, 1589472000000L);
+		assertEquals(cursor, DeltaCursor.decode(cursor.encode()));
+		DeltaCursor backfilling = new DeltaCursor(42, 1589472000000L, 1589464800000L, 17);
+		assertEquals(backfilling, DeltaCursor.decode(backfilling.encode()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void malformedCursorIsRejected() {
+		DeltaCursor.decode(Base64.getUrlEncoder().encodeToString(new byte[] { 1, 0, 0 }));
+	}
+
+	@Test
+	public void fullPageHasMore() throws Exception {
+		when(dataService.getExposedColumnsAfterId(eq(0), anyLong(), eq(2))).thenReturn(exposees(1, 2));
+		SignedBatchResponse page = deltaSync.nextPage(DeltaCursor.START);
+
+		long latestBatch = System.currentTimeMillis() / BATCH_LENGTH * BATCH_LENGTH;
+		DeltaCursor next = DeltaCursor.decode(page.getHeaders().get(DeltaSync.HEADER_NEXT_CURSOR));
+		assertEquals(new DeltaCursor(2, latestBatch), next);
+		assertEquals("true", page.getHeaders().get(DeltaSync.HEADER_HAS_MORE));
+		assertEquals(2, Exposed.ProtoExposedList.parseFrom(page.getBody()).getExposedCount());
+		verify(dataService, never()).getExposedColumnsUpToIdReceivedBetween(anyInt(), anyInt(), anyLong(), anyLong(),
+				anyInt());
+	}
+
+	@Test
+	public void newRangeIncludesLateCommits() throws Exception {
+		long latestBatch = System.currentTimeMillis() / BATCH_LENGTH * BATCH_LENGTH;
+		DeltaCursor cursor = new DeltaCursor(5, latestBatch - BATCH_LENGTH);
+		when(dataService.getExposedColumnsUpToIdReceivedBetween(0, 5, latestBatch - BATCH_LENGTH, latestBatch, 2))
+				.thenReturn(exposees(4));
+		when(dataService.getExposedColumnsAfterId(5, latestBatch, 1)).thenReturn(ExposeeColumns.empty());
+		SignedBatchResponse page = deltaSync.nextPage(cursor);
+
+		assertEquals(new DeltaCursor(5, latestBatch),
+				DeltaCursor.decode(page.getHeaders().get(DeltaSync.HEADER_NEXT_CURSOR)));
+		assertEquals("false", page.getHeaders().get(DeltaSync.HEADER_HAS_MORE));
+		assertEquals(1, Exposed.ProtoExposedList.parseFrom(page.getBody()).getExposedCount());
+	}
+
+	@Test
+	public void lateCommitsArePaged() throws Exception {
+		long latestBatch = System.currentTimeMillis() / BATCH_LENGTH * BATCH_LENGTH;
+		DeltaCursor cursor = new DeltaCursor(5, latestBatch - BATCH_LENGTH);
+		when(dataService.getExposedColumnsUpToIdReceivedBetween(0, 5, latestBatch - BATCH_LENGTH, latestBatch, 2))
+				.thenReturn(exposees(2, 3));
+		SignedBatchResponse page = deltaSync.nextPage(cursor);
+
+		DeltaCursor next = DeltaCursor.decode(page.getHeaders().get(DeltaSync.HEADER_NEXT_CURSOR));
+		assertEquals(new DeltaCursor(5, latestBatch, latestBatch - BATCH_LENGTH, 3), next);
+		assertEquals("true", page.getHeaders().get(DeltaSync.HEADER_HAS_MORE));
+		assertEquals(2, Exposed.ProtoExposedList.parseFrom(page.getBody()).getExposedCount());
+		verify(dataService, never()).getExposedColumnsAfterId(anyInt(), anyLong(), anyInt());
+
+		when(dataService.getExposedColumnsUpToIdReceivedBetween(3, 5, latestBatch - BATCH_LENGTH, latestBatch, 2))
+				.thenReturn(exposees(4));
+		when(dataService.getExposedColumnsAfterId(5, latestBatch, 1)).thenReturn(exposees(6));
+		page = deltaSync.nextPage(next);
+
+		assertEquals(new DeltaCursor(6, latestBatch),
+				DeltaCursor.decode(page.getHeaders().get(DeltaSync.HEADER_NEXT_CURSOR)));
+		assertEquals("true", page.getHeaders().get(DeltaSync.HEADER_HAS_MORE));
+		assertEquals(2, Exposed.ProtoExposedList.parseFrom(page.getBody()).getExposedCount());
+	}
+
+	@Test
+	public void expiredCursorStartsOver() {
+		when(dataService.getExposedColumnsAfterId(anyInt(), anyLong(), anyInt())).thenReturn(ExposeeColumns.empty());
+		deltaSync.nextPage(new DeltaCursor(5, BATCH_LENGTH));
+		verify(dataService).getExposedColumnsAfterId(eq(0), anyLong(), eq(2));
+	}
+
+	private static ExposeeColumns exposees(int... ids) {
+		ExposeeColumns.Builder builder = new ExposeeColumns.Builder();
+		for (int id : ids) {
+			builder.add(id, new byte[] { (byte) id }, 0, 1, 0);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GolombCodedSetTest {
+
+	private static final int BITS = 10;
+
+	@Test
+	public void containsAllKeys() {
+		List<byte[]> keys = randomKeys(new Random(1), 1000);
+		byte[] set = GolombCodedSet.build(keys, BITS);
+		for (byte[] key : keys) {
+			assertTrue(GolombCodedSet.contains(set, keys.size(), BITS, key));
+		}
+	}
+
+	@Test
+	public void falsePositiveRateIsBounded() {
+		Random random = new Random(2);
+		List<byte[]> keys = randomKeys(random, 1000);
+		byte[] set = GolombCodedSet.build(keys, BITS);
+		int falsePositives = 0;
+		for (byte[] key : randomKeys(random, 10000)) {
+			if (GolombCodedSet.contains(set, keys.size(), BITS, key)) {
+				falsePositives++;
+			}
+		}
+		// about 10 are expected at 2^-10
+		assertTrue(falsePositives < 30);
+	}
+
+	@Test
+	public void setIsCompact() {
+		List<byte[]> keys = randomKeys(new Random(3), 1000);
+		// about bits + 2 bits per key instead of 16 bytes
+		assertTrue(GolombCodedSet.build(keys, BITS).length < 1000 * (BITS + 3) / 8);
+	}
+
+	@Test
+	public void emptySetContainsNothing() {
+		byte[] set = GolombCodedSet.build(Collections.emptyList(), BITS);
+		assertEquals(0, set.length);
+		assertFalse(GolombCodedSet.contains(set, 0, BITS, new byte[16]));
+	}
+
+	@Test
+	public void bitsFollowFalsePositiveRate() {
+		assertEquals(10, GolombCodedSet.bitsFor(0.001));
+		assertEquals(14, GolombCodedSet.bitsFor(0.0001));
+	}
+
+	private static List<byte[]> randomKeys(Random random, int count) {
+		List<byte[]> keys = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			byte[] key = new byte[16];
+			random.nextBytes(key);
+			keys.add(key);
+		}
+		return keys;
+	}
+}
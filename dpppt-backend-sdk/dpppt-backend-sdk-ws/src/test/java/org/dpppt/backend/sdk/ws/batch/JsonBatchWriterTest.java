@@ -0,0 +1,99 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.model.ExposedOverview;
+import org.dpppt.backend.sdk.model.Exposee;
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonBatchWriterTest {
+
+	private static final long BATCH_RELEASE_TIME = 1588334400000L;
+
+	private final ObjectMapper objectMapper = new ObjectMapper()
+			.setSerializationInclusion(JsonInclude.Include.NON_ABSENT);
+
+	@Test
+	public void writesSameBytesAsObjectMapper() throws Exception {
+		List<Exposee> exposees = randomExposees(5);
+		ExposedOverview overview = new ExposedOverview(exposees);
+		overview.setBatchReleaseTime(BATCH_RELEASE_TIME);
+		assertArrayEquals(objectMapper.writeValueAsBytes(overview), write(BATCH_RELEASE_TIME, exposees).toByteArray());
+	}
+
+	@Test
+	public void writesColumnsLikeRows() {
+		List<Exposee> exposees = randomExposees(4);
+		ExposeeColumns.Builder columns = new ExposeeColumns.Builder();
+		for (Exposee exposee : exposees) {
+			columns.processRow(exposee.getId(), Base64.getDecoder().decode(exposee.getKey()), exposee.getKeyDate());
+		}
+		JsonBatchWriter writer = new JsonBatchWriter(objectMapper.getFactory(), BATCH_RELEASE_TIME);
+		writer.writeAll(columns.build());
+		assertArrayEquals(write(BATCH_RELEASE_TIME, exposees).toByteArray(), writer.toByteArray());
+		assertEquals(4, writer.getMaxId());
+	}
+
+	@Test
+	public void writesNullReleaseTime() throws Exception {
+		List<Exposee> exposees = randomExposees(2);
+		byte[] expected = new ObjectMapper().writeValueAsBytes(new ExposedOverview(exposees));
+		assertArrayEquals(expected, write(null, exposees).toByteArray());
+	}
+
+	@Test
+	public void hashesWrittenBytes() throws Exception {
+		JsonBatchWriter writer = write(BATCH_RELEASE_TIME, randomExposees(3));
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(writer.toByteArray()),
+				writer.getContentHash());
+		assertEquals(3, writer.getCount());
+		assertEquals(3, writer.getMaxId());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsRowsAfterCompletion() {
+		JsonBatchWriter writer = write(BATCH_RELEASE_TIME, randomExposees(1));
+		writer.toByteArray();
+		writer.processRow(2, new byte[32], 1);
+	}
+
+	private JsonBatchWriter write(Long batchReleaseTime, List<Exposee> exposees) {
+		JsonBatchWriter writer = new JsonBatchWriter(objectMapper.getFactory(), batchReleaseTime);
+		for (Exposee exposee : exposees) {
+			writer.processRow(exposee.getId(), Base64.getDecoder().decode(exposee.getKey()), exposee.getKeyDate());
+		}
+		return writer;
+	}
+
+	private static List<Exposee> randomExposees(int count) {
+		Random random = new Random(1);
+		List<Exposee> exposees = new ArrayList<>();
+		for (int i = count; i > 0; i--) {
+			byte[] key = new byte[32];
+			random.nextBytes(key);
+			Exposee exposee = new Exposee();
+			exposee.setId(i);
+			exposee.setKey(Base64.getEncoder().encodeToString(key));
+			exposee.setKeyDate(BATCH_RELEASE_TIME - i * 86400000L);
+			exposees.add(exposee);
+		}
+		return exposees;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class KeyDateWindowCacheTest {
+
+	private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private BatchRenderer renderer;
+	private KeyDateWindowCache cache;
+
+	@Before
+	public void setup() {
+		renderer = mock(BatchRenderer.class);
+		when(renderer.getBatchLength()).thenReturn(BATCH_LENGTH);
+		when(renderer.render(anyLong(), eq(BatchFormat.PROTO), any(KeyDateWindow.class)))
+				.thenAnswer(invocation -> new SignedBatchResponse(invocation.getArgument(0), BatchFormat.PROTO,
+						ByteBuffer.allocate(0), 0, 0, "proto", Collections.emptyMap()));
+		when(renderer.renderDay(any(LocalDate.class), eq(BatchFormat.PROTO), any(KeyDateWindow.class)))
+				.thenAnswer(invocation -> new SignedBatchResponse(0, BatchFormat.PROTO, ByteBuffer.allocate(0), 0, 0,
+						"proto", Collections.emptyMap()));
+		cache = new KeyDateWindowCache(renderer, 0, 21, 2, new SimpleMeterRegistry());
+	}
+
+	@Test
+	public void windowIsWidenedToWholeDays() {
+		long today = today();
+		KeyDateWindow window = KeyDateWindow.of(today - 5 * DAY + 1, today - 3 * DAY + 1, 21);
+		assertEquals(today - 5 * DAY, (long) window.getFrom());
+		assertEquals(today - 2 * DAY, (long) window.getTo());
+		assertEquals(window.toString(), KeyDateWindow.of(today - 5 * DAY, today - 2 * DAY - 1, 21).toString());
+		assertNull(KeyDateWindow.of(null, today - 3 * DAY, 21).getFrom());
+		assertNull(KeyDateWindow.of(null, null, 21));
+	}
+
+	@Test
+	public void windowIsClampedToStoredKeyDates() {
+		long today = today();
+		assertNull(KeyDateWindow.of(0L, null, 21));
+		assertNull(KeyDateWindow.of(0L, today + 5 * DAY, 21));
+		KeyDateWindow window = KeyDateWindow.of(0L, today - 3 * DAY, 21);
+		assertNull(window.getFrom());
+		assertEquals(today - 2 * DAY, (long) window.getTo());
+		assertEquals(today + DAY, (long) KeyDateWindow.of(today + 5 * DAY, null, 21).getFrom());
+		assertEquals(KeyDateWindow.of(null, 0L, 21).toString(), KeyDateWindow.of(null, DAY, 21).toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invertedWindowIsRejected() {
+		KeyDateWindow.of(today() - DAY, today() - 2 * DAY, 21);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void windowInvertedWithinADayIsRejected() {
+		KeyDateWindow.of(today() - 2, today() - DAY + 1, 21);
+	}
+
+	@Test
+	public void windowSelectsKeyDatesWithinADay() {
+		// key dates are not aligned to midnight, e.g. the onset of symptoms
+		long keyDate = today() - 3 * DAY + 10 * 60 * 60 * 1000L;
+		KeyDateWindow window = KeyDateWindow.of(keyDate - 1, keyDate + 1, 21);
+		assertTrue(window.getFrom() <= keyDate);
+		assertTrue(keyDate < window.getTo());
+		window = KeyDateWindow.of(keyDate - 1, null, 21);
+		assertTrue(window.getFrom() <= keyDate);
+		window = KeyDateWindow.of(null, keyDate, 21);
+		assertTrue(keyDate < window.getTo());
+	}
+
+	@Test
+	public void filteredBatchIsCachedPerWindow() {
+		long batchReleaseTime = latestBatch() - BATCH_LENGTH;
+		KeyDateWindow window = KeyDateWindow.of(today() - DAY, null, 21);
+		SignedBatchResponse first = cache.getOrRender(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				window);
+		assertSame(first, cache.getOrRender(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				KeyDateWindow.of(today() - DAY, null, 21)));
+		cache.getOrRender(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				KeyDateWindow.of(null, today() - DAY, 21));
+		assertEquals(2, cache.size());
+		verify(renderer, times(2)).render(eq(batchReleaseTime), eq(BatchFormat.PROTO), any(KeyDateWindow.class));
+	}
+
+	@Test
+	public void lateInsertDropsFilteredBatch() {
+		long batchReleaseTime = latestBatch() - BATCH_LENGTH;
+		cache.getOrRender(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				KeyDateWindow.of(today() - DAY, null, 21));
+		cache.exposeeInserted(42, System.currentTimeMillis());
+		assertEquals(1, cache.size());
+		cache.exposeeInserted(42, batchReleaseTime - 1);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void lateInsertDropsFilteredDay() {
+		LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+		cache.getOrRenderDay(yesterday, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				KeyDateWindow.of(today() - DAY, null, 21));
+		assertEquals(1, cache.size());
+		cache.exposeeInserted(42, today() - 1);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void oldestEntriesAreDroppedFirst() {
+		long batchReleaseTime = latestBatch() - BATCH_LENGTH;
+		cache.getOrRender(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				KeyDateWindow.of(today() - DAY, null, 21));
+		cache.getOrRender(batchReleaseTime - BATCH_LENGTH, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				KeyDateWindow.of(null, today() - DAY, 21));
+		assertEquals(2, cache.size());
+		SignedBatchResponse latest = cache.getOrRender(batchReleaseTime, BatchFormat.PROTO,
+				ContentEncoding.IDENTITY, KeyDateWindow.of(today() - DAY, null, 21));
+		assertEquals(1, cache.size());
+		assertSame(latest, cache.getOrRender(batchReleaseTime, BatchFormat.PROTO, ContentEncoding.IDENTITY,
+				KeyDateWindow.of(today() - DAY, null, 21)));
+	}
+
+	private static long today() {
+		long now = System.currentTimeMillis();
+		return now - now % DAY;
+	}
+
+	private static long latestBatch() {
+		long now = System.currentTimeMillis();
+		return now - now % BATCH_LENGTH;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.model.Exposee;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares rendering a protobuf batch through the generated builders with the
+ * {@link ProtoBatchWriter}, fed row by row or from {@link ExposeeColumns}. All
+ * start from the column values of the rows, the builder path maps them to
+ * exposees first as the row mapper does.
+ * <p>
+ * Run with <code>mvn test-compile</code> and the main method, the allocation
+ * rate is reported by the GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtoBatchWriterBenchmark {
+
+	private static final long BATCH_RELEASE_TIME = 1588334400000L;
+
+	@Param({ "1000", "100000" })
+	private int rows;
+
+	private int[] ids;
+	private byte[][] keys;
+	private long[] keyDates;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		ids = new int[rows];
+		keys = new byte[rows][32];
+		keyDates = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			random.nextBytes(keys[i]);
+			ids[i] = rows - i;
+			keyDates[i] = BATCH_RELEASE_TIME - random.nextInt(14) * 86400000L;
+		}
+	}
+
+	@Benchmark
+	public byte[] builder() {
+		List<Exposee> exposees = new ArrayList<>();
+		for (int i = 0; i < rows; i++) {
+			Exposee exposee = new Exposee();
+			exposee.setKey(Base64.getEncoder().encodeToString(keys[i]));
+			exposee.setId(ids[i]);
+			exposee.setKeyDate(keyDates[i]);
+			exposees.add(exposee);
+		}
+		return ProtoBatchWriterTest.renderWithBuilder(BATCH_RELEASE_TIME, exposees);
+	}
+
+	@Benchmark
+	public byte[] streaming() {
+		ProtoBatchWriter writer = new ProtoBatchWriter(BATCH_RELEASE_TIME);
+		for (int i = 0; i < rows; i++) {
+			writer.processRow(ids[i], keys[i], keyDates[i]);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] columns() {
+		ExposeeColumns.Builder columns = new ExposeeColumns.Builder();
+		for (int i = 0; i < rows; i++) {
+			columns.processRow(ids[i], keys[i], keyDates[i]);
+		}
+		ProtoBatchWriter writer = new ProtoBatchWriter(BATCH_RELEASE_TIME);
+		writer.writeAll(columns.build());
+		return writer.toByteArray();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ProtoBatchWriterBenchmark.class.getSimpleName()).addProfiler("gc")
+				.build()).run();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.dpppt.backend.sdk.model.Exposee;
+import org.dpppt.backend.sdk.model.proto.Exposed;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class ProtoBatchWriterTest {
+
+	private static final long BATCH_RELEASE_TIME = 1588334400000L;
+
+	@Test
+	public void writesSameBytesAsBuilder() {
+		Random random = new Random(1);
+		List<Exposee> exposees = new ArrayList<>();
+		// all padding variants, an empty key and a default key date
+		int[] keyLengths = { 32, 16, 1, 2, 3, 0, 32 };
+		for (int i = 0; i < keyLengths.length; i++) {
+			byte[] key = new byte[keyLengths[i]];
+			random.nextBytes(key);
+			exposees.add(exposee(keyLengths.length - i, key, i == 1 ? 0 : BATCH_RELEASE_TIME - i * 86400000L));
+		}
+		assertSameOutput(BATCH_RELEASE_TIME, exposees);
+	}
+
+	@Test
+	public void writesEmptyBatch() {
+		assertSameOutput(BATCH_RELEASE_TIME, new ArrayList<>());
+		assertSameOutput(0, new ArrayList<>());
+	}
+
+	@Test
+	public void countsRows() {
+		ProtoBatchWriter writer = new ProtoBatchWriter(BATCH_RELEASE_TIME);
+		writer.processRow(7, new byte[32], 1);
+		writer.processRow(9, new byte[32], 1);
+		writer.processRow(3, new byte[32], 1);
+		assertEquals(9, writer.getMaxId());
+		assertEquals(3, writer.getCount());
+	}
+
+	private static void assertSameOutput(long batchReleaseTime, List<Exposee> exposees) {
+		byte[] expected = renderWithBuilder(batchReleaseTime, exposees);
+		ProtoBatchWriter writer = new ProtoBatchWriter(batchReleaseTime);
+		ExposeeColumns.Builder columns = new ExposeeColumns.Builder();
+		for (Exposee exposee : exposees) {
+			byte[] key = Base64.getDecoder().decode(exposee.getKey());
+			writer.processRow(exposee.getId(), key, exposee.getKeyDate());
+			columns.processRow(exposee.getId(), key, exposee.getKeyDate());
+		}
+		assertArrayEquals(expected, writer.toByteArray());
+
+		ProtoBatchWriter columnWriter = new ProtoBatchWriter(batchReleaseTime);
+		columnWriter.writeAll(columns.build());
+		assertArrayEquals(expected, columnWriter.toByteArray());
+	}
+
+	static byte[] renderWithBuilder(long batchReleaseTime, List<Exposee> exposees) {
+		Exposed.ProtoExposedList.Builder list = Exposed.ProtoExposedList.newBuilder()
+				.setBatchReleaseTime(batchReleaseTime);
+		for (Exposee exposee : exposees) {
+			list.addExposed(Exposed.ProtoExposee.newBuilder()
+					.setKey(ByteString.copyFrom(Base64.getDecoder().decode(exposee.getKey())))
+					.setKeyDate(exposee.getKeyDate()));
+		}
+		return list.build().toByteArray();
+	}
+
+	private static Exposee exposee(int id, byte[] key, long keyDate) {
+		Exposee exposee = new Exposee();
+		exposee.setId(id);
+		exposee.setKey(Base64.getEncoder().encodeToString(key));
+		exposee.setKeyDate(keyDate);
+		return exposee;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.dpppt.backend.sdk.data.ExposeeColumns;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+
+public class ProtoV2BatchWriterTest {
+
+	private static final long DAY = 86400000L;
+	private static final long BATCH_RELEASE_TIME = 1588334400000L;
+
+	@Test
+	public void writesKeysAndDayOffsets() throws IOException {
+		Random random = new Random(1);
+		byte[][] keys = new byte[20][32];
+		ProtoV2BatchWriter writer = new ProtoV2BatchWriter(BATCH_RELEASE_TIME);
+		ExposeeColumns.Builder columns = new ExposeeColumns.Builder();
+		for (int i = 0; i < keys.length; i++) {
+			random.nextBytes(keys[i]);
+			long keyDate = Math.floorDiv(BATCH_RELEASE_TIME, DAY) * DAY - i * DAY;
+			writer.processRow(i + 1, keys[i], keyDate);
+			columns.processRow(i + 1, keys[i], keyDate);
+		}
+		byte[] body = writer.toByteArray();
+
+		Batch batch = Batch.parse(body);
+		assertEquals(BATCH_RELEASE_TIME, batch.batchReleaseTime);
+		assertEquals(32, batch.keyLength);
+		assertEquals(keys.length, batch.keyDates.size());
+		for (int i = 0; i < keys.length; i++) {
+			assertArrayEquals(keys[i], batch.keys.substring(i * 32, i * 32 + 32).toByteArray());
+			assertEquals(i, (int) batch.keyDates.get(i));
+		}
+		assertEquals(20, writer.getMaxId());
+		assertEquals(20, writer.getCount());
+
+		ProtoV2BatchWriter columnWriter = new ProtoV2BatchWriter(BATCH_RELEASE_TIME);
+		columnWriter.writeAll(columns.build());
+		assertArrayEquals(body, columnWriter.toByteArray());
+
+		ProtoBatchWriter v1 = new ProtoBatchWriter(BATCH_RELEASE_TIME);
+		v1.writeAll(columns.build());
+		assertTrue(body.length < v1.toByteArray().length);
+	}
+
+	@Test
+	public void roundsKeyDatesToDays() throws IOException {
+		ProtoV2BatchWriter writer = new ProtoV2BatchWriter(BATCH_RELEASE_TIME);
+		writer.processRow(1, new byte[32], BATCH_RELEASE_TIME - DAY + 1);
+		writer.processRow(2, new byte[32], BATCH_RELEASE_TIME + DAY);
+		writer.processRow(3, new byte[32], 0);
+		Batch batch = Batch.parse(writer.toByteArray());
+		assertEquals(1, (int) batch.keyDates.get(0));
+		assertEquals(-1, (int) batch.keyDates.get(1));
+		assertEquals(BATCH_RELEASE_TIME / DAY, (long) batch.keyDates.get(2));
+	}
+
+	@Test
+	public void writesEmptyBatch() throws IOException {
+		Batch batch = Batch.parse(new ProtoV2BatchWriter(BATCH_RELEASE_TIME).toByteArray());
+		assertEquals(BATCH_RELEASE_TIME, batch.batchReleaseTime);
+		assertEquals(0, batch.keyLength);
+		assertTrue(batch.keyDates.isEmpty());
+		assertEquals(0, new ProtoV2BatchWriter(0).toByteArray().length);
+	}
+
+	@Test
+	public void skipsKeysOfOtherLengths() throws IOException {
+		ProtoV2BatchWriter writer = new ProtoV2BatchWriter(BATCH_RELEASE_TIME);
+		writer.processRow(1, new byte[32], BATCH_RELEASE_TIME);
+		writer.processRow(2, new byte[16], BATCH_RELEASE_TIME);
+		writer.processRow(3, new byte[32], BATCH_RELEASE_TIME);
+		Batch batch = Batch.parse(writer.toByteArray());
+		assertEquals(32, batch.keyLength);
+		assertEquals(64, batch.keys.size());
+		assertEquals(2, batch.keyDates.size());
+		assertEquals(2, writer.getCount());
+		assertEquals(3, writer.getMaxId());
+	}
+
+	/**
+	 * Reads a batch as a client generating its code from
+	 * <code>exposed_v2.proto</code> would.
+	 */
+	private static class Batch {
+		long batchReleaseTime;
+		int keyLength;
+		ByteString keys = ByteString.EMPTY;
+		List<Integer> keyDates = new ArrayList<>();
+
+		static Batch parse(byte[] body) throws IOException {
+			Batch batch = new Batch();
+			CodedInputStream input = CodedInputStream.newInstance(body);
+			for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+				switch (tag >>> 3) {
+				case ProtoV2BatchWriter.BATCH_RELEASE_TIME_FIELD_NUMBER:
+					batch.batchReleaseTime = input.readInt64();
+					break;
+				case ProtoV2BatchWriter.KEY_LENGTH_FIELD_NUMBER:
+					batch.keyLength = input.readUInt32();
+					break;
+				case ProtoV2BatchWriter.KEYS_FIELD_NUMBER:
+					batch.keys = input.readBytes();
+					break;
+				case ProtoV2BatchWriter.KEY_DATES_FIELD_NUMBER:
+					int limit = input.pushLimit(input.readRawVarint32());
+					while (input.getBytesUntilLimit() > 0) {
+						batch.keyDates.add(input.readSInt32());
+					}
+					input.popLimit(limit);
+					break;
+				default:
+					input.skipField(tag);
+				}
+			}
+			return batch;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Created by Ubique Innovation AG
+ * https://www.ubique.ch
+ * Copyright (c) 2020. All rights reserved.
+ */
+
+package org.dpppt.backend.sdk.ws.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final Counter leaders = registry.counter("leaders");
+	private final Counter waits = registry.counter("waits");
+
+	@Test
+	public void concurrentCallersShareOneExecution() throws Exception {
+		SingleFlight<Long, Integer> singleFlight = new SingleFlight<>(leaders, waits);
+		AtomicInteger executions = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		int callers = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				results.add(executor.submit(() -> singleFlight.execute(42L, () -> {
+					executions.incrementAndGet();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return 7;
+				})));
+			}
+			// give all callers time to either lead or wait
+			while (leaders.count() + waits.count() < callers) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			for (Future<Integer> result : results) {
+				assertEquals(Integer.valueOf(7), result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, executions.get());
+		assertEquals(1.0, leaders.count(), 0.0);
+		assertEquals(callers - 1.0, waits.count(), 0.0);
+	}
+
+	@Test
+	public void failureIsNotRemembered() {
+		SingleFlight<Long, Integer> singleFlight = new SingleFlight<>(leaders, waits);
+		try {
+			singleFlight.execute(1L, () -> {
+				throw new IllegalStateException("db down");
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("db down", e.getMessage());
+		}
+		assertEquals(Integer.valueOf(3), singleFlight.execute(1L, () -> 3));
+	}
+}
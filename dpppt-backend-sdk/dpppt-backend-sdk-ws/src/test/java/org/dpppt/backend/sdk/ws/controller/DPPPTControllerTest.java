@@ -10,8 +10,12 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
@@ -24,10 +28,15 @@ import java.util.Collections;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.dpppt.backend.sdk.data.DPPPTDataService;
+import org.dpppt.backend.sdk.data.ExposeeColumns;
 import org.dpppt.backend.sdk.model.ExposedOverview;
 import org.dpppt.backend.sdk.model.Exposee;
 import org.dpppt.backend.sdk.model.ExposeeAuthData;
 import org.dpppt.backend.sdk.model.ExposeeRequest;
+import org.dpppt.backend.sdk.ws.batch.DayKeyFilter;
+import org.dpppt.backend.sdk.ws.batch.DeltaSync;
+import org.dpppt.backend.sdk.ws.security.signature.ResponseSigner;
+import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -57,6 +66,23 @@ public class DPPPTControllerTest extends BaseControllerTest {
     @Captor
     private ArgumentCaptor<Exposee> exposeeCaptor;
 
+    private static final long BATCH_LENGTH = 2 * 60 * 60 * 1000L;
+
+    @Before
+    public void emptyDatabase() {
+        when(dataService.getSortedExposedColumnsForDay(any(), nullable(Long.class), nullable(Long.class)))
+                .thenReturn(ExposeeColumns.empty());
+        when(dataService.getSortedExposedColumnsForBatchReleaseTime(anyLong(), anyLong(), nullable(Long.class),
+                nullable(Long.class))).thenReturn(ExposeeColumns.empty());
+        when(dataService.getSortedExposedColumnsForBatchReleaseTime(anyLong(), anyLong(), anyInt(), anyInt()))
+                .thenReturn(ExposeeColumns.empty());
+        when(dataService.getExposedColumnsAfterId(anyInt(), anyLong(), anyInt())).thenReturn(ExposeeColumns.empty());
+        when(dataService.getExposedColumnsUpToIdReceivedBetween(anyInt(), anyLong(), anyLong()))
+                .thenReturn(ExposeeColumns.empty());
+        when(dataService.getExposedColumnsUpToIdReceivedBetween(anyInt(), anyInt(), anyLong(), anyLong(), anyInt()))
+                .thenReturn(ExposeeColumns.empty());
+    }
+
 
     @Test
     public void testHello() throws Exception {
@@ -306,6 +332,201 @@ public class DPPPTControllerTest extends BaseControllerTest {
 
     }
 
+    @Test
+    public void batchIsSignedAndAnswersConditionalRequests() throws Exception {
+        String url = "/v1/exposed/" + sealedBatch();
+        String etag = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().exists(ResponseSigner.HEADER_DIGEST))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void batchParametersAreValidated() throws Exception {
+        mockMvc.perform(get("/v1/exposed/" + (sealedBatch() + 1)))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v1/exposed/" + (sealedBatch() + 2 * BATCH_LENGTH)))
+                .andExpect(status().isNotFound());
+        // pages can not be filtered by key date
+        mockMvc.perform(get("/v1/exposed/" + sealedBatch())
+                .param("pageSize", "10")
+                .param("keyDateFrom", Long.toString(yesterday().atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli())))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v1/exposed/" + sealedBatch()).param("pageSize", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v1/exposed/" + sealedBatch())
+                .param("keyDateFrom", Long.toString(System.currentTimeMillis()))
+                .param("keyDateTo", Long.toString(System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void batchPageIsSigned() throws Exception {
+        mockMvc.perform(get("/v1/exposed/" + sealedBatch()).param("pageSize", "10"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().exists(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void headDescribesBatchWithoutBody() throws Exception {
+        String url = "/v1/exposed/" + sealedBatch();
+        MockHttpServletResponse batch = mockMvc.perform(get(url))
+                .andExpect(status().isOk()).andReturn().getResponse();
+
+        MockHttpServletResponse described = mockMvc.perform(head(url))
+                .andExpect(status().isOk())
+                .andExpect(header().string(ResponseSigner.HEADER_SIGNATURE,
+                        batch.getHeader(ResponseSigner.HEADER_SIGNATURE)))
+                .andExpect(header().string(HttpHeaders.ETAG, batch.getHeader(HttpHeaders.ETAG)))
+                .andReturn().getResponse();
+        assertEquals(batch.getContentAsByteArray().length, described.getContentLength());
+        assertEquals(0, described.getContentAsByteArray().length);
+
+        mockMvc.perform(head(url).header(HttpHeaders.IF_NONE_MATCH, batch.getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(head("/v1/exposed/" + (sealedBatch() + 1)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void sinceBundlesBatchesAndAnswersConditionalRequests() throws Exception {
+        String url = "/v1/exposed/since/" + (sealedBatch() - 3 * BATCH_LENGTH);
+        String etag = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/v1/exposed/since/" + (sealedBatch() + 1)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void dayIsSignedAndAnswersConditionalRequests() throws Exception {
+        String url = "/v1/exposed/day/" + yesterday();
+        String etag = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get(url)
+                .param("keyDateFrom", Long.toString(yesterday().atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli())))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE));
+    }
+
+    @Test
+    public void dayParametersAreValidated() throws Exception {
+        mockMvc.perform(get("/v1/exposed/day/not-a-day"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v1/exposed/day/" + yesterday().plusDays(3)))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/v1/exposed/day/" + yesterday().minusDays(30)))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void keyFilterIsSignedAndAnswersConditionalRequests() throws Exception {
+        String url = "/v1/exposed/filter/" + yesterday();
+        String etag = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().string(DayKeyFilter.HEADER_KEY_COUNT, "0"))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/v1/exposed/filter/" + yesterday().plusDays(3)))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/v1/exposed/filter/not-a-day"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void deltaHandsOutCursor() throws Exception {
+        String cursor = mockMvc.perform(get("/v1/exposed/delta"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().string(DeltaSync.HEADER_HAS_MORE, "false"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"))
+                .andReturn().getResponse().getHeader(DeltaSync.HEADER_NEXT_CURSOR);
+        assertNotNull(cursor);
+
+        mockMvc.perform(get("/v1/exposed/delta").param("cursor", cursor))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(DeltaSync.HEADER_NEXT_CURSOR));
+        mockMvc.perform(get("/v1/exposed/delta").param("cursor", "not-a-cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void manifestIsSignedAndAnswersConditionalRequests() throws Exception {
+        String etag = mockMvc.perform(get("/v1/exposed/manifest"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/v1/exposed/manifest").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void nextAndFeedAnswerAsynchronously() throws Exception {
+        mockMvc.perform(get("/v1/exposed/next").param("after", Long.toString(System.currentTimeMillis())))
+                .andExpect(request().asyncStarted());
+        mockMvc.perform(get("/v1/exposed/next").param("after", "not-a-time"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v1/exposed/feed"))
+                .andExpect(request().asyncStarted());
+    }
+
+    @Test
+    public void secondVersionIsServed() throws Exception {
+        String url = "/v2/exposed/" + sealedBatch();
+        String etag = mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(head(url))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+        mockMvc.perform(get("/v2/exposed/day/" + yesterday()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(ResponseSigner.HEADER_SIGNATURE));
+        mockMvc.perform(get(url)
+                .param("pageSize", "10")
+                .param("keyDateFrom", Long.toString(yesterday().atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli())))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v2/exposed/day/not-a-day"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static long sealedBatch() {
+        long now = System.currentTimeMillis();
+        return now - now % BATCH_LENGTH - BATCH_LENGTH;
+    }
+
+    private static LocalDate yesterday() {
+        return LocalDate.now(ZoneOffset.UTC).minusDays(1);
+    }
+
     private Exposee getExposee() {
         Exposee exposee = new Exposee();
         exposee.setId(1);